@@ -0,0 +1,105 @@
+package interpreter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+* An ascii char sequence presents the bytes of a ByteBuffer as characters without
+* decoding them, one character per byte. This is exact for ASCII text in a charset
+* where a byte below 128 always stands for that ASCII character, which holds for
+* UTF-8 and for single-byte charsets such as ISO-8859-1, but not for multi-byte
+* charsets such as Shift_JIS or GBK. Bytes outside of ASCII are seen as the
+* replacement character U+FFFD by charAt, so they are never mistaken for the start
+* of a token or the end of a line. Converting a range that contains them to a String
+* decodes that range with the real charset.
+*/
+public class AsciiCharSequence implements CharSequence {
+
+  static final char NON_ASCII = '\uFFFD';
+
+  private final ByteBuffer bytes;
+  private final int offset;
+  private final int length;
+  private final Charset charset;
+
+  /**
+  * Creates a char sequence over all of the remaining bytes of a buffer.
+  * @param bytes     The bytes to present as characters
+  * @param charset   The charset to decode non-ASCII text with
+  */
+  public AsciiCharSequence(ByteBuffer bytes, Charset charset) {
+    this(bytes, bytes.position(), bytes.remaining(), charset);
+  }
+
+  private AsciiCharSequence(ByteBuffer bytes, int offset, int length, Charset charset) {
+    this.bytes = bytes;
+    this.offset = offset;
+    this.length = length;
+    this.charset = charset;
+  }
+
+  /**
+  * isAsciiCompatible
+  * Checks whether every byte below 128 in text of a charset is the ASCII character
+  * with that code, which is required for an ascii char sequence to be read correctly.
+  * That is so for UTF-8, US-ASCII and single-byte charsets that agree with ASCII.
+  * Multi-byte charsets such as Shift_JIS, GBK and Big5 are not compatible, since the
+  * second byte of a character may be below 128.
+  * @param charset   The charset to check
+  * @return          true if the charset agrees with ASCII
+  */
+  public static boolean isAsciiCompatible(Charset charset) {
+    if (!charset.equals(StandardCharsets.UTF_8) && !charset.equals(StandardCharsets.US_ASCII)) {
+      try {
+        if (charset.newEncoder().maxBytesPerChar() != 1.0f) {
+          return false;
+        }
+      }
+      catch (UnsupportedOperationException e) {
+        // a charset that can only decode cannot be checked
+        return false;
+      }
+    }
+    byte[] ascii = new byte[128];
+    for (int i = 0; i < ascii.length; i++) {
+      ascii[i] = (byte)i;
+    }
+    return new String(ascii, charset).equals(new String(ascii, StandardCharsets.US_ASCII));
+  }
+
+  public int length() {
+    return this.length;
+  }
+
+  public char charAt(int index) {
+    if (index < 0 || index >= this.length) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + this.length);
+    }
+    byte b = this.bytes.get(this.offset + index);
+    return b >= 0 ? (char)b : NON_ASCII;
+  }
+
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > this.length || start > end) {
+      throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of bounds for length " + this.length);
+    }
+    return new AsciiCharSequence(this.bytes, this.offset + start, end - start, this.charset);
+  }
+
+  /**
+  * Copies the bytes into a String, decoding them with the charset only if
+  * any of them are outside of ASCII.
+  */
+  @Override
+  public String toString() {
+    byte[] copy = new byte[this.length];
+    boolean ascii = true;
+    for (int i = 0; i < this.length; i++) {
+      copy[i] = this.bytes.get(this.offset + i);
+      ascii &= copy[i] >= 0;
+    }
+    return new String(copy, ascii ? StandardCharsets.ISO_8859_1 : this.charset);
+  }
+
+}
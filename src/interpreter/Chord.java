@@ -1,49 +1,106 @@
 package interpreter;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class Chord implements MusicalElement {
 
   private final List<Note> notes;
+  // true if the chord belongs to a MeasureTable, which shares it
+  private final boolean shared;
 
   public Chord() {
     this.notes = new ArrayList<Note>();
+    this.shared = false;
   }
 
   public Chord(Note note) {
     this.notes = new ArrayList<Note>();
     this.notes.add(note);
+    this.shared = false;
   }
 
   public Chord(List<Note> notes) {
     this.notes = notes;
+    this.shared = false;
+  }
+
+  /**
+  * Creates a shared chord, whose notes can't be changed
+  */
+  private Chord(List<Note> notes, boolean shared) {
+    this.notes = Collections.unmodifiableList(notes);
+    this.shared = shared;
+  }
+
+  /**
+  * share
+  * Creates a chord equal to this one that can't be changed, holding the shared
+  * Note of each of its notes, for a MeasureTable
+  * @return The shared chord
+  */
+  Chord share() {
+    List<Note> sharedNotes = new ArrayList<Note>(this.notes.size());
+    for (Note note : this.notes) {
+      sharedNotes.add((note.isShared() || note.getLength() == null) ? note : Note.valueOf(note.getPitch(),
+      note.getOctave(), note.getAccidental(), note.getLength().getNumerator(), note.getLength().getDenominator()));
+    }
+    return new Chord(sharedNotes, true);
+  }
+
+  /**
+  * Returns true if the chord is shared by a MeasureTable, and so can't be changed
+  */
+  public boolean isShared() {
+    return this.shared;
   }
 
   public void addNote(Note note) {
+    checkNotShared();
     notes.add(note);
   }
 
   public void addNotes(List<Note> noteList) {
+    checkNotShared();
     for (Note note : noteList) {
       notes.add(note);
     }
   }
 
+  private void checkNotShared() {
+    if (this.shared) {
+      throw new UnsupportedOperationException("Chord " + this + " is shared and can't be changed");
+    }
+  }
+
   public List<Note> getNotes() {
     return notes;
   }
 
   public Meter getLength() {
     Meter result = new Meter(0,1);
+    Duration longest = Duration.ZERO;
     for (Note note : this.notes) {
-      if (note.getLength().compute() > result.compute()) {
+      if (note.getDuration().compareTo(longest) > 0) {
         result = note.getLength();
+        longest = note.getDuration();
       }
     }
     return result;
   }
 
+  /**
+  * Returns the exact length of the chord, which is the length of its longest note
+  */
+  public Duration getDuration() {
+    Duration result = Duration.ZERO;
+    for (Note note : this.notes) {
+      result = result.max(note.getDuration());
+    }
+    return result;
+  }
+
   public <R> R accept(MusicalElementVisitor<R> visitor) {
     return visitor.visit(this);
   }
@@ -73,4 +130,9 @@ public class Chord implements MusicalElement {
     return this.notes.equals(otherChord.getNotes());
   }
 
+  @Override
+  public int hashCode() {
+    return this.notes.hashCode();
+  }
+
 }
@@ -0,0 +1,172 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+* A collection lexer tokenizes an abc file holding several tunes, lexing the tunes
+* in parallel.
+*
+* Each tune in a collection begins with an index header ('X:') at the start of a line,
+* and no token can run from one line to the next, so the tunes can be split apart
+* with a single cheap pass over the characters and then lexed independently. The
+* tunes are lexed on a fork-join pool, each into its own TokenBuffer over the
+* shared source, and the buffers are returned in the order the tunes appear.
+*/
+public class CollectionLexer {
+
+  private final CharSequence source;
+  private final ForkJoinPool pool;
+
+  /**
+  * Creates the lexer over the passed collection, lexing on the common fork-join pool.
+  *
+  * @param source
+  *            The characters of the collection to tokenize.
+  */
+  public CollectionLexer(CharSequence source) {
+    this(source, ForkJoinPool.commonPool());
+  }
+
+  /**
+  * Creates the lexer over the passed collection, lexing on the passed pool.
+  *
+  * @param source
+  *            The characters of the collection to tokenize.
+  * @param pool
+  *            The pool to lex the tunes on.
+  */
+  public CollectionLexer(CharSequence source, ForkJoinPool pool) {
+    this.source = source;
+    this.pool = pool;
+  }
+
+  /**
+  * findTuneStarts
+  * Finds the offset of the start of each tune, which is the start of each line that
+  * begins with 'X:'. Text before the first tune, such as a file header, belongs to no
+  * tune. If there is no index header at all, the whole input is treated as one tune.
+  * @return The offsets of the tunes in the source, in increasing order
+  */
+  public int[] findTuneStarts() {
+    int[] starts = new int[16];
+    int count = 0;
+    int start = nextTuneStart(this.source, 0);
+    while (start >= 0) {
+      if (count == starts.length) {
+        starts = Arrays.copyOf(starts, count * 2);
+      }
+      starts[count++] = start;
+      start = nextTuneStart(this.source, start + 1);
+    }
+    if (count == 0) {
+      return new int[] { 0 };
+    }
+    return Arrays.copyOf(starts, count);
+  }
+
+  /**
+  * nextTuneStart
+  * Finds the start of the first line at or after from that begins with 'X:'
+  * @param source    The characters of the collection
+  * @param from      The offset to begin looking from
+  * @return          The offset of the start of the line, or -1 if there is none
+  */
+  static int nextTuneStart(CharSequence source, int from) {
+    int length = source.length();
+    boolean lineStart = (from == 0 || source.charAt(from - 1) == '\n' || source.charAt(from - 1) == '\r');
+    for (int i = from; i < length - 1; i++) {
+      char c = source.charAt(i);
+      if (lineStart && c == 'X' && source.charAt(i + 1) == ':') {
+        return i;
+      }
+      lineStart = (c == '\n' || c == '\r');
+    }
+    return -1;
+  }
+
+  /**
+  * generateTokenBuffers
+  * Lexes every tune in the collection in parallel. Each buffer holds the tokens
+  * of one tune, with offsets into the whole source. Throws an
+  * IllegalArgumentException if any tune has illegal characters in it; when several
+  * do, the error is the one for the first of them.
+  * @return The tokens of each tune, in the order the tunes appear
+  */
+  public List<TokenBuffer> generateTokenBuffers() {
+
+    int[] starts = findTuneStarts();
+    TokenBuffer[] buffers = new TokenBuffer[starts.length];
+    IllegalArgumentException[] errors = new IllegalArgumentException[starts.length];
+
+    this.pool.invoke(new LexTask(starts, 0, starts.length, buffers, errors));
+
+    for (int i = 0; i < errors.length; i++) {
+      if (errors[i] != null) {
+        throw new IllegalArgumentException("Tune " + (i + 1) + ": " + errors[i].getMessage(), errors[i]);
+      }
+    }
+    return Arrays.asList(buffers);
+  }
+
+  /**
+  * generateTokens
+  * Lexes every tune in the collection in parallel into lists of Tokens.
+  * Throws an IllegalArgumentException if any tune has illegal characters in it.
+  * @return The tokens of each tune, in the order the tunes appear
+  */
+  public List<List<Token>> generateTokens() {
+    List<List<Token>> result = new ArrayList<List<Token>>();
+    for (TokenBuffer buffer : generateTokenBuffers()) {
+      result.add(buffer.toTokens());
+    }
+    return result;
+  }
+
+  /**
+  * A lex task lexes a range of tunes, splitting the range in half until each
+  * task holds a single tune. Every tune writes its result, or its error, to its
+  * own slot, so the tasks share nothing else.
+  */
+  private class LexTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] starts;
+    private final int from;
+    private final int to;
+    private final TokenBuffer[] buffers;
+    private final IllegalArgumentException[] errors;
+
+    LexTask(int[] starts, int from, int to, TokenBuffer[] buffers, IllegalArgumentException[] errors) {
+      this.starts = starts;
+      this.from = from;
+      this.to = to;
+      this.buffers = buffers;
+      this.errors = errors;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.to - this.from > 1) {
+        int middle = (this.from + this.to) >>> 1;
+        invokeAll(new LexTask(this.starts, this.from, middle, this.buffers, this.errors),
+        new LexTask(this.starts, middle, this.to, this.buffers, this.errors));
+        return;
+      }
+      int start = this.starts[this.from];
+      int end = (this.from + 1 < this.starts.length) ? this.starts[this.from + 1] : source.length();
+      TokenBuffer buffer = new TokenBuffer(source);
+      try {
+        new TokenStream(source, start, end).drainInto(buffer);
+        this.buffers[this.from] = buffer;
+      } catch (IllegalArgumentException e) {
+        this.errors[this.from] = e;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,219 @@
+package interpreter;
+
+import java.math.BigInteger;
+
+/**
+* A duration is an exact length of time, as a fraction of some unit such as the
+* default note length.
+*
+* Durations are immutable and always in lowest terms, with a positive denominator,
+* so two durations are equal exactly when their values are. Unlike Meter, which keeps
+* a length as it was written, adding durations doesn't let the denominator grow, and
+* they compare exactly rather than as doubles. The numerator and denominator are longs,
+* and an operation whose result doesn't fit throws an ArithmeticException rather than
+* overflowing silently. Durations with small numerators and denominators are shared,
+* so the common lengths of notes don't allocate.
+*/
+public final class Duration implements Comparable<Duration> {
+
+  private static final int CACHED = 16;
+  // CACHE[n][d] holds n/d in lowest terms, for 0 <= n <= CACHED and 1 <= d <= CACHED
+  private static final Duration[][] CACHE = new Duration[CACHED + 1][CACHED + 1];
+
+  static {
+    for (int d = 1; d <= CACHED; d++) {
+      for (int n = 0; n <= CACHED; n++) {
+        long divisor = gcd(n, d);
+        if (divisor == 1) {
+          CACHE[n][d] = new Duration(n, d);
+        }
+      }
+    }
+    for (int d = 1; d <= CACHED; d++) {
+      for (int n = 0; n <= CACHED; n++) {
+        long divisor = gcd(n, d);
+        CACHE[n][d] = CACHE[(int)(n / divisor)][(int)(d / divisor)];
+      }
+    }
+  }
+
+  public static final Duration ZERO = of(0, 1);
+  public static final Duration ONE = of(1, 1);
+
+  private final long numerator;
+  private final long denominator;
+
+  private Duration(long numerator, long denominator) {
+    this.numerator = numerator;
+    this.denominator = denominator;
+  }
+
+  /**
+  * of
+  * Returns the duration numerator/denominator, in lowest terms
+  * @param numerator     The numerator
+  * @param denominator   The denominator, which must not be zero
+  * @return              The duration
+  */
+  public static Duration of(long numerator, long denominator) {
+    if (denominator == 0) {
+      throw new IllegalArgumentException("Duration " + numerator + "/" + denominator + " has a zero denominator");
+    }
+    if (numerator >= 0 && numerator <= CACHED && denominator > 0 && denominator <= CACHED) {
+      return CACHE[(int)numerator][(int)denominator];
+    }
+    if (denominator < 0) {
+      numerator = Math.negateExact(numerator);
+      denominator = Math.negateExact(denominator);
+    }
+    long divisor = gcd(Math.abs(numerator), denominator);
+    numerator /= divisor;
+    denominator /= divisor;
+    if (numerator >= 0 && numerator <= CACHED && denominator <= CACHED) {
+      return CACHE[(int)numerator][(int)denominator];
+    }
+    return new Duration(numerator, denominator);
+  }
+
+  /**
+  * of
+  * Returns the value of a length as written, in lowest terms
+  * @param length    The length
+  * @return          The duration
+  */
+  public static Duration of(Meter length) {
+    return of(length.getNumerator(), length.getDenominator());
+  }
+
+  private static long gcd(long a, long b) {
+    while (b > 0) {
+      long temp = b;
+      b = a % b;
+      a = temp;
+    }
+    return a;
+  }
+
+  public long getNumerator() {
+    return this.numerator;
+  }
+
+  public long getDenominator() {
+    return this.denominator;
+  }
+
+  /**
+  * add
+  * Adds two durations, reducing before multiplying so the intermediate values stay small
+  * @exception Throws ArithmeticException if the result doesn't fit in a long
+  */
+  public Duration add(Duration other) {
+    if (other.numerator == 0) {
+      return this;
+    }
+    if (this.numerator == 0) {
+      return other;
+    }
+    long divisor = gcd(this.denominator, other.denominator);
+    long thisScale = other.denominator / divisor;
+    long otherScale = this.denominator / divisor;
+    return of(Math.addExact(Math.multiplyExact(this.numerator, thisScale), Math.multiplyExact(other.numerator, otherScale)),
+    Math.multiplyExact(this.denominator, thisScale));
+  }
+
+  /**
+  * multiply
+  * Multiplies two durations, cancelling common factors first
+  * @exception Throws ArithmeticException if the result doesn't fit in a long
+  */
+  public Duration multiply(Duration other) {
+    long a = gcd(Math.abs(this.numerator), other.denominator);
+    long b = gcd(Math.abs(other.numerator), this.denominator);
+    return of(Math.multiplyExact(this.numerator / a, other.numerator / b),
+    Math.multiplyExact(this.denominator / b, other.denominator / a));
+  }
+
+  /**
+  * Returns the longer of this duration and other, or this one if they are equal
+  */
+  public Duration max(Duration other) {
+    return (other.compareTo(this) > 0) ? other : this;
+  }
+
+  /**
+  * Compares two durations exactly, falling back on BigInteger if the cross products
+  * don't fit in a long
+  */
+  public int compareTo(Duration other) {
+    if (this.denominator == other.denominator) {
+      return Long.compare(this.numerator, other.numerator);
+    }
+    try {
+      return Long.compare(Math.multiplyExact(this.numerator, other.denominator),
+      Math.multiplyExact(other.numerator, this.denominator));
+    } catch (ArithmeticException e) {
+      return BigInteger.valueOf(this.numerator).multiply(BigInteger.valueOf(other.denominator))
+      .compareTo(BigInteger.valueOf(other.numerator).multiply(BigInteger.valueOf(this.denominator)));
+    }
+  }
+
+  /**
+  * toTicks
+  * Converts the duration to a whole number of ticks, rounding half a tick up
+  * @param ticksPerUnit  The number of ticks in a duration of one
+  * @exception           Throws ArithmeticException if the result doesn't fit in an int
+  * @return              The number of ticks
+  */
+  public int toTicks(int ticksPerUnit) {
+    return toTicks(this.numerator, this.denominator, ticksPerUnit);
+  }
+
+  /**
+  * toTicks
+  * Converts the duration numerator/denominator to ticks like toTicks, for callers
+  * that keep durations as numbers rather than Duration objects
+  * @param numerator     The numerator
+  * @param denominator   The denominator, which must be positive
+  * @param ticksPerUnit  The number of ticks in a duration of one
+  * @exception           Throws ArithmeticException if the result doesn't fit in an int
+  * @return              The number of ticks
+  */
+  static int toTicks(long numerator, long denominator, int ticksPerUnit) {
+    long ticks = Math.multiplyExact(numerator, (long)ticksPerUnit);
+    return Math.toIntExact(Math.floorDiv(Math.addExact(Math.multiplyExact(ticks, 2L), denominator),
+    Math.multiplyExact(denominator, 2L)));
+  }
+
+  /**
+  * toMeter
+  * Returns the duration as a Meter
+  * @exception Throws ArithmeticException if the numerator or denominator doesn't fit in an int
+  */
+  public Meter toMeter() {
+    return new Meter(Math.toIntExact(this.numerator), Math.toIntExact(this.denominator));
+  }
+
+  public double compute() {
+    return (double)this.numerator / (double)this.denominator;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof Duration)) {
+      return false;
+    }
+    Duration otherDuration = (Duration)other;
+    return this.numerator == otherDuration.numerator && this.denominator == otherDuration.denominator;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int)(31 * this.numerator + this.denominator);
+  }
+
+  @Override
+  public String toString() {
+    return this.numerator + "/" + this.denominator;
+  }
+
+}
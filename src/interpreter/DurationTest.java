@@ -0,0 +1,41 @@
+package interpreter;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class DurationTest {
+
+  // test to confirm durations are kept reduced, overflow is reported rather than wrapped,
+  // and measures and chords of tuplets are measured exactly
+  @Test
+  public void durationTest() {
+    assertEquals(Duration.of(1, 2), Duration.of(4, 8));
+    assertSame(Duration.of(3, 2), Duration.of(-6, -4));
+    assertEquals("1/3", Duration.of(2, 6).toString());
+    assertTrue(Duration.of(2, 3).compareTo(Duration.of(7, 10)) < 0);
+    assertEquals(Duration.ONE, Duration.of(2, 3).add(Duration.of(1, 3)));
+    assertEquals(Duration.of(1, 2), Duration.of(3, 4).multiply(Duration.of(2, 3)));
+    assertEquals(3, Duration.of(5, 8).toTicks(4));
+    try {
+      Duration.of(Long.MAX_VALUE, 1).add(Duration.ONE);
+      fail("Expected an exception");
+    } catch (ArithmeticException e) {
+    }
+
+    // a measure of many tuplets, whose length written unreduced would overflow an int
+    Measure measure = new Measure();
+    for (int i = 0; i < 24; i++) {
+      measure.addChord(new Chord(new Note('A', 0, 0, new Meter(2, 3))));
+      measure.addChord(new Chord(new Note('B', 0, 0, new Meter(3, 2))));
+    }
+    assertEquals(new Meter(52, 1), measure.getLength());
+
+    // the longest note of a chord is found exactly
+    Chord chord = new Chord(new Note('A', 0, 0, new Meter(1, 3)));
+    chord.addNote(new Note('C', 0, 0, new Meter(2, 6)));
+    chord.addNote(new Note('E', 0, 0, new Meter(1, 2)));
+    assertEquals(new Meter(1, 2), chord.getLength());
+    assertEquals(Duration.of(1, 2), chord.getDuration());
+  }
+
+}
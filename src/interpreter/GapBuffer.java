@@ -0,0 +1,130 @@
+package interpreter;
+
+/**
+* A gap buffer is a sequence of characters that can be edited in place. The characters
+* are kept in one array with a gap of unused space at the place of the last edit, so an
+* edit only moves the characters between it and the previous edit, and copies only the
+* characters it inserts. Edits close together, as a user typing makes them, cost about
+* as much as the text they change, whatever the length of the whole sequence.
+*/
+public class GapBuffer implements CharSequence {
+
+  private static final int MINIMUM_GAP = 64;
+
+  private char[] chars;
+  private int gapStart;
+  private int gapEnd;
+
+  /**
+  * Creates a gap buffer holding a copy of the passed characters, with the gap at the end
+  * @param text      The characters to copy
+  */
+  public GapBuffer(CharSequence text) {
+    int length = text.length();
+    this.chars = new char[length + Math.max(MINIMUM_GAP, length / 8)];
+    for (int i = 0; i < length; i++) {
+      this.chars[i] = text.charAt(i);
+    }
+    this.gapStart = length;
+    this.gapEnd = this.chars.length;
+  }
+
+  public int length() {
+    return this.chars.length - (this.gapEnd - this.gapStart);
+  }
+
+  public char charAt(int index) {
+    if (index < 0 || index >= length()) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length());
+    }
+    return this.chars[index < this.gapStart ? index : index + this.gapEnd - this.gapStart];
+  }
+
+  /**
+  * subSequence
+  * Copies a range of the characters, so the result does not change when the buffer is edited
+  */
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > length() || start > end) {
+      throw new IndexOutOfBoundsException("Range " + start + " to " + end + " out of bounds for length " + length());
+    }
+    StringBuilder result = new StringBuilder(end - start);
+    appendTo(result, start, end);
+    return result.toString();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder(length());
+    appendTo(result, 0, length());
+    return result.toString();
+  }
+
+  /**
+  * replace
+  * Replaces a range of the characters with others, moving the gap to the end of the
+  * inserted characters
+  * @param offset        The offset of the first character to replace
+  * @param removedLength The number of characters to remove
+  * @param inserted      The characters to put in their place
+  */
+  void replace(int offset, int removedLength, CharSequence inserted) {
+    if (offset < 0 || removedLength < 0 || offset + removedLength > length()) {
+      throw new IndexOutOfBoundsException("Edit of " + removedLength + " characters at " + offset + " out of bounds for length " + length());
+    }
+    moveGap(offset);
+    this.gapEnd += removedLength;
+    int insertedLength = inserted.length();
+    if (this.gapEnd - this.gapStart < insertedLength) {
+      grow(insertedLength);
+    }
+    for (int i = 0; i < insertedLength; i++) {
+      this.chars[this.gapStart++] = inserted.charAt(i);
+    }
+  }
+
+  /**
+  * Moves the gap so it starts at offset, moving the characters between
+  */
+  private void moveGap(int offset) {
+    if (offset < this.gapStart) {
+      int count = this.gapStart - offset;
+      System.arraycopy(this.chars, offset, this.chars, this.gapEnd - count, count);
+      this.gapStart -= count;
+      this.gapEnd -= count;
+    }
+    else if (offset > this.gapStart) {
+      int count = offset - this.gapStart;
+      System.arraycopy(this.chars, this.gapEnd, this.chars, this.gapStart, count);
+      this.gapStart += count;
+      this.gapEnd += count;
+    }
+  }
+
+  /**
+  * Enlarges the array so the gap holds at least needed characters
+  */
+  private void grow(int needed) {
+    int length = length();
+    char[] grown = new char[length + needed + Math.max(MINIMUM_GAP, length / 8)];
+    int tail = this.chars.length - this.gapEnd;
+    System.arraycopy(this.chars, 0, grown, 0, this.gapStart);
+    System.arraycopy(this.chars, this.gapEnd, grown, grown.length - tail, tail);
+    this.gapEnd = grown.length - tail;
+    this.chars = grown;
+  }
+
+  /**
+  * Appends a range of the characters to a builder, on either side of the gap
+  */
+  private void appendTo(StringBuilder builder, int start, int end) {
+    if (start < this.gapStart) {
+      builder.append(this.chars, start, Math.min(end, this.gapStart) - start);
+    }
+    if (end > this.gapStart) {
+      int from = Math.max(start, this.gapStart) + this.gapEnd - this.gapStart;
+      builder.append(this.chars, from, end + this.gapEnd - this.gapStart - from);
+    }
+  }
+
+}
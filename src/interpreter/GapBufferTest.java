@@ -0,0 +1,40 @@
+package interpreter;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class GapBufferTest {
+
+  // test to confirm edits at the start, middle and end of a gap buffer, and edits
+  // larger than its gap, read back the same as the same edits made to a string
+  @Test
+  public void gapBufferReplaceTest() {
+
+    String text = "A B c d|e f g a|";
+    GapBuffer buffer = new GapBuffer(text);
+    assertEquals(text, buffer.toString());
+
+    int[][] edits = { {8, 1}, {0, 2}, {text.length() - 3, 3}, {4, 0}, {2, 5} };
+    String[] inserted = { "^e2", "", "|]", "z2 z2 z2 z2 z2 z2 z2 z2 z2 z2 z2 z2 z2 z2 z2 z2 z2 z2 z2 z2 z2 z2 z2 z2 z2 z2", "C" };
+    for (int i = 0; i < edits.length; i++) {
+      int offset = edits[i][0];
+      int removed = edits[i][1];
+      buffer.replace(offset, removed, inserted[i]);
+      text = text.substring(0, offset) + inserted[i] + text.substring(offset + removed);
+      assertEquals(text, buffer.toString());
+      assertEquals(text.length(), buffer.length());
+      assertEquals(text.charAt(offset), buffer.charAt(offset));
+      assertEquals(text.substring(1, text.length() - 1), buffer.subSequence(1, text.length() - 1).toString());
+    }
+
+  }
+
+  // test to confirm an edit out of the bounds of a gap buffer is rejected
+  @Test(expected=IndexOutOfBoundsException.class)
+  public void gapBufferBoundsTest() {
+
+    new GapBuffer("A B c").replace(4, 2, "d");
+
+  }
+
+}
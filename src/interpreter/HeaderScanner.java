@@ -0,0 +1,178 @@
+package interpreter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+* A header scanner reads the headers of the tunes of an abc collection one tune at
+* a time, producing one TuneHeader per call to next.
+*
+* Only header lines are read: the header of a tune is read line by line up to its key
+* signature header, and the body is then skipped by looking at nothing but the start
+* of each line for the index header ('X') of the next tune. Nothing is lexed or
+* parsed, no key signature is loaded and no measure is checked, and a tune whose body
+* is not valid abc is listed like any other. As for a CollectionLexer, each tune begins
+* with an index header at the start of a line, and if there is none at all the whole
+* input is one tune.
+*/
+public class HeaderScanner implements Iterator<TuneHeader> {
+
+  private final CharSequence source;
+  // the offset of the start of the next tune, or -1 once there are no more
+  private int next;
+
+  /**
+  * Creates a header scanner over a collection held in memory, such as the mapped
+  * file returned by Util.readCharSequenceFromFile.
+  * @param source    The characters of the collection
+  */
+  public HeaderScanner(CharSequence source) {
+    this.source = source;
+    this.next = CollectionLexer.nextTuneStart(source, 0);
+    if (this.next < 0 && source.length() > 0) {
+      this.next = 0;
+    }
+  }
+
+  /**
+  * fromFile
+  * Creates a header scanner over a collection file, which is memory-mapped rather
+  * than read into memory
+  * @param path      The path of the file
+  * @exception       Throws IOException if there was an error reading the file
+  * @return          A scanner of the headers of the tunes in the file at path
+  */
+  public static HeaderScanner fromFile(String path) throws IOException {
+    return new HeaderScanner(Util.readCharSequenceFromFile(path));
+  }
+
+  public boolean hasNext() {
+    return this.next >= 0;
+  }
+
+  /**
+  * Reads the headers of the next tune, and finds the start of the one after it
+  */
+  public TuneHeader next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    int start = this.next;
+    int index = -1;
+    String title = "Untitled";
+    String composer = "Unknown";
+    String meter = "4/4";
+    String defaultNoteLength = "1/8";
+    int tempo = 100;
+    String key = null;
+    List<String> voices = new ArrayList<String>();
+
+    int length = this.source.length();
+    int lineStart = start;
+    while (lineStart < length) {
+      int lineEnd = lineStart;
+      while (lineEnd < length && !isLineTerminator(this.source.charAt(lineEnd))) {
+        lineEnd++;
+      }
+
+      int i = skipBlanks(lineStart, lineEnd);
+      if (i < lineEnd && this.source.charAt(i) != '%') {
+        if (lineEnd - i < 2 || this.source.charAt(i + 1) != ':' || "CKLMQTXV".indexOf(this.source.charAt(i)) < 0
+        || (i == lineStart && lineStart != start && this.source.charAt(i) == 'X')) {
+          // the body has begun, or the next tune, without a key signature
+          break;
+        }
+        char field = this.source.charAt(i);
+        int valueEnd = i + 2;
+        while (valueEnd < lineEnd && this.source.charAt(valueEnd) != '%') {
+          valueEnd++;
+        }
+        // the values are read as the parser reads them, some with all whitespace removed
+        String value = this.source.subSequence(skipBlanks(i + 2, valueEnd), valueEnd).toString();
+        String stripped = removeBlanks(value);
+
+        if (field == 'X' && lineStart == start) {
+          try {
+            index = Integer.parseInt(stripped);
+          } catch (NumberFormatException e) {
+            // left at the default, as an unreadable index makes the tune fail to parse
+          }
+        }
+        else if (field == 'T' && title.equals("Untitled")) {
+          title = value;
+        }
+        else if (field == 'C') {
+          composer = value;
+        }
+        else if (field == 'M') {
+          meter = stripped.equals("C") ? "4/4" : stripped.equals("C|") ? "2/2" : stripped;
+        }
+        else if (field == 'L') {
+          defaultNoteLength = stripped;
+        }
+        else if (field == 'Q') {
+          try {
+            tempo = Integer.parseInt(stripped);
+          } catch (NumberFormatException e) {
+            tempo = -1;
+          }
+        }
+        else if (field == 'V') {
+          voices.add(value);
+        }
+        else if (field == 'K') {
+          key = stripped;
+          lineStart = lineEnd;
+          break;
+        }
+      }
+      lineStart = lineEnd + 1;
+    }
+
+    this.next = CollectionLexer.nextTuneStart(this.source, Math.min(Math.max(lineStart, start + 1), length));
+    return new TuneHeader(start, index, title, composer, meter, defaultNoteLength, tempo, key, voices);
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+  * Returns true if c ends a header field, as it does for the lexer
+  */
+  private static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  /**
+  * Returns value with all of its spaces and tabs removed
+  */
+  private static String removeBlanks(String value) {
+    if (value.indexOf(' ') < 0 && value.indexOf('\t') < 0) {
+      return value;
+    }
+    StringBuilder result = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c != ' ' && c != '\t') {
+        result.append(c);
+      }
+    }
+    return result.toString();
+  }
+
+  /**
+  * Returns the offset of the first character at or after start, and before end, that is not a space or tab
+  */
+  private int skipBlanks(int start, int end) {
+    int i = start;
+    while (i < end && (this.source.charAt(i) == ' ' || this.source.charAt(i) == '\t')) {
+      i++;
+    }
+    return i;
+  }
+
+}
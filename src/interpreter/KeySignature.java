@@ -9,6 +9,7 @@ import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.Element;
 import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class KeySignature {
 
@@ -21,6 +22,30 @@ public class KeySignature {
   private List<Character> notes;
   private KeySignatureType type;
 
+  // the key signatures returned by valueOf, keyed by their key
+  private static final ConcurrentHashMap<String, KeySignature> shared = new ConcurrentHashMap<String, KeySignature>();
+
+  /**
+  * valueOf
+  * Returns the key signature with the key specified by key, reading keysignature.xml
+  * only the first time each key is asked for. A key signature is never changed, so
+  * one object for each key can be shared by every piece.
+  * Throws an IllegalArgumentException if the key is not recognized.
+  * @param key   The key of the key signature
+  * @return      The shared key signature
+  */
+  public static KeySignature valueOf(String key) {
+    KeySignature keySignature = shared.get(key);
+    if (keySignature == null) {
+      KeySignature created = new KeySignature(key);
+      keySignature = shared.putIfAbsent(key, created);
+      if (keySignature == null) {
+        keySignature = created;
+      }
+    }
+    return keySignature;
+  }
+
   /**
   * Creates a new KeySignature object with the key specified by key
   * @param key   The key to use for the KeySignature
@@ -83,18 +108,42 @@ public class KeySignature {
 
   /**
   * processNote
-  * Applies the key signature to the specified note
+  * Applies the key signature to the specified note, changing its accidental.
+  * Throws an UnsupportedOperationException for a shared note from Note.valueOf,
+  * which can't be changed; use withKeyApplied for those
   * @param note     The note to process
   */
   public void processNote(Note note) {
-    if (this.notes.contains(note.getPitch())) {
+    note.setAccidental(note.getAccidental() + getAccidental(note.getPitch()));
+  }
+
+  /**
+  * withKeyApplied
+  * Applies the key signature to a note without changing it
+  * @param note     The note to apply the key signature to
+  * @return         The shared note with the key's accidental added to the note's
+  */
+  public Note withKeyApplied(Note note) {
+    return Note.valueOf(note.getPitch(), note.getOctave(), note.getAccidental() + getAccidental(note.getPitch()),
+    note.getLength().getNumerator(), note.getLength().getDenominator());
+  }
+
+  /**
+  * getAccidental
+  * Finds the accidental that the key signature applies to notes of a pitch
+  * @param pitch    The pitch of the note
+  * @return         1 for a sharp, -1 for a flat, or 0 if the key leaves the pitch alone
+  */
+  public int getAccidental(char pitch) {
+    if (this.notes.contains(pitch)) {
       if (this.type == KeySignatureType.SHARP) {
-        note.setAccidental(note.getAccidental() + 1);
+        return 1;
       }
       else {
-        note.setAccidental(note.getAccidental() - 1);
+        return -1;
       }
     }
+    return 0;
   }
 
   @Override
@@ -1,6 +1,7 @@
 package interpreter;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -60,6 +61,24 @@ public class KeySignatureTest {
 
   }
 
+  /*
+  * Test to confirm that withKeyApplied leaves a shared note alone and
+  * returns the shared note with the key's accidental added.
+  */
+
+  @Test
+  public void KeySignatureTestWithKeyApplied() {
+    KeySignature keySignature = new KeySignature("D");
+    Note note = Note.valueOf('F', 0, 0, 1, 2);
+    assertSame(Note.valueOf('F', 0, 1, 1, 2), keySignature.withKeyApplied(note));
+    assertEquals(0, note.getAccidental());
+    assertSame(note, keySignature.withKeyApplied(Note.valueOf('F', 0, -1, 1, 2)));
+
+    Note mutable = new Note('F', 0, 0, new Meter(1, 2));
+    assertSame(Note.valueOf('F', 0, 1, 1, 2), keySignature.withKeyApplied(mutable));
+    assertEquals(0, mutable.getAccidental());
+  }
+
   public void assertMajorScale(List<Note> scale) {
     int[] steps = {2, 2, 1, 2, 2, 2};
     for (int i = 0; i < steps.length; i++) {
@@ -1,21 +1,25 @@
 package interpreter;
 
-import interpreter.Token.*;
+import interpreter.Token.TokenType;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.LinkedHashMap;
-import java.util.regex.*;
 
 /**
 * A lexer takes a string and splits it into tokens that are meaningful to a
 * parser.
+*
+* The scanning itself is done by a TokenStream, a hand-written state machine that
+* walks the input once, front to back. The lexer can either hand out that stream so
+* tokens are pulled one at a time, or drain it into a list.
 */
 public class Lexer {
 
-  private String string;
+  private CharSequence string;
+  private Reader reader;
 
   /**
   * Creates the lexer over the passed string.
@@ -28,78 +32,183 @@ public class Lexer {
   }
 
   /**
-  * generateTokens
-  * Generates the list of Tokens from the string passed in the
-  * constructor. Throws an IllegalArgumentException if the input
-  * has illegal characters in it.
-  * @return The list of tokens extracted from the expression string
+  * Creates the lexer over a sequence of characters such as a CharBuffer.
+  *
+  * @param sequence
+  *            The characters to tokenize.
   */
-  public List<Token> generateTokens() {
+  public Lexer(CharSequence sequence) {
+    this.string = sequence;
+  }
 
-    List<Token> result = new ArrayList<Token>();
+  /**
+  * Creates the lexer over characters read incrementally from reader.
+  * Since a reader can only be read once, only one of generateTokens,
+  * generateTokenBuffer and tokenStream may be called on such a lexer.
+  *
+  * @param reader
+  *            The source of the characters to tokenize.
+  */
+  public Lexer(Reader reader) {
+    this.reader = reader;
+  }
+
+  /**
+  * tokenStream
+  * Creates an iterator that scans the input lazily, producing each token only
+  * when it is requested.
+  * @return A stream of the tokens in the input
+  */
+  public TokenStream tokenStream() {
+    if (this.string == null) {
+      return new TokenStream(this.reader);
+    }
+    return new TokenStream(this.string);
+  }
+
+  /**
+  * generateTokenBuffer
+  * Generates a compact buffer of all the tokens in the input, pointing into the
+  * input rather than copying the text of each token. Throws an
+  * IllegalArgumentException if the input has illegal characters in it.
+  * @return The buffer of tokens extracted from the input
+  */
+  public TokenBuffer generateTokenBuffer() {
+
+    CharSequence input = readInput();
+    TokenBuffer result = new TokenBuffer(input);
+    new TokenStream(input).drainInto(result);
+    return result;
+  }
+
+  /**
+  * relex
+  * Re-lexes a source after an edit, reusing the tokens from before the edit wherever
+  * they cannot have changed. Scanning restarts at the end of the last token that ends
+  * before the edit, since neither that token nor the character it looked ahead at has
+  * changed. It stops as soon as it begins a token after the edit at the same place,
+  * relative to the unchanged text, as a token in the previous result: from there on the
+  * scanner is reading the same text from the same state, so the remaining tokens are
+  * the previous ones, shifted by the change in length. The source and the tokens are
+  * edited in place, the source in a GapBuffer and the tokens in the gap of the token
+  * buffer, so the cost of an edit depends on its size and its distance from the
+  * previous edit rather than on the size of the source. Throws an
+  * IllegalArgumentException if the edited text has illegal characters in it, leaving
+  * previous as it was.
+  * @param previous      The tokens of the source before the edit, which become the tokens of the edited source
+  * @param offset        The offset in the previous source where the edit begins
+  * @param removedLength The number of characters the edit removed
+  * @param insertedText  The text the edit inserted in their place
+  * @return              The tokens of the edited source and the run of tokens that changed
+  */
+  public static TokenPatch relex(TokenBuffer previous, int offset, int removedLength, String insertedText) {
 
-    // start by stripping away comment line. in abc, comments begin with the '%' symbol
-    String input = this.string.replaceAll("%.*", "");
-
-    // Generate a map of patterns, matching the token type to the pattern
-    // that will detect it in the expression string
-    Map<TokenType, Pattern> patternMap = new LinkedHashMap<TokenType, Pattern>();
-
-    patternMap.put(TokenType.HEADER_FIELD, Pattern.compile("[CKLMQTX]:.*"));
-    patternMap.put(TokenType.VOICE, Pattern.compile("V:.*"));
-    patternMap.put(TokenType.TUPLET, Pattern.compile("\\([234]"));
-    patternMap.put(TokenType.NOTE_ACCIDENTAL, Pattern.compile("\\^+|\\_+|="));
-    patternMap.put(TokenType.NOTE_OCTAVE_MODIFIER, Pattern.compile("\\'|,"));
-    patternMap.put(TokenType.NOTE_NAME, Pattern.compile("[zA-Ga-g]"));
-    patternMap.put(TokenType.NOTE_LENGTH, Pattern.compile("[1-9]*/[1-9]*|[1-9]+"));
-    patternMap.put(TokenType.BAR_BEGIN_REPEAT, Pattern.compile("\\|\\:"));
-    patternMap.put(TokenType.BAR_END_REPEAT, Pattern.compile("\\:\\|"));
-    patternMap.put(TokenType.BAR, Pattern.compile("\\[\\||\\|\\]|\\|\\||\\|"));
-    patternMap.put(TokenType.FIRST_ENDING, Pattern.compile("\\[1"));
-    patternMap.put(TokenType.SECOND_ENDING, Pattern.compile("\\[2"));
-    patternMap.put(TokenType.CHORD_BEGIN, Pattern.compile("\\["));
-    patternMap.put(TokenType.CHORD_END, Pattern.compile("\\]"));
-
-    // Combine all the patterns into one so that we can move through the input
-    // by matched expressions
-    StringBuilder masterPatternStringBuilder = new StringBuilder();
-    Iterator<TokenType> iterator = patternMap.keySet().iterator();
-    while (iterator.hasNext()) {
-      TokenType tokenType = iterator.next();
-      masterPatternStringBuilder.append('(');
-      masterPatternStringBuilder.append(patternMap.get(tokenType).pattern());
-      masterPatternStringBuilder.append(')');
-      if (iterator.hasNext()) {
-        masterPatternStringBuilder.append('|');
+    CharSequence previousSource = previous.getSource();
+    if (offset < 0 || removedLength < 0 || offset + removedLength > previousSource.length()) {
+      throw new IndexOutOfBoundsException("Edit of " + removedLength + " characters at " + offset + " out of bounds for length " + previousSource.length());
+    }
+    String removedText = previousSource.subSequence(offset, offset + removedLength).toString();
+    int editEnd = offset + insertedText.length();
+
+    // the tokens ending before the edit are kept
+    int first = previous.firstTokenEndingAfter(offset - 1);
+    int restart = (first == 0) ? 0 : previous.getOffset(first - 1) + previous.getLength(first - 1);
+
+    // from here on, the tokens from moved on are at their offsets in the edited source
+    int moved = previous.firstTokenStartingAfter(offset - 1);
+    previous.editSource(moved, offset, removedLength, insertedText);
+    CharSequence source = previous.getSource();
+
+    TokenStream stream = new TokenStream(source, restart, source.length());
+    TokenBuffer inserted = new TokenBuffer(source);
+    int resync = previous.size();
+    int candidate = moved;
+    TokenType type;
+    try {
+      while ((type = stream.nextType()) != null) {
+        int start = stream.getTokenStart();
+        if (start >= editEnd) {
+          // look for a token of the previous result starting at the same place
+          while (candidate < previous.size() && previous.getOffset(candidate) < start) {
+            candidate++;
+          }
+          if (candidate < previous.size() && previous.getOffset(candidate) == start) {
+            resync = candidate;
+            break;
+          }
+        }
+        inserted.add(type, start, stream.getTokenEnd() - start);
       }
+      stream.checkInvalidCharacters();
+    } catch (IllegalArgumentException e) {
+      previous.editSource(moved, offset, insertedText.length(), removedText);
+      throw e;
     }
 
-    String masterPatternString = masterPatternStringBuilder.toString();
+    // tokens that were scanned again but end before the edit came out the same
+    int unchanged = 0;
+    while (unchanged < inserted.size() && first + unchanged < moved
+    && inserted.getOffset(unchanged) + inserted.getLength(unchanged) <= offset
+    && inserted.getType(unchanged) == previous.getType(first + unchanged)
+    && inserted.getOffset(unchanged) == previous.getOffset(first + unchanged)
+    && inserted.getLength(unchanged) == previous.getLength(first + unchanged)) {
+      unchanged++;
+    }
+    first += unchanged;
 
-    /* Verify that there are no invalid characters by removing all matchable
-    * characters in the input and verifying that the result is the empty string.
-    */
-    String leftoverString = input.replaceAll("[ \t]","").replaceAll(masterPatternString, "").replaceAll("\r\n|\n","");
-    if (!leftoverString.equals("")) {
-      throw new IllegalArgumentException("Invalid Characters Detected In Input: " + leftoverString);
+    TokenType[] removedTypes = new TokenType[resync - first];
+    for (int i = first; i < resync; i++) {
+      removedTypes[i - first] = previous.getType(i);
     }
+    previous.replace(first, resync, inserted, unchanged);
+    return new TokenPatch(previous, first, removedTypes, inserted.size() - unchanged, removedText);
+  }
 
-    Pattern masterPattern = Pattern.compile(masterPatternString);
-    Matcher masterMatcher = masterPattern.matcher(input);
-
-    /* For each token matched, determine its type by running it
-    * through each pattern until the matching one is found, and
-    * add it to the result
-    */
-    while (masterMatcher.find()) {
-      String string = masterMatcher.group();
-      for (TokenType tokenType : patternMap.keySet()) {
-        if (patternMap.get(tokenType).matcher(string).matches() == true) {
-          Token newToken = new Token(tokenType, string);
-          result.add(newToken);
-          break;
-        }
+  /**
+  * readInput
+  * Returns the characters to tokenize, reading them all into memory first if
+  * the lexer was created over a reader
+  * @return The input of the lexer
+  */
+  CharSequence readInput() {
+    if (this.string == null) {
+      this.string = readAll(this.reader);
+    }
+    return this.string;
+  }
+
+  /**
+  * readAll
+  * Reads the rest of the characters from reader into memory
+  */
+  private static CharSequence readAll(Reader reader) {
+    StringBuilder result = new StringBuilder();
+    char[] chunk = new char[8192];
+    try {
+      int count;
+      while ((count = reader.read(chunk)) >= 0) {
+        result.append(chunk, 0, count);
       }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return result;
+  }
+
+  /**
+  * generateTokens
+  * Generates the list of Tokens from the string passed in the
+  * constructor. Throws an IllegalArgumentException if the input
+  * has illegal characters in it.
+  * @return The list of tokens extracted from the expression string
+  */
+  public List<Token> generateTokens() {
+
+    List<Token> result = new ArrayList<Token>();
+
+    TokenStream tokens = tokenStream();
+    while (tokens.hasNext()) {
+      result.add(tokens.next());
     }
 
     return result;
@@ -4,7 +4,13 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import interpreter.Token.TokenType;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -197,4 +203,174 @@ public class LexerTest {
     assertTrue(lexer.generateTokens().equals(expectedResult));
   }
 
+  // test to confirm comments are skipped and a header field ends where its comment begins
+  @Test
+  public void testCommentsAndLineEndings() {
+    Lexer lexer = new Lexer("X: 1 % index\r\nK: C\n% whole line comment\n[|A,2 ^^c/ (3ABc :|\n");
+    List<Token> expectedResult = new ArrayList<Token>(Arrays.asList(
+    new Token(TokenType.HEADER_FIELD, "X: 1 "),
+    new Token(TokenType.HEADER_FIELD, "K: C"),
+    new Token(TokenType.BAR, "[|"),
+    new Token(TokenType.NOTE_NAME, "A"),
+    new Token(TokenType.NOTE_OCTAVE_MODIFIER, ","),
+    new Token(TokenType.NOTE_LENGTH, "2"),
+    new Token(TokenType.NOTE_ACCIDENTAL, "^^"),
+    new Token(TokenType.NOTE_NAME, "c"),
+    new Token(TokenType.NOTE_LENGTH, "/"),
+    new Token(TokenType.TUPLET, "(3"),
+    new Token(TokenType.NOTE_NAME, "A"),
+    new Token(TokenType.NOTE_NAME, "B"),
+    new Token(TokenType.NOTE_NAME, "c"),
+    new Token(TokenType.BAR_END_REPEAT, ":|")));
+
+    assertTrue(lexer.generateTokens().equals(expectedResult));
+  }
+
+  // test to confirm characters that cannot begin a token are rejected
+  @Test(expected=IllegalArgumentException.class)
+  public void testInvalidCharacters() {
+    Lexer lexer = new Lexer("X: 1\nK: C\nA0 B h|\n");
+    lexer.generateTokens();
+  }
+
+  // test to confirm a token stream over a reader produces the same tokens as generateTokens
+  @Test
+  public void testTokenStreamFromReader() {
+    String input = "X: 1\nT: Stream\nK: C\n|: [a2 b2 ^C2] z f :| E a'' A, b/4 e3/4| D4|]\n";
+    List<Token> expectedResult = new Lexer(input).generateTokens();
+    List<Token> result = new ArrayList<Token>();
+    TokenStream tokens = new Lexer(new StringReader(input)).tokenStream();
+    while (tokens.hasNext()) {
+      result.add(tokens.next());
+    }
+    assertTrue(result.equals(expectedResult));
+  }
+
+  // test to confirm a token buffer holds the same tokens as generateTokens, pointing into the input
+  @Test
+  public void testGenerateTokenBuffer() {
+    String input = "X: 1\nT: Buffer\nK: C\n|: [a2 b2 ^C2] z f :| E a'' A, b/4 e3/4| D4|]\n";
+    TokenBuffer buffer = new Lexer(input).generateTokenBuffer();
+    assertTrue(buffer.toTokens().equals(new Lexer(input).generateTokens()));
+    assertTrue(buffer.getSource() == input);
+    assertTrue(buffer.getType(3) == TokenType.BAR_BEGIN_REPEAT);
+    assertTrue(buffer.getOffset(3) == input.indexOf("|:"));
+    assertTrue(buffer.getLength(3) == 2);
+  }
+
+  // test to confirm lexing a memory-mapped file in place gives the same tokens as
+  // lexing its decoded contents, including a header with non-ASCII characters
+  @Test
+  public void testReadCharSequenceFromFile() throws IOException {
+    String input = "X: 1\nT: Fr\u00e8re Jacques\nC: Trad. % \u00e9t\u00e9\nK: F\nFGAF|FGAF|\n";
+    File file = File.createTempFile("lexer", ".abc");
+    file.deleteOnExit();
+    FileOutputStream stream = new FileOutputStream(file);
+    try {
+      stream.write(input.getBytes(Charset.defaultCharset()));
+    }
+    finally {
+      stream.close();
+    }
+
+    CharSequence mapped = Util.readCharSequenceFromFile(file.getPath());
+    List<Token> expectedResult = new Lexer(Util.readStringFromFile(file.getPath())).generateTokens();
+    assertTrue(new Lexer(mapped).generateTokens().equals(expectedResult));
+    assertTrue(new Lexer(mapped).generateTokenBuffer().toTokens().equals(expectedResult));
+  }
+
+  // test to confirm only charsets whose bytes below 128 are always ASCII are read in place,
+  // and that a non-ASCII character in the body is reported as itself
+  @Test
+  public void testAsciiCharSequence() {
+    assertTrue(AsciiCharSequence.isAsciiCompatible(StandardCharsets.UTF_8));
+    assertTrue(AsciiCharSequence.isAsciiCompatible(StandardCharsets.ISO_8859_1));
+    assertTrue(!AsciiCharSequence.isAsciiCompatible(StandardCharsets.UTF_16));
+    if (Charset.isSupported("Shift_JIS")) {
+      assertTrue(!AsciiCharSequence.isAsciiCompatible(Charset.forName("Shift_JIS")));
+    }
+
+    String input = "X: 1\nK: C\nA \u00e9 B|\n";
+    ByteBuffer bytes = ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8));
+    try {
+      new Lexer(new AsciiCharSequence(bytes, StandardCharsets.UTF_8)).generateTokens();
+      fail("expected an IllegalArgumentException");
+    }
+    catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().endsWith(": \u00e9"));
+    }
+  }
+
+  // test to confirm re-lexing an edit patches only the tokens around it
+  @Test
+  public void testRelex() {
+    String input = "X: 1\nT: Edit\nK: C\nA B c d|e f g a|\n";
+    TokenBuffer previous = new Lexer(input).generateTokenBuffer();
+
+    // turn the 'f' in the second measure into '^f2'
+    int offset = input.indexOf('f');
+    TokenPatch patch = Lexer.relex(previous, offset, 1, "^f2");
+    String edited = input.substring(0, offset) + "^f2" + input.substring(offset + 1);
+
+    assertTrue(patch.getTokens().toTokens().equals(new Lexer(edited).generateTokens()));
+    assertTrue(patch.getTokens().getSource().toString().equals(edited));
+    assertTrue(patch.getFirstChangedToken() == 9);
+    assertTrue(patch.getRemovedTokenCount() == 1);
+    assertTrue(patch.getInsertedTokenCount() == 3);
+  }
+
+  // test to confirm a token buffer re-lexed in place stays right over a run of edits in
+  // different places, and is left as it was by an edit that does not lex
+  @Test
+  public void testRelexInPlace() {
+    String input = "X: 1\nT: Edit\nK: C\nA B c d|e f g a|B A G F|\n";
+    TokenBuffer tokens = new Lexer(input).generateTokenBuffer();
+
+    String[][] edits = { {"e f", "^e2 f/2"}, {"A B", "z"}, {"F|", "F2|:"}, {"g a", ""}, {"z", "[CEG]"} };
+    for (String[] edit : edits) {
+      int offset = input.indexOf(edit[0]);
+      TokenPatch patch = Lexer.relex(tokens, offset, edit[0].length(), edit[1]);
+      input = input.substring(0, offset) + edit[1] + input.substring(offset + edit[0].length());
+      assertTrue(patch.getTokens() == tokens);
+      assertTrue(patch.getRemovedText().equals(edit[0]));
+      assertTrue(tokens.getSource().toString().equals(input));
+      assertTrue(tokens.toTokens().equals(new Lexer(input).generateTokens()));
+    }
+
+    try {
+      Lexer.relex(tokens, input.indexOf("[CEG]"), 1, "@");
+      fail("expected an IllegalArgumentException");
+    }
+    catch (IllegalArgumentException e) {
+      assertTrue(tokens.getSource().toString().equals(input));
+      assertTrue(tokens.toTokens().equals(new Lexer(input).generateTokens()));
+    }
+  }
+
+  // test to confirm a collection is split at its index headers into tunes that lex as they
+  // would on their own, skipping the text before the first tune
+  @Test
+  public void testCollectionLexer() {
+    String tune1 = "X: 1\nT: One\nK: C\nA B c d|\n\n";
+    String tune2 = "X: 2\nT: Two\n% a comment\nK: G\n[CEG] z2|]\n";
+    String input = "% file header\n\n" + tune1 + tune2;
+    CollectionLexer lexer = new CollectionLexer(input);
+
+    int[] starts = lexer.findTuneStarts();
+    assertTrue(starts.length == 2);
+    assertTrue(starts[0] == input.indexOf(tune1));
+    assertTrue(starts[1] == input.indexOf(tune2));
+
+    List<List<Token>> tunes = lexer.generateTokens();
+    assertTrue(tunes.size() == 2);
+    assertTrue(tunes.get(0).equals(new Lexer(tune1).generateTokens()));
+    assertTrue(tunes.get(1).equals(new Lexer(tune2).generateTokens()));
+  }
+
+  // test to confirm a character that cannot begin a token in any tune of a collection is rejected
+  @Test(expected=IllegalArgumentException.class)
+  public void testCollectionLexerInvalidCharacters() {
+    new CollectionLexer("X: 1\nK: C\nA B|\nX: 2\nK: C\nA # B|\n").generateTokenBuffers();
+  }
+
 }
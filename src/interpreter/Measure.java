@@ -1,6 +1,7 @@
 package interpreter;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class Measure implements MusicalElement {
@@ -17,20 +18,62 @@ public class Measure implements MusicalElement {
   private String name;
   private RepeatType repeatType = RepeatType.NONE;
   private final List<Chord> chords;
+  // true if the measure belongs to a MeasureTable, which shares it
+  private final boolean shared;
+  private int hashCode;
 
   public Measure() {
     this.chords = new ArrayList<Chord>();
+    this.shared = false;
   }
 
   public Measure(List<Chord> chords) {
     this.chords = chords;
+    this.shared = false;
+  }
+
+  /**
+  * Creates a shared measure, which can't be changed
+  */
+  private Measure(String name, RepeatType repeatType, List<Chord> chords) {
+    this.name = name;
+    this.repeatType = repeatType;
+    this.chords = Collections.unmodifiableList(chords);
+    this.shared = true;
+    this.hashCode = computeHashCode();
+  }
+
+  /**
+  * share
+  * Creates a measure equal to this one that can't be changed, holding the chords
+  * passed, for a MeasureTable
+  * @param sharedChords  The shared chords, equal to the chords of this measure
+  * @return              The shared measure
+  */
+  Measure share(List<Chord> sharedChords) {
+    return new Measure(this.name, this.repeatType, sharedChords);
+  }
+
+  /**
+  * Returns true if the measure is shared by a MeasureTable, and so can't be changed
+  */
+  public boolean isShared() {
+    return this.shared;
+  }
+
+  private void checkNotShared() {
+    if (this.shared) {
+      throw new UnsupportedOperationException("Measure " + this + " is shared and can't be changed");
+    }
   }
 
   public void addChord(Chord chord) {
+    checkNotShared();
     chords.add(chord);
   }
 
   public void addChords(List<Chord> chordList) {
+    checkNotShared();
     for (Chord chord : chordList) {
       chords.add(chord);
     }
@@ -45,6 +88,7 @@ public class Measure implements MusicalElement {
   }
 
   public void setName(String newName) {
+    checkNotShared();
     this.name = newName;
   }
 
@@ -53,13 +97,24 @@ public class Measure implements MusicalElement {
   }
 
   public void setRepeatType(RepeatType newRepeatType) {
+    checkNotShared();
     this.repeatType = newRepeatType;
   }
 
+  /**
+  * Returns the length of the measure, in lowest terms
+  */
   public Meter getLength() {
-    Meter length = new Meter(0,1);
+    return getDuration().toMeter();
+  }
+
+  /**
+  * Returns the exact length of the measure, the sum of the lengths of its chords
+  */
+  public Duration getDuration() {
+    Duration length = Duration.ZERO;
     for (Chord chord : this.chords) {
-      length = length.add(chord.getLength());
+      length = length.add(chord.getDuration());
     }
     return length;
   }
@@ -95,4 +150,24 @@ public class Measure implements MusicalElement {
     return s.toString();
   }
 
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof Measure)) {
+      return false;
+    }
+    Measure otherMeasure = (Measure)other;
+    return (this.name == null ? otherMeasure.getName() == null : this.name.equals(otherMeasure.getName()))
+    && this.repeatType == otherMeasure.getRepeatType() && this.chords.equals(otherMeasure.getChords());
+  }
+
+  @Override
+  public int hashCode() {
+    // a shared measure can't change, so its hash code is computed once
+    return this.shared ? this.hashCode : computeHashCode();
+  }
+
+  private int computeHashCode() {
+    return 31 * (31 * (this.name == null ? 0 : this.name.hashCode()) + this.repeatType.ordinal()) + this.chords.hashCode();
+  }
+
 }
@@ -0,0 +1,291 @@
+package interpreter;
+
+import interpreter.Measure.RepeatType;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* A measure memo remembers the chords parsed from each different run of measure
+* tokens during a parse, so that a bar written again is not parsed again.
+*
+* Accidentals last only to the end of a bar, so within a piece the chords of a measure
+* depend only on its tokens and on the header of the piece. A parser looks a measure
+* up by the types and text of its tokens before parsing it; if the same tokens have
+* been parsed before, the events they produced are sent to the listener again instead.
+* Otherwise the measure is parsed while its events are recorded, and the recording is
+* kept if the measure parsed without error. Since only events are kept, every measure
+* is still built as a new object, and the result is the same as without the memo. A
+* memo is only valid for a single header, and may be used by several threads at once.
+*
+* A measure is looked up by a 64-bit hash of the type, length and characters of its
+* tokens, read where they lie in the source, so a lookup copies nothing. Measures
+* whose hashes are the same are told apart by comparing their tokens, which are
+* copied into the memo only when a measure is added to it.
+*/
+public class MeasureMemo {
+
+  private final ConcurrentHashMap<Long, Entry> measures = new ConcurrentHashMap<Long, Entry>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+
+  /**
+  * hash
+  * Computes the 64-bit FNV-1a hash of a range of measure tokens: the type and
+  * length of each token, followed by its characters
+  * @param tokens    The buffer holding the tokens
+  * @param start     The index of the first token of the measure
+  * @param end       The index after the last token of the measure
+  * @return          The hash
+  */
+  static long hash(TokenBuffer tokens, int start, int end) {
+    CharSequence source = tokens.getSource();
+    long hash = 0xcbf29ce484222325L;
+    for (int i = start; i < end; i++) {
+      int offset = tokens.getOffset(i);
+      int length = tokens.getLength(i);
+      hash = (hash ^ tokens.getType(i).ordinal()) * 0x100000001b3L;
+      hash = (hash ^ length) * 0x100000001b3L;
+      for (int j = offset; j < offset + length; j++) {
+        hash = (hash ^ source.charAt(j)) * 0x100000001b3L;
+      }
+    }
+    return hash;
+  }
+
+  /**
+  * replay
+  * Sends the events recorded for a measure to listener, if there are any
+  * @param tokens    The buffer holding the tokens
+  * @param start     The index of the first token of the measure
+  * @param end       The index after the last token of the measure
+  * @param hash      The hash of the measure's tokens
+  * @param listener  The listener to send the chords of the measure to
+  * @return          True if the measure was found, false if it must be parsed
+  */
+  boolean replay(TokenBuffer tokens, int start, int end, long hash, ParseListener listener) {
+    this.requests.incrementAndGet();
+    Entry entry = this.measures.get(hash);
+    while (entry != null && !entry.matches(tokens, start, end)) {
+      entry = entry.next;
+    }
+    if (entry == null) {
+      return false;
+    }
+    this.hits.incrementAndGet();
+    int[] events = entry.events;
+    int i = 0;
+    while (i < events.length) {
+      int noteCount = events[i++];
+      listener.chordStart();
+      for (int n = 0; n < noteCount; n++) {
+        listener.note((char)events[i], events[i + 1], events[i + 2], events[i + 3], events[i + 4]);
+        i += 5;
+      }
+      listener.chordEnd();
+    }
+    return true;
+  }
+
+  /**
+  * record
+  * Returns a listener that passes the events of a measure on to listener and records
+  * them; once the measure has parsed, the recording is added with put
+  * @param listener  The listener to send the chords of the measure to
+  * @return          The recording listener
+  */
+  Recorder record(ParseListener listener) {
+    return new Recorder(listener);
+  }
+
+  /**
+  * put
+  * Adds the events recorded for a measure that parsed without error, unless the
+  * measure has been added already
+  * @param tokens    The buffer holding the tokens
+  * @param start     The index of the first token of the measure
+  * @param end       The index after the last token of the measure
+  * @param hash      The hash of the measure's tokens
+  * @param recorder  The listener the measure was parsed with
+  */
+  void put(TokenBuffer tokens, int start, int end, long hash, Recorder recorder) {
+    int[] events = Arrays.copyOf(recorder.events, recorder.size);
+    Entry first = this.measures.get(hash);
+    while (true) {
+      for (Entry entry = first; entry != null; entry = entry.next) {
+        if (entry.matches(tokens, start, end)) {
+          return;
+        }
+      }
+      Entry added = new Entry(tokens, start, end, events, first);
+      if (first == null) {
+        first = this.measures.putIfAbsent(hash, added);
+        if (first == null) {
+          break;
+        }
+      }
+      else if (this.measures.replace(hash, first, added)) {
+        break;
+      }
+      else {
+        first = this.measures.get(hash);
+      }
+    }
+    this.size.incrementAndGet();
+  }
+
+  /**
+  * Returns the number of different measures in the memo
+  */
+  public int size() {
+    return this.size.get();
+  }
+
+  /**
+  * Returns the number of measures looked up in the memo
+  */
+  public long getRequestCount() {
+    return this.requests.get();
+  }
+
+  /**
+  * Returns the number of measures found in the memo, and so not parsed
+  */
+  public long getHitCount() {
+    return this.hits.get();
+  }
+
+  /**
+  * Returns the fraction of the measures looked up that were found, or 0 if none were
+  */
+  public double getHitRatio() {
+    long requests = this.requests.get();
+    return (requests == 0) ? 0 : (double)this.hits.get() / requests;
+  }
+
+  @Override
+  public String toString() {
+    return "MeasureMemo(size=" + size() + ", requests=" + getRequestCount() + ", hits=" + getHitCount() + ")";
+  }
+
+  /**
+  * An entry holds the tokens of a measure, copied out of their source, and the
+  * events recorded for it. Entries whose tokens have the same hash are chained.
+  */
+  private static class Entry {
+
+    private final short[] types;
+    private final int[] lengths;
+    private final char[] text;
+    private final int[] events;
+    private final Entry next;
+
+    private Entry(TokenBuffer tokens, int start, int end, int[] events, Entry next) {
+      this.types = new short[end - start];
+      this.lengths = new int[end - start];
+      int textLength = 0;
+      for (int i = start; i < end; i++) {
+        this.types[i - start] = (short)tokens.getType(i).ordinal();
+        this.lengths[i - start] = tokens.getLength(i);
+        textLength += tokens.getLength(i);
+      }
+      this.text = new char[textLength];
+      CharSequence source = tokens.getSource();
+      int position = 0;
+      for (int i = start; i < end; i++) {
+        int offset = tokens.getOffset(i);
+        for (int j = offset; j < offset + tokens.getLength(i); j++) {
+          this.text[position++] = source.charAt(j);
+        }
+      }
+      this.events = events;
+      this.next = next;
+    }
+
+    /**
+    * Returns true if a range of measure tokens is the same as the entry's
+    */
+    private boolean matches(TokenBuffer tokens, int start, int end) {
+      if (end - start != this.types.length) {
+        return false;
+      }
+      for (int i = start; i < end; i++) {
+        if (tokens.getType(i).ordinal() != this.types[i - start] || tokens.getLength(i) != this.lengths[i - start]) {
+          return false;
+        }
+      }
+      CharSequence source = tokens.getSource();
+      int position = 0;
+      for (int i = start; i < end; i++) {
+        int offset = tokens.getOffset(i);
+        for (int j = offset; j < offset + tokens.getLength(i); j++) {
+          if (source.charAt(j) != this.text[position++]) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+  * A recorder passes the events of a measure on, keeping each chord as its number
+  * of notes followed by the pitch, octave, accidental, numerator and denominator of
+  * each note
+  */
+  static class Recorder implements ParseListener {
+
+    private final ParseListener listener;
+    private int[] events = new int[32];
+    private int size;
+    // the index of the note count of the open chord
+    private int chordStart;
+
+    private Recorder(ParseListener listener) {
+      this.listener = listener;
+    }
+
+    private void add(int value) {
+      if (this.size == this.events.length) {
+        this.events = Arrays.copyOf(this.events, this.size * 2);
+      }
+      this.events[this.size++] = value;
+    }
+
+    public void header(Piece header) {
+      this.listener.header(header);
+    }
+
+    public void voiceStart(String name) {
+      this.listener.voiceStart(name);
+    }
+
+    public void chordStart() {
+      this.chordStart = this.size;
+      add(0);
+      this.listener.chordStart();
+    }
+
+    public void note(char pitch, int octave, int accidental, int numerator, int denominator) {
+      this.events[this.chordStart]++;
+      add(pitch);
+      add(octave);
+      add(accidental);
+      add(numerator);
+      add(denominator);
+      this.listener.note(pitch, octave, accidental, numerator, denominator);
+    }
+
+    public void chordEnd() {
+      this.listener.chordEnd();
+    }
+
+    public void barLine(RepeatType repeatType) {
+      this.listener.barLine(repeatType);
+    }
+  }
+
+}
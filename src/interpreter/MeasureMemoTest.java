@@ -0,0 +1,134 @@
+package interpreter;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class MeasureMemoTest {
+
+  // test to confirm measures whose hashes are the same are told apart by their tokens,
+  // and that the same tokens are found wherever they lie in the source
+  @Test
+  public void measureMemoCollisionTest() {
+
+    TokenBuffer first = new Lexer("A B c").generateTokenBuffer();
+    TokenBuffer second = new Lexer("A B d").generateTokenBuffer();
+    TokenBuffer moved = new Lexer("z | A B c").generateTokenBuffer();
+    MeasureMemo memo = new MeasureMemo();
+
+    // give both measures the same hash
+    long hash = MeasureMemo.hash(first, 0, first.size());
+    record(memo, first, hash, 'C');
+    assertFalse(memo.replay(second, 0, second.size(), hash, new PieceBuilder()));
+    record(memo, second, hash, 'D');
+    assertEquals(2, memo.size());
+
+    assertEquals("C", replay(memo, first, 0, hash));
+    assertEquals("D", replay(memo, second, 0, hash));
+    assertEquals(hash, MeasureMemo.hash(moved, 2, moved.size()));
+    assertEquals("C", replay(memo, moved, 2, hash));
+
+    // adding a measure again keeps the first recording
+    record(memo, first, hash, 'E');
+    assertEquals(2, memo.size());
+    assertEquals("C", replay(memo, first, 0, hash));
+
+  }
+
+  // test to confirm a token longer than a char can count is not taken for a shorter
+  // token followed by others whose types and lengths spell out the rest of its text
+  @Test
+  public void measureMemoLongTokenTest() {
+
+    char type = (char)Token.TokenType.NOTE_LENGTH.ordinal();
+    StringBuilder rest = new StringBuilder();
+    for (int i = 0; i < 65534; i++) {
+      rest.append('1');
+    }
+    TokenBuffer longToken = new TokenBuffer("1" + type + (char)65534 + rest);
+    longToken.add(Token.TokenType.NOTE_LENGTH, 0, 65537);
+    TokenBuffer twoTokens = new TokenBuffer("1" + rest);
+    twoTokens.add(Token.TokenType.NOTE_LENGTH, 0, 1);
+    twoTokens.add(Token.TokenType.NOTE_LENGTH, 1, 65534);
+
+    MeasureMemo memo = new MeasureMemo();
+    long hash = MeasureMemo.hash(longToken, 0, 1);
+    record(memo, longToken, hash, 'C');
+    assertFalse(memo.replay(twoTokens, 0, 2, hash, new PieceBuilder()));
+    assertTrue(hash != MeasureMemo.hash(twoTokens, 0, 2));
+
+  }
+
+  // test to confirm a parser memoizing measures builds the same piece, parsing each
+  // different bar once, remembers no bar that fails, and finds bars parsed again by reparse
+  @Test
+  public void measureMemoParseTest() {
+    // the accidental in the first bar does not carry into the bars written the same way
+    String tune = "X:1\nT:Paddy\nM:6/8\nK:D\n|: ^dff cee | def gfe | dff cee | def gfe | ^dff cee | def gfe :|\n";
+    Parser parser = new Parser(new Lexer(tune));
+    parser.setMemoizingMeasures(true);
+    Piece piece = parser.parse();
+    Parser plain = new Parser(new Lexer(tune));
+    assertEquals(plain.parse().toString(), piece.toString());
+    assertNull(plain.getMeasureMemo());
+
+    // the empty measure before the repeat, then each different bar, is parsed once
+    MeasureMemo memo = parser.getMeasureMemo();
+    assertEquals(7, memo.getRequestCount());
+    assertEquals(4, memo.size());
+    assertEquals(3, memo.getHitCount());
+    assertEquals(3.0 / 7, memo.getHitRatio(), 1e-9);
+    List<Measure> measures = piece.getVoices().get(0).getMeasures();
+    assertNotSame(measures.get(2), measures.get(4));
+    assertEquals(measures.get(2).getChords(), measures.get(4).getChords());
+
+    Parser singlePass = new Parser(new Lexer(tune));
+    singlePass.setMemoizingMeasures(true);
+    assertEquals(piece.toString(), singlePass.parseSinglePass().toString());
+    assertEquals(3, singlePass.getMeasureMemo().getHitCount());
+
+    // a bar that fails is not remembered, and the error names the first bar that failed
+    try {
+      Parser failing = new Parser(new Lexer("X:1\nT:t\nK:C\nabc | [ab | abc | [ab |\n"));
+      failing.setMemoizingMeasures(true);
+      failing.parse();
+      fail("Expected an exception");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("measure 2"));
+    }
+
+    // a measure parsed again by reparse is found in the memo
+    int offset = tune.indexOf("def gfe");
+    parser.reparse(offset, 7, "dff cee");
+    assertEquals(4, memo.getHitCount());
+    assertEquals(new Parser(new Lexer(tune.substring(0, offset) + "dff cee" + tune.substring(offset + 7))).parse().toString(),
+    piece.toString());
+  }
+
+  /**
+  * Records a measure of a single note of pitch for tokens
+  */
+  private static void record(MeasureMemo memo, TokenBuffer tokens, long hash, char pitch) {
+    MeasureMemo.Recorder recorder = memo.record(new PieceBuilder());
+    recorder.chordStart();
+    recorder.note(pitch, 0, 0, 1, 1);
+    recorder.chordEnd();
+    memo.put(tokens, 0, tokens.size(), hash, recorder);
+  }
+
+  /**
+  * Replays the measure recorded for tokens from start on, returning the pitches of its notes
+  */
+  private static String replay(MeasureMemo memo, TokenBuffer tokens, int start, long hash) {
+    final StringBuilder pitches = new StringBuilder();
+    memo.replay(tokens, start, tokens.size(), hash, new PieceBuilder() {
+      @Override
+      public void note(char pitch, int octave, int accidental, int numerator, int denominator) {
+        pitches.append(pitch);
+      }
+    });
+    return pitches.toString();
+  }
+
+}
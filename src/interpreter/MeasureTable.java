@@ -0,0 +1,81 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* A measure table shares measures that are the same, so that a bar repeated
+* throughout a piece, or across the pieces of a collection, is held once.
+*
+* A parser given a measure table passes each measure it parses through intern once
+* its repeat type is known, and adds the measure returned to the voice. The first
+* measure with some content is copied into the table, with shared copies of its
+* chords and notes that can't be changed; later measures equal to it are replaced by
+* it. As the shared measures can't be changed, a piece parsed with a table must only
+* be read. A table may be used by several parsers at once.
+*/
+public class MeasureTable {
+
+  private final ConcurrentHashMap<Measure, Measure> measures = new ConcurrentHashMap<Measure, Measure>();
+  private final ConcurrentHashMap<Chord, Chord> chords = new ConcurrentHashMap<Chord, Chord>();
+  private final AtomicLong requests = new AtomicLong();
+
+  /**
+  * intern
+  * Returns the shared measure equal to the passed measure, adding a shared copy of it
+  * to the table if there is none
+  * @param measure   The measure, which is left unchanged
+  * @return          The shared measure, which must not be changed
+  */
+  public Measure intern(Measure measure) {
+    this.requests.incrementAndGet();
+    if (measure.isShared()) {
+      return measure;
+    }
+    Measure existing = this.measures.get(measure);
+    if (existing != null) {
+      return existing;
+    }
+
+    List<Chord> sharedChords = new ArrayList<Chord>(measure.getChords().size());
+    for (Chord chord : measure.getChords()) {
+      sharedChords.add(intern(chord));
+    }
+    Measure created = measure.share(sharedChords);
+    existing = this.measures.putIfAbsent(created, created);
+    return (existing != null) ? existing : created;
+  }
+
+  /**
+  * Returns the shared chord equal to the passed chord, adding a shared copy of it if there is none
+  */
+  private Chord intern(Chord chord) {
+    if (chord.isShared()) {
+      return chord;
+    }
+    Chord existing = this.chords.get(chord);
+    if (existing != null) {
+      return existing;
+    }
+    Chord created = chord.share();
+    existing = this.chords.putIfAbsent(created, created);
+    return (existing != null) ? existing : created;
+  }
+
+  /**
+  * Returns the number of different measures in the table
+  */
+  public int size() {
+    return this.measures.size();
+  }
+
+  /**
+  * Returns the number of measures passed to intern
+  */
+  public long getRequestCount() {
+    return this.requests.get();
+  }
+
+}
@@ -0,0 +1,44 @@
+package interpreter;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class MeasureTableTest {
+
+  // test to confirm a parser given a measure table shares the measures written the same
+  // way, which can't be changed, including those parsed again by reparse
+  @Test
+  public void measureTableTest() {
+    String tune = "X:1\nT:Paddy\nM:6/8\nK:D\n|: dff cee | def gfe | dff cee | def gfe | dff cee | def gfe :|\n";
+    MeasureTable table = new MeasureTable();
+    Parser parser = new Parser(new Lexer(tune));
+    parser.setMeasureTable(table);
+    Piece piece = parser.parse();
+    List<Measure> measures = piece.getVoices().get(0).getMeasures();
+
+    assertEquals(new Parser(new Lexer(tune)).parse().toString(), piece.toString());
+    // repeated bars share a measure, but the bar closing the repeat differs from the others
+    assertSame(measures.get(3), measures.get(5));
+    assertSame(measures.get(2), measures.get(4));
+    assertNotSame(measures.get(4), measures.get(6));
+    assertEquals(5, table.size());
+    assertEquals(measures.get(1), new Parser(new Lexer(tune)).parse().getVoices().get(0).getMeasures().get(1));
+    assertEquals(measures.get(1).hashCode(), new Parser(new Lexer(tune)).parse().getVoices().get(0).getMeasures().get(1).hashCode());
+    try {
+      measures.get(1).addChord(new Chord());
+      fail("Expected an exception");
+    } catch (UnsupportedOperationException e) {
+    }
+
+    // a measure parsed again by reparse is shared too
+    int offset = tune.indexOf("def gfe");
+    parser.reparse(offset, 7, "dff cee");
+    measures = piece.getVoices().get(0).getMeasures();
+    assertSame(measures.get(2), measures.get(3));
+    assertEquals(new Parser(new Lexer(tune.substring(0, offset) + "dff cee" + tune.substring(offset + 7))).parse().toString(),
+    piece.toString());
+  }
+
+}
@@ -58,4 +58,9 @@ public class Meter {
     return ( (this.numerator == otherMeter.getNumerator()) && (this.denominator == otherMeter.getDenominator()) );
   }
 
+  @Override
+  public int hashCode() {
+    return 31 * this.numerator + this.denominator;
+  }
+
 }
@@ -1,11 +1,29 @@
 package interpreter;
 
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+* A note is a pitch, octave, accidental and length. Notes made with the constructors
+* can be changed; the notes returned by valueOf are shared, so the same note written
+* anywhere in any piece is a single object, and they can't be. The shared notes are
+* kept for as long as the program runs and are never evicted; there is one for each
+* distinct pitch, octave, accidental and length asked for, so they grow with the
+* variety of the notes parsed rather than with the size or number of pieces.
+*/
 public class Note implements MusicalElement {
 
   private char pitch;
   private int octave;
   private int accidental;
   private Meter length;
+  // the value of length, found when it is first needed; volatile so that a note
+  // shared between threads is seen with the whole duration or none
+  private volatile Duration duration;
+  // true if the note was returned by valueOf
+  private boolean shared;
+
+  // the notes returned by valueOf, keyed by their fields packed into a long
+  private static final ConcurrentHashMap<Long, Note> interned = new ConcurrentHashMap<Long, Note>();
 
   private static final int[] scale = {
     /* A */ 9,
@@ -32,6 +50,50 @@ public class Note implements MusicalElement {
     this.length = length;
   }
 
+  /**
+  * valueOf
+  * Returns the shared note with the passed fields, creating it the first time it is
+  * asked for. A note with fields too large to pack into a key is created unshared.
+  * @param pitch         The letter of the note, or 'z' for a rest
+  * @param octave        The octave of the note
+  * @param accidental    The number of semitones the note is raised by
+  * @param numerator     The numerator of the length of the note
+  * @param denominator   The denominator of the length of the note
+  * @return              The note, which must not be changed
+  */
+  public static Note valueOf(char pitch, int octave, int accidental, int numerator, int denominator) {
+    if (pitch >= 0x80 || octave != (byte)octave || accidental != (byte)accidental
+    || numerator < 0 || numerator >= (1 << 20) || denominator < 1 || denominator >= (1 << 20)) {
+      return new Note(pitch, octave, accidental, new Meter(numerator, denominator));
+    }
+    long key = ((long)pitch << 56) | ((long)(octave & 0xff) << 48) | ((long)(accidental & 0xff) << 40)
+    | ((long)numerator << 20) | denominator;
+    Note note = interned.get(key);
+    if (note == null) {
+      Note created = new Note(pitch, octave, accidental, new Meter(numerator, denominator));
+      created.duration = Duration.of(numerator, denominator);
+      created.shared = true;
+      note = interned.putIfAbsent(key, created);
+      if (note == null) {
+        note = created;
+      }
+    }
+    return note;
+  }
+
+  /**
+  * Returns true if the note was returned by valueOf, and so can't be changed
+  */
+  public boolean isShared() {
+    return this.shared;
+  }
+
+  private void checkNotShared() {
+    if (this.shared) {
+      throw new UnsupportedOperationException("Note " + this + " is shared and can't be changed");
+    }
+  }
+
   public int midiValue() {
     if (this.pitch != 'z') {
       return scale[this.pitch - 'A'] + this.accidental + (12 * this.octave) + 60;
@@ -50,6 +112,7 @@ public class Note implements MusicalElement {
   }
 
   public void setPitch(char newPitch) {
+    checkNotShared();
     this.pitch = newPitch;
   }
 
@@ -58,6 +121,7 @@ public class Note implements MusicalElement {
   }
 
   public void setAccidental(int newAccidental) {
+    checkNotShared();
     this.accidental = newAccidental;
   }
 
@@ -66,7 +130,21 @@ public class Note implements MusicalElement {
   }
 
   public void setLength(Meter newLength) {
+    checkNotShared();
     this.length = newLength;
+    this.duration = null;
+  }
+
+  /**
+  * Returns the exact value of the length of the note, in lowest terms
+  */
+  public Duration getDuration() {
+    Duration duration = this.duration;
+    if (duration == null) {
+      duration = Duration.of(this.length);
+      this.duration = duration;
+    }
+    return duration;
   }
 
   public int getOctave() {
@@ -74,6 +152,7 @@ public class Note implements MusicalElement {
   }
 
   public void setOctave(int newOctave) {
+    checkNotShared();
     this.octave = newOctave;
   }
 
@@ -138,4 +217,9 @@ public class Note implements MusicalElement {
     this.octave == otherNote.getOctave() && this.length.equals(otherNote.getLength());
   }
 
+  @Override
+  public int hashCode() {
+    return 31 * (31 * (31 * this.pitch + this.octave) + this.accidental) + this.length.hashCode();
+  }
+
 }
@@ -1,14 +1,11 @@
 package interpreter;
 
-import java.util.List;
-import java.util.ArrayList;
-
 import interpreter.MusicalElement.MusicalElementVisitor;
 
 /**
-* The note length visitor traverses the AST and keeps track of the denominators
-* of all notes it visits. Then, it computes the least common multiple of these
-* values, producing the number of ticks per default note length for the Piece.
+* The note length visitor traverses the AST and keeps the least common multiple of
+* the denominators of the lengths, in lowest terms, of all notes it visits, producing
+* the number of ticks per default note length for the Piece.
 * This is done so that each Note in the Piece produces an integer number of ticks,
 * meaning we take into account how finely every note subdivides a default note length.
 * This is done because of the requirement in the java MIDI sequencer that all notes
@@ -17,7 +14,7 @@ import interpreter.MusicalElement.MusicalElementVisitor;
 public class NoteLengthVisitor implements MusicalElementVisitor<Void> {
 
   private final Piece piece;
-  private List<Integer> denominators;
+  private int ticksPerBeat;
 
   public NoteLengthVisitor(Piece piece) {
     this.piece = piece;
@@ -33,29 +30,26 @@ public class NoteLengthVisitor implements MusicalElementVisitor<Void> {
     return a;
   }
 
-  private static int lcm(int a, int b)
-  {
-    return a * (b / gcd(a, b));
-  }
-
-  private static int lcm(List<Integer> input)
+  /**
+  * lcm
+  * Finds the least common multiple of two positive numbers
+  * Throws an IllegalArgumentException if it is too large for an int, since no number
+  * of ticks per default note length could then give every note a whole number of ticks.
+  */
+  static int lcm(int a, int b)
   {
-    int result = input.get(0);
-    for(Integer i: input) {
-      result = lcm(result, i);
+    try {
+      return Math.multiplyExact(a, b / gcd(a, b));
+    } catch (ArithmeticException e) {
+      throw new IllegalArgumentException("Note lengths divide the default note length too finely to be played: "
+      + "the least common multiple of " + a + " and " + b + " is too large");
     }
-    return result;
   }
 
   public int computeTicksPerBeat() {
-    this.denominators = new ArrayList<Integer>();
+    this.ticksPerBeat = 1;
     this.piece.accept(this);
-    if (this.denominators.size() < 1) {
-      return 1;
-    }
-    else {
-      return lcm(this.denominators);
-    }
+    return this.ticksPerBeat;
   }
 
   public Void visit(Piece piece) {
@@ -87,7 +81,7 @@ public class NoteLengthVisitor implements MusicalElementVisitor<Void> {
   }
 
   public Void visit(Note note) {
-    this.denominators.add(note.getLength().getDenominator());
+    this.ticksPerBeat = lcm(this.ticksPerBeat, (int)note.getDuration().getDenominator());
     return null;
   }
 
@@ -44,4 +44,37 @@ public class NoteLengthVisitorTest {
 
   }
 
+  // test to confirm note length visitor reports denominators whose
+  // least common multiple is too large for an int, rather than
+  // returning a number of ticks that has wrapped around
+  @Test
+  public void noteLengthVisitorOverflowTest() {
+
+    Voice voice = new Voice(new Measure());
+    int[] denominators = {7, 11, 13, 17, 19, 23, 29, 31};
+    TickResolution tickResolution = new TickResolution();
+    for (int denominator : denominators) {
+      voice.getMeasures().get(0).addChord(new Chord(new Note('A',0,0,new Meter(1,denominator))));
+      tickResolution.add(denominator);
+    }
+
+    Piece piece = new Piece();
+    piece.addVoice(voice);
+    try {
+      new NoteLengthVisitor(piece).computeTicksPerBeat();
+      fail("Expected an exception");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      tickResolution.getTicksPerDefaultNoteLength();
+      fail("Expected an exception");
+    } catch (IllegalArgumentException e) {
+    }
+
+    // once the note that made it too large is gone, the ticks fit again
+    tickResolution.remove(31);
+    assertEquals(7 * 11 * 13 * 17 * 19 * 23 * 29, tickResolution.getTicksPerDefaultNoteLength());
+
+  }
+
 }
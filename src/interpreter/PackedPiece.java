@@ -0,0 +1,124 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import sound.SequencePlayer;
+
+/**
+* A packed piece holds the headers of a Piece and its voices as PackedVoices, taking
+* a small fraction of the memory of the objects of the piece. It can be converted
+* back into a Piece, or sequenced for playback directly.
+*/
+public class PackedPiece {
+
+  private final int index;
+  private final String title;
+  private final String composer;
+  private final Meter timeSignature;
+  private final Meter defaultNoteLength;
+  private final int defaultNoteLengthsPerMinute;
+  private final KeySignature keySignature;
+  private final PackedVoice[] voices;
+
+  /**
+  * Packs a piece
+  * @param piece     The piece to pack, which is left unchanged
+  */
+  public PackedPiece(Piece piece) {
+    this.index = piece.getIndex();
+    this.title = piece.getTitle();
+    this.composer = piece.getComposer();
+    this.timeSignature = piece.getTimeSignature();
+    this.defaultNoteLength = piece.getDefaultNoteLength();
+    this.defaultNoteLengthsPerMinute = piece.getDefaultNoteLengthsPerMinute();
+    this.keySignature = piece.getKeySignature();
+    this.voices = new PackedVoice[piece.getVoices().size()];
+    for (int v = 0; v < this.voices.length; v++) {
+      this.voices[v] = new PackedVoice(piece.getVoices().get(v));
+    }
+  }
+
+  /**
+  * toPiece
+  * Unpacks the piece into the objects of a Piece
+  * @return A new piece equal to the one that was packed
+  */
+  public Piece toPiece() {
+    List<Voice> voices = new ArrayList<Voice>(this.voices.length);
+    for (PackedVoice voice : this.voices) {
+      voices.add(voice.toVoice());
+    }
+    Piece piece = new Piece(voices, this.title, this.defaultNoteLengthsPerMinute);
+    piece.setIndex(this.index);
+    piece.setComposer(this.composer);
+    piece.setTimeSignature(this.timeSignature);
+    piece.setDefaultNoteLength(this.defaultNoteLength);
+    piece.setKeySignature(this.keySignature);
+    return piece;
+  }
+
+  public int getIndex() {
+    return this.index;
+  }
+
+  public String getTitle() {
+    return this.title;
+  }
+
+  public String getComposer() {
+    return this.composer;
+  }
+
+  public Meter getTimeSignature() {
+    return this.timeSignature;
+  }
+
+  public Meter getDefaultNoteLength() {
+    return this.defaultNoteLength;
+  }
+
+  public int getDefaultNoteLengthsPerMinute() {
+    return this.defaultNoteLengthsPerMinute;
+  }
+
+  public KeySignature getKeySignature() {
+    return this.keySignature;
+  }
+
+  public int getVoiceCount() {
+    return this.voices.length;
+  }
+
+  public PackedVoice getVoice(int voice) {
+    return this.voices[voice];
+  }
+
+  /**
+  * computeTicksPerBeat
+  * Computes the number of ticks per default note length, as NoteLengthVisitor does
+  * for the unpacked piece
+  * @return The least common multiple of the denominators of the lengths of the notes
+  */
+  public int computeTicksPerBeat() {
+    int ticks = 1;
+    for (PackedVoice voice : this.voices) {
+      ticks = voice.addDenominators(ticks);
+    }
+    return ticks;
+  }
+
+  /**
+  * sequence
+  * Adds the notes of every voice to a player, as SequenceBuilderVisitor does for
+  * the unpacked piece
+  * @param player                      The player to add the notes to
+  * @param ticksPerDefaultNoteLength   The number of ticks in a default note length
+  */
+  public void sequence(SequencePlayer player, int ticksPerDefaultNoteLength) {
+    for (PackedVoice voice : this.voices) {
+      voice.sequence(player, ticksPerDefaultNoteLength);
+    }
+  }
+
+}
@@ -0,0 +1,38 @@
+package interpreter;
+
+import interpreter.Measure.RepeatType;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PackedPieceTest {
+
+  // test to confirm a packed piece unpacks to the same piece, and gives the start of each
+  // note, with the notes of a chord starting together
+  @Test
+  public void packedPieceTest() {
+    String tune = "X:1\nT:Packed\nM:3/4\nL:1/8\nV:upper\nV:lower\nK:D\nV:upper\n|: A,2 [c4e2] | (3ABc z3 :|\nV:lower\n[1 _B,,6 | [2 ^^F'6 |]\n";
+    Piece piece = new Parser(new Lexer(tune)).parse();
+    PackedPiece packed = new PackedPiece(piece);
+
+    assertEquals(piece.toString(), packed.toPiece().toString());
+    assertEquals(new NoteLengthVisitor(piece).computeTicksPerBeat(), packed.computeTicksPerBeat());
+
+    PackedVoice upper = packed.getVoice(0);
+    // the empty measure before the opening repeat is kept
+    assertEquals(3, upper.getMeasureCount());
+    assertEquals(0, upper.getFirstNote(1));
+    assertEquals(3, upper.getFirstNote(2));
+    assertEquals(7, upper.getNoteCount());
+    assertEquals(RepeatType.END, upper.getRepeatType(2));
+    // the notes of a chord start together, and the next chord after the longest of them
+    assertEquals(new Meter(2, 1), upper.getStart(1));
+    assertEquals(new Meter(2, 1), upper.getStart(2));
+    assertEquals(new Meter(2, 3), upper.getStart(4));
+    assertEquals(new Meter(2, 1), upper.getStart(6));
+    assertEquals(piece.getVoices().get(0).getMeasures().get(1).getChords().get(0).getNotes().get(0).midiValue(),
+    upper.getMidiValue(0));
+    assertEquals(-1, upper.getMidiValue(6));
+  }
+
+}
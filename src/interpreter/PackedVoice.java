@@ -0,0 +1,234 @@
+package interpreter;
+
+import sound.SequencePlayer;
+
+import interpreter.Measure.RepeatType;
+
+/**
+* A packed voice holds the same music as a Voice in a few arrays of primitives
+* rather than an object for every measure, chord, note and length.
+*
+* Each note is an entry in parallel arrays: its MIDI value (-1 for a rest), its
+* spelling (the letter, octave and accidental it was written with), its length both as
+* written and in lowest terms, and its start within its measure as a fraction in
+* lowest terms. The lengths in lowest terms let the voice be timed with integer
+* arithmetic alone, without a Duration for each note on each pass. The
+* chords are runs of consecutive notes and the measures runs of consecutive chords,
+* given by the index of the first note of each chord and the first chord of each
+* measure, so a chord or measure with nothing in it is kept too. Converting a voice
+* to a packed voice and back gives a voice equal to the first.
+*/
+public class PackedVoice {
+
+  private static final RepeatType[] REPEAT_TYPES = RepeatType.values();
+
+  private final String name;
+
+  // per measure, with measureChordStarts holding one extra entry for the end
+  private final String[] measureNames;
+  private final byte[] repeatTypes;
+  private final int[] measureChordStarts;
+  // the indices of the measures in the order they are performed
+  private final PlaybackOrder playbackOrder;
+
+  // per chord, with one extra entry for the end
+  private final int[] chordNoteStarts;
+
+  // per note
+  private final int[] midiValues;
+  private final int[] spellings;
+  private final int[] lengthNumerators;
+  private final int[] lengthDenominators;
+  private final int[] reducedNumerators;
+  private final int[] reducedDenominators;
+  private final int[] startNumerators;
+  private final int[] startDenominators;
+
+  /**
+  * Packs a voice. Its measures are left unchanged, but its playback order is
+  * compiled and kept on the voice if it had not been already, and is shared with
+  * the packed voice.
+  * @param voice     The voice to pack
+  */
+  public PackedVoice(Voice voice) {
+    int chordCount = 0;
+    int noteCount = 0;
+    for (Measure measure : voice.getMeasures()) {
+      chordCount += measure.getChords().size();
+      for (Chord chord : measure.getChords()) {
+        noteCount += chord.getNotes().size();
+      }
+    }
+
+    int measureCount = voice.getMeasures().size();
+    this.name = voice.getName();
+    this.measureNames = new String[measureCount];
+    this.repeatTypes = new byte[measureCount];
+    this.measureChordStarts = new int[measureCount + 1];
+    this.chordNoteStarts = new int[chordCount + 1];
+    this.midiValues = new int[noteCount];
+    this.spellings = new int[noteCount];
+    this.lengthNumerators = new int[noteCount];
+    this.lengthDenominators = new int[noteCount];
+    this.reducedNumerators = new int[noteCount];
+    this.reducedDenominators = new int[noteCount];
+    this.startNumerators = new int[noteCount];
+    this.startDenominators = new int[noteCount];
+
+    int m = 0;
+    int c = 0;
+    int n = 0;
+    for (Measure measure : voice.getMeasures()) {
+      this.measureNames[m] = measure.getName();
+      this.repeatTypes[m] = (byte)measure.getRepeatType().ordinal();
+      this.measureChordStarts[m++] = c;
+      Duration start = Duration.ZERO;
+      for (Chord chord : measure.getChords()) {
+        this.chordNoteStarts[c++] = n;
+        for (Note note : chord.getNotes()) {
+          this.midiValues[n] = note.isRest() ? -1 : note.midiValue();
+          this.spellings[n] = spell(note);
+          this.lengthNumerators[n] = note.getLength().getNumerator();
+          this.lengthDenominators[n] = note.getLength().getDenominator();
+          this.reducedNumerators[n] = Math.toIntExact(note.getDuration().getNumerator());
+          this.reducedDenominators[n] = Math.toIntExact(note.getDuration().getDenominator());
+          this.startNumerators[n] = Math.toIntExact(start.getNumerator());
+          this.startDenominators[n] = Math.toIntExact(start.getDenominator());
+          n++;
+        }
+        // the next chord starts when the longest note of this one ends
+        start = start.add(chord.getDuration());
+      }
+    }
+    this.measureChordStarts[m] = c;
+    this.chordNoteStarts[c] = n;
+    this.playbackOrder = voice.getPlaybackOrder();
+  }
+
+  /**
+  * Packs the letter, octave and accidental of a note into an int, a byte each for the
+  * letter and accidental and the upper half for the octave
+  */
+  private static int spell(Note note) {
+    if (note.getAccidental() != (byte)note.getAccidental() || note.getOctave() != (short)note.getOctave()) {
+      throw new IllegalArgumentException("Note " + note + " is too far out of range to pack");
+    }
+    return (note.getPitch() & 0xff) | ((note.getAccidental() & 0xff) << 8) | (note.getOctave() << 16);
+  }
+
+  /**
+  * toVoice
+  * Unpacks the voice into the objects of a Voice
+  * @return A new voice equal to the one that was packed
+  */
+  public Voice toVoice() {
+    Voice voice = new Voice();
+    voice.setName(this.name);
+    for (int m = 0; m < this.repeatTypes.length; m++) {
+      Measure measure = new Measure();
+      measure.setName(this.measureNames[m]);
+      measure.setRepeatType(REPEAT_TYPES[this.repeatTypes[m]]);
+      for (int c = this.measureChordStarts[m]; c < this.measureChordStarts[m + 1]; c++) {
+        Chord chord = new Chord();
+        for (int n = this.chordNoteStarts[c]; n < this.chordNoteStarts[c + 1]; n++) {
+          int spelling = this.spellings[n];
+          chord.addNote(Note.valueOf((char)(spelling & 0xff), spelling >> 16, (byte)(spelling >> 8),
+          this.lengthNumerators[n], this.lengthDenominators[n]));
+        }
+        measure.addChord(chord);
+      }
+      voice.addMeasure(measure);
+    }
+    return voice;
+  }
+
+  public String getName() {
+    return this.name;
+  }
+
+  public int getMeasureCount() {
+    return this.repeatTypes.length;
+  }
+
+  public int getNoteCount() {
+    return this.midiValues.length;
+  }
+
+  public RepeatType getRepeatType(int measure) {
+    return REPEAT_TYPES[this.repeatTypes[measure]];
+  }
+
+  public PlaybackOrder getPlaybackOrder() {
+    return this.playbackOrder;
+  }
+
+  /**
+  * Returns the index of the first note of a measure; the notes of the measure run up
+  * to the first note of the next one
+  * @param measure   The index of the measure, or the number of measures for the end of the voice
+  */
+  public int getFirstNote(int measure) {
+    return this.chordNoteStarts[this.measureChordStarts[measure]];
+  }
+
+  /**
+  * Returns the MIDI value of a note, or -1 if it is a rest
+  */
+  public int getMidiValue(int note) {
+    return this.midiValues[note];
+  }
+
+  /**
+  * Returns the length of a note, in default note lengths
+  */
+  public Meter getLength(int note) {
+    return new Meter(this.lengthNumerators[note], this.lengthDenominators[note]);
+  }
+
+  /**
+  * Returns the time a note starts after the start of its measure, in default note lengths
+  */
+  public Meter getStart(int note) {
+    return new Meter(this.startNumerators[note], this.startDenominators[note]);
+  }
+
+  /**
+  * addDenominators
+  * Folds the denominator of the length of every note into a least common multiple,
+  * as NoteLengthVisitor does
+  * @param ticks     The least common multiple so far
+  * @return          The least common multiple including this voice
+  */
+  int addDenominators(int ticks) {
+    for (int n = 0; n < this.reducedDenominators.length; n++) {
+      ticks = NoteLengthVisitor.lcm(ticks, this.reducedDenominators[n]);
+    }
+    return ticks;
+  }
+
+  /**
+  * sequence
+  * Adds the notes of the voice to a player in the order they are performed, repeats
+  * included, scheduling them exactly as SequenceBuilderVisitor does
+  * @param player                      The player to add the notes to
+  * @param ticksPerDefaultNoteLength   The number of ticks in a default note length
+  */
+  public void sequence(SequencePlayer player, int ticksPerDefaultNoteLength) {
+    int pos = 0;
+    for (int p = 0; p < this.playbackOrder.size(); p++) {
+      int i = this.playbackOrder.get(p);
+      for (int c = this.measureChordStarts[i]; c < this.measureChordStarts[i + 1]; c++) {
+        int duration = 0;
+        for (int n = this.chordNoteStarts[c]; n < this.chordNoteStarts[c + 1]; n++) {
+          int noteDuration = Duration.toTicks(this.reducedNumerators[n], this.reducedDenominators[n], ticksPerDefaultNoteLength);
+          if (this.midiValues[n] >= 0) {
+            player.addNote(this.midiValues[n], pos, noteDuration);
+          }
+          duration = Math.max(duration, noteDuration);
+        }
+        pos += duration;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,186 @@
+package interpreter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* A parse cache keeps the pieces most recently parsed in memory, for a program that
+* is asked for the same tunes over and over from several threads.
+*
+* Pieces are found by the same hash of their text as in a PieceCache. The cache holds
+* up to a set number of pieces, and when it is full the least recently used is
+* evicted. Threads that ask for the same text at the same time share a single parse:
+* the first one parses while the others wait for its result, and if the text is not
+* valid abc they all get its IllegalArgumentException, and nothing is cached.
+*
+* The pieces returned are shared by every thread that asks for the same text, so they
+* can't be changed: their voices, measures, chords and notes are shared copies whose
+* methods that would change them throw an UnsupportedOperationException. Reading them
+* from any thread is safe: a piece is complete before its task hands it out, and the
+* values worked out the first time they are asked for, the duration of a note, the
+* playback order of a voice and the ticks of a tick resolution, are kept in volatile
+* fields and only set once finished.
+*/
+public class ParseCache {
+
+  private final int maxEntries;
+  private final PieceCache backing;
+  private final LinkedHashMap<String, FutureTask<Piece>> entries;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong loadNanos = new AtomicLong();
+
+  /**
+  * Creates a cache that parses the pieces it does not hold
+  * @param maxEntries    The number of pieces the cache holds
+  */
+  public ParseCache(int maxEntries) {
+    this(maxEntries, null);
+  }
+
+  /**
+  * Creates a cache that loads the pieces it does not hold from a cache on disk,
+  * which parses them if it does not hold them either
+  * @param maxEntries    The number of pieces the cache holds
+  * @param backing       The cache on disk, or null to always parse
+  */
+  public ParseCache(int maxEntries, PieceCache backing) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("A parse cache must hold at least one piece");
+    }
+    this.maxEntries = maxEntries;
+    this.backing = backing;
+    this.entries = new LinkedHashMap<String, FutureTask<Piece>>(16, 0.75f, true);
+  }
+
+  /**
+  * get
+  * Returns the piece parsed from the passed abc text, parsing it only if the cache
+  * does not hold it and no other thread is parsing it already.
+  * Throws an IllegalArgumentException if the text is not valid abc.
+  * @param source    The characters of a single tune
+  * @return          The piece produced by parsing the text, which can't be changed
+  */
+  public Piece get(final CharSequence source) {
+    final String key = PieceCache.key(source);
+    FutureTask<Piece> task;
+    boolean load = false;
+    synchronized (this.entries) {
+      task = this.entries.get(key);
+      if (task == null) {
+        task = new FutureTask<Piece>(new Callable<Piece>() {
+          public Piece call() {
+            MeasureTable table = new MeasureTable();
+            Piece piece;
+            if (backing != null) {
+              piece = backing.get(source);
+            }
+            else {
+              Parser parser = new Parser(new Lexer(source));
+              parser.setMeasureTable(table);
+              piece = parser.parse();
+            }
+            return piece.share(table);
+          }
+        });
+        this.entries.put(key, task);
+        load = true;
+        evict();
+      }
+    }
+
+    if (load) {
+      this.misses.incrementAndGet();
+      long start = System.nanoTime();
+      task.run();
+      this.loadNanos.addAndGet(System.nanoTime() - start);
+    }
+    else {
+      this.hits.incrementAndGet();
+    }
+
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a piece to be parsed", e);
+    } catch (ExecutionException e) {
+      if (load) {
+        synchronized (this.entries) {
+          if (this.entries.get(key) == task) {
+            this.entries.remove(key);
+          }
+        }
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException)e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error)e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+  * Evicts the least recently used pieces until the cache holds no more than its size.
+  * Must be called holding the lock on entries.
+  */
+  private void evict() {
+    Iterator<Map.Entry<String, FutureTask<Piece>>> iterator = this.entries.entrySet().iterator();
+    while (this.entries.size() > this.maxEntries && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+      this.evictions.incrementAndGet();
+    }
+  }
+
+  /**
+  * Returns the number of pieces the cache holds, including any being parsed
+  */
+  public int size() {
+    synchronized (this.entries) {
+      return this.entries.size();
+    }
+  }
+
+  /**
+  * Returns the number of requests answered without a parse, including those that
+  * waited for another thread's parse of the same text
+  */
+  public long getHitCount() {
+    return this.hits.get();
+  }
+
+  /**
+  * Returns the number of requests that parsed their text, or loaded it from disk
+  */
+  public long getMissCount() {
+    return this.misses.get();
+  }
+
+  public long getEvictionCount() {
+    return this.evictions.get();
+  }
+
+  /**
+  * Returns the total time spent parsing or loading pieces, in nanoseconds
+  */
+  public long getTotalLoadTime() {
+    return this.loadNanos.get();
+  }
+
+  @Override
+  public String toString() {
+    return "hits: " + getHitCount() + ", misses: " + getMissCount() + ", evictions: " + getEvictionCount()
+    + ", load time: " + getTotalLoadTime() / 1000000 + " ms";
+  }
+
+}
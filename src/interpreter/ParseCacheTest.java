@@ -0,0 +1,80 @@
+package interpreter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ParseCacheTest {
+
+  // test to confirm threads asking a parse cache for the same text share a single parse
+  // of a piece that can't be changed, that the least recently used piece is evicted, and
+  // that text that does not parse is not cached
+  @Test
+  public void parseCacheTest() throws InterruptedException {
+    final String tune = "X:1\nT:Shared\nK:G\nA B c d | e f g a |]\n";
+    final ParseCache cache = new ParseCache(1);
+    final Piece[] pieces = new Piece[8];
+    Thread[] threads = new Thread[pieces.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int thread = i;
+      threads[i] = new Thread() {
+        public void run() {
+          pieces[thread] = cache.get(tune);
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // the threads share a single parse
+    assertEquals(1, cache.getMissCount());
+    assertEquals(pieces.length - 1, cache.getHitCount());
+    for (Piece piece : pieces) {
+      assertSame(pieces[0], piece);
+    }
+    assertEquals(new Parser(new Lexer(tune)).parse().toString(), pieces[0].toString());
+
+    // the shared piece can't be changed by one thread under the others
+    assertTrue(pieces[0].isShared());
+    try {
+      pieces[0].setTitle("Changed");
+      fail("Expected an exception");
+    } catch (UnsupportedOperationException e) {
+    }
+    try {
+      pieces[0].getVoices().add(new Voice());
+      fail("Expected an exception");
+    } catch (UnsupportedOperationException e) {
+    }
+    try {
+      pieces[0].getVoices().get(0).addMeasure(new Measure());
+      fail("Expected an exception");
+    } catch (UnsupportedOperationException e) {
+    }
+    assertTrue(pieces[0].getVoices().get(0).getMeasures().get(0).isShared());
+    assertEquals("Shared", pieces[0].getTitle());
+
+    cache.get(tune.replace("Shared", "Other"));
+    assertEquals(1, cache.getEvictionCount());
+    assertEquals(1, cache.size());
+    try {
+      cache.get("X:1\nT:Broken\nK:C\nA B c d\n");
+      fail("Expected an exception");
+    } catch (IllegalArgumentException e) {
+    }
+    assertEquals(0, cache.size());
+
+    // tunes read in place that differ only in non-ASCII text are different pieces
+    String accented = "X:1\nT:Fr\u00e8re\nK:C\nA B c d |]\n";
+    ParseCache accents = new ParseCache(2);
+    Piece first = accents.get(new AsciiCharSequence(ByteBuffer.wrap(accented.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+    Piece second = accents.get(new AsciiCharSequence(ByteBuffer.wrap(accented.replace('\u00e8', '\u00ea').getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+    assertNotSame(first, second);
+    assertEquals("Fr\u00eare", second.getTitle());
+  }
+
+}
@@ -0,0 +1,60 @@
+package interpreter;
+
+import interpreter.Measure.RepeatType;
+
+/**
+* A parse listener is told about the parts of a piece as the parser reads them,
+* instead of being handed the finished Piece. The events for a measure arrive
+* together when its closing bar line is read, so a listener that does not keep
+* them can process a piece of any length in constant memory.
+*
+* The events come in this order: header once, then for each measure in the order
+* its bar line appears in the body, a chordStart, notes and chordEnd for every
+* chord of the measure, followed by barLine. voiceStart is called each time the
+* body switches voice, and every measure after it belongs to that voice until
+* the next call. A note outside of brackets is reported as a chord of one note,
+* which is how it appears in a Piece. If the parse fails, the events delivered
+* before the error is thrown may be incomplete.
+*/
+public interface ParseListener {
+
+  /**
+  * Called once the header has been read.
+  * @param header    A piece holding the header fields and the declared voices, with no measures
+  */
+  public void header(Piece header);
+
+  /**
+  * Called when the body switches to a voice.
+  * @param name      The name of the voice the following measures belong to
+  */
+  public void voiceStart(String name);
+
+  /**
+  * Called before the notes of a chord.
+  */
+  public void chordStart();
+
+  /**
+  * Called for each note of a chord, after the key signature, the accidentals of
+  * the measure and any tuplet have been applied to it.
+  * @param pitch         The pitch of the note, 'A' to 'G', or 'z' for a rest
+  * @param octave        The octave of the note, where 0 is the octave of middle C
+  * @param accidental    The number of semitones the note is raised, or lowered if negative
+  * @param numerator     The numerator of the length of the note, in default note lengths
+  * @param denominator   The denominator of the length of the note
+  */
+  public void note(char pitch, int octave, int accidental, int numerator, int denominator);
+
+  /**
+  * Called after the notes of a chord.
+  */
+  public void chordEnd();
+
+  /**
+  * Called at the bar line that closes a measure, after the chords of the measure.
+  * @param repeatType    The repeat type of the measure
+  */
+  public void barLine(RepeatType repeatType);
+
+}
@@ -3,11 +3,18 @@ package interpreter;
 import interpreter.Token.TokenType;
 import interpreter.Measure.RepeatType;
 
-import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
 *
@@ -17,19 +24,113 @@ public class Parser {
 
   private final Lexer lexer;
   private final Piece piece;
+  private final ForkJoinPool pool;
+
+  // the tokens parse last read, and where their body starts, for reparse
+  private TokenBuffer tokens;
+  private int bodyStart;
+
+  // the voice switches of the body of indexedTokens and the bar lines of each voice,
+  // over the same source so they follow its edits; built by the first reparse of them
+  private TokenBuffer indexedTokens;
+  private boolean voicesDeclared;
+  private TokenBuffer voiceSwitches;
+  private TokenBuffer[] voiceBars;
 
-  private int currentMeasureNumber;
-  private String currentVoiceName;
+  // the table that measures are shared through, or null
+  private MeasureTable measureTable;
+
+  // whether measures are memoized, and the chords of the measures parsed since the
+  // header was last read, or null if they are not
+  private boolean memoizingMeasures;
+  private MeasureMemo measureMemo;
+
+  // the warnings found by the last parse, in the order they were found, and
+  // whether they are printed as they are found
+  private final List<String> warnings = new ArrayList<String>();
+  private boolean printingWarnings = true;
+
+  // set once parse(ParseListener) has found an error, after which its listener is sent no more events
+  private boolean listenerStopped;
 
   /**
-  * Creates a new Parser object.
+  * Creates a new Parser object, which parses voices on the common fork-join pool.
   * @param lexer
   */
   public Parser(Lexer lexer) {
+    this(lexer, ForkJoinPool.commonPool());
+  }
+
+  /**
+  * Creates a new Parser object, which parses voices on the passed pool.
+  * @param lexer
+  * @param pool
+  */
+  public Parser(Lexer lexer, ForkJoinPool pool) {
     this.lexer = lexer;
     this.piece = new Piece();
+    this.pool = pool;
+  }
+
+  /**
+  * setMeasureTable
+  * Makes the parser share measures that are the same through a measure table, so
+  * each different measure is held once however often it is repeated. The pieces
+  * parsed must then only be read. Giving several parsers the same table shares the
+  * measures across their pieces.
+  * @param measureTable  The table to share the measures through, or null to not share them
+  */
+  public void setMeasureTable(MeasureTable measureTable) {
+    this.measureTable = measureTable;
+  }
+
+  /**
+  * setMemoizingMeasures
+  * Sets whether each parse remembers the chords of the measures it has parsed, so
+  * that a measure whose tokens are the same as an earlier measure's is not parsed
+  * again. It is off by default; the piece is the same either way.
+  * @param memoizingMeasures True to memoize measures, false to parse every measure
+  */
+  public void setMemoizingMeasures(boolean memoizingMeasures) {
+    this.memoizingMeasures = memoizingMeasures;
+  }
+
+  /**
+  * getMeasureMemo
+  * Returns the memo of the last parse, whose counts show how many measures were
+  * found in it rather than parsed; measures parsed by reparse are added to it
+  * @return The memo, or null if nothing has been parsed with memoizing on
+  */
+  public MeasureMemo getMeasureMemo() {
+    return this.measureMemo;
+  }
+
+  /**
+  * Returns the measure the piece should hold for a parsed measure whose repeat type has been set
+  */
+  private Measure share(Measure measure) {
+    return (this.measureTable != null) ? this.measureTable.intern(measure) : measure;
+  }
+
+  /**
+  * A body context records where in the body a voice is being parsed, for error
+  * messages. Each voice is parsed with its own context, so that several voices
+  * can be parsed at once.
+  */
+  private static class BodyContext {
+
+    private final String voiceName;
+    private int measureNumber;
+
+    public BodyContext(String voiceName, int measureNumber) {
+      this.voiceName = voiceName;
+      this.measureNumber = measureNumber;
+    }
   }
 
+  // the context of errors found outside of any voice
+  private static final BodyContext NO_CONTEXT = new BodyContext(null, 0);
+
   /**
   * Accesses the Piece object constructed by the Parser.
   * @return the parser's Piece
@@ -38,6 +139,40 @@ public class Parser {
     return this.piece;
   }
 
+  /**
+  * getWarnings
+  * Returns the warnings found by the last call to parse, parseStream,
+  * parseSinglePass or reparse, in the order they were found. parse(ParseListener)
+  * finds a warning for each measure of nonstandard length as it is read, so it
+  * keeps one warning for each such measure.
+  * @return The warnings
+  */
+  public List<String> getWarnings() {
+    return new ArrayList<String>(this.warnings);
+  }
+
+  /**
+  * setPrintingWarnings
+  * Sets whether warnings are printed to the standard output as they are found.
+  * They are kept for getWarnings either way.
+  * @param printingWarnings  false to only keep the warnings
+  */
+  public void setPrintingWarnings(boolean printingWarnings) {
+    this.printingWarnings = printingWarnings;
+  }
+
+  /**
+  * Keeps a warning for getWarnings and prints it, if there is one
+  */
+  private void warn(String warning) {
+    if (warning != null) {
+      this.warnings.add(warning);
+      if (this.printingWarnings) {
+        System.out.println(warning);
+      }
+    }
+  }
+
   /**
   * Accesses the header value of a token if it is a header field.
   * @param token the header field from which to get the header value
@@ -59,46 +194,108 @@ public class Parser {
   }
 
   /**
-  * Returns the first item in the list tokens
-  * @param tokens
-  * @return
+  * Parses the headers into the Parser's piece fields.
+  * @param tokensIn, a list of tokens for an entire piece
+  * @return a new list of tokens without the headers
+  */
+  public List<Token> parseHeaders(List<Token> tokensIn) {
+
+    int bodyStart = parseHeaders(TokenBuffer.fromTokens(tokensIn));
+
+    List<Token> tokens = new ArrayList<Token>(tokensIn.subList(bodyStart, tokensIn.size()));
+    for (Token bodyToken : tokens)
+    if (bodyToken.getType() == TokenType.HEADER_FIELD) {
+      throwParserException("Stray header found in body \'" + bodyToken.getString() +"\'");
+    }
+
+    return tokens;
+  }
+
+  /**
+  * Parses the headers into the Parser's piece fields, reading tokens from the
+  * buffer up to and including the key signature header. Unlike the list version,
+  * this does not look for stray headers in the body.
+  * @param tokens, a buffer of tokens for an entire piece
+  * @return the index of the first token of the body
   */
-  public Token nextToken(List<Token> tokens) {
-    return tokens.get(0);
+  public int parseHeaders(TokenBuffer tokens) {
+
+    applyHeaderDefaults();
+
+    // process index and title tokens
+    int cursor = 0;
+    parseIndexHeader(headerToken(tokens, cursor++));
+    parseTitleHeader(headerToken(tokens, cursor++));
+
+    boolean endOfHeadersReached = false;
+    while (!endOfHeadersReached) {
+      endOfHeadersReached = parseHeaderField(headerToken(tokens, cursor++));
+    }
+
+    return cursor;
   }
 
   /**
-  * Removes and returns the first token from tokens
+  * Returns the header token at index in the buffer
   * @param tokens
+  * @param index
   * @return
   */
-  public Token popToken(List<Token> tokens) {
-    Token token = tokens.get(0);
-    tokens.remove(0);
-    return token;
+  private Token headerToken(TokenBuffer tokens, int index) {
+    if (index >= tokens.size()) {
+      throwParserException("Key signature header ('K') not found before end of file");
+    }
+    return tokens.getToken(index);
   }
 
   /**
-  * Parses the headers into the Parser's piece fields.
-  * @param tokensIn, a list of tokens for an entire piece
-  * @return a new list of tokens without the headers
+  * Parses the headers into the Parser's piece fields, consuming tokens from
+  * the stream up to and including the key signature header.
+  * @param tokens, a stream of tokens for an entire piece
   */
-  public List<Token> parseHeaders(List<Token> tokensIn) {
+  public void parseHeaders(Iterator<Token> tokens) {
 
-    List<Token> tokens = new ArrayList<Token>(tokensIn);
+    applyHeaderDefaults();
 
-    Token token;
+    // process index and title tokens
+    parseIndexHeader(nextHeaderToken(tokens));
+    parseTitleHeader(nextHeaderToken(tokens));
 
-    // apply default values to those fields that have them
+    boolean endOfHeadersReached = false;
+    while (!endOfHeadersReached) {
+      endOfHeadersReached = parseHeaderField(nextHeaderToken(tokens));
+    }
+  }
+
+  /**
+  * Removes and returns the next header token from the stream
+  * @param tokens
+  * @return
+  */
+  private Token nextHeaderToken(Iterator<Token> tokens) {
+    if (!tokens.hasNext()) {
+      throwParserException("Key signature header ('K') not found before end of file");
+    }
+    return tokens.next();
+  }
+
+  /**
+  * Applies default values to those header fields that have them.
+  */
+  private void applyHeaderDefaults() {
     this.piece.setIndex(-1);
     this.piece.setTitle("Untitled");
     this.piece.setComposer("Unknown");
     this.piece.setDefaultNoteLengthsPerMinute(100);
     this.piece.setDefaultNoteLength(new Meter(1,8));
     this.piece.setTimeSignature(new Meter(4,4));
+  }
 
-    // process index token
-    token = popToken(tokens);
+  /**
+  * Parses the index header, which must be the first token of the file.
+  * @param token
+  */
+  private void parseIndexHeader(Token token) {
     if (token.getType() != TokenType.HEADER_FIELD || token.getString().charAt(0) != 'X') {
       throwParserException("Index header ('X') not found at start of file");
     }
@@ -107,89 +304,85 @@ public class Parser {
     } catch (NumberFormatException e) {
       throwParserException("Unable to process Index header ('X') value \'" + this.getHeaderValue(token, true) + "\'");
     }
+  }
 
-    // process title token
-    token = popToken(tokens);
+  /**
+  * Parses the title header, which must immediately follow the index header.
+  * @param token
+  */
+  private void parseTitleHeader(Token token) {
     if (token.getType() != TokenType.HEADER_FIELD || token.getString().charAt(0) != 'T') {
       throwParserException("Title header ('T') not found immediately after index header at start of file");
     }
     this.piece.setTitle(this.getHeaderValue(token, false));
+  }
 
-    boolean endOfHeadersReached = false;
-    while (!endOfHeadersReached) {
+  /**
+  * Parses one of the header fields that may follow the index and title headers.
+  * @param token a header field or voice token
+  * @return true if token was the key signature, which ends the header
+  */
+  private boolean parseHeaderField(Token token) {
 
-      token = nextToken(tokens);
+    if (token.getType() != TokenType.HEADER_FIELD && token.getType() != TokenType.VOICE) {
+      throwParserException("Invalid token found in header \'" + token.getString() +"\'");
+    }
 
-      if (token.getType() != TokenType.HEADER_FIELD && token.getType() != TokenType.VOICE) {
-        throwParserException("Invalid token found in header \'" + token.getString() +"\'");
-      }
+    if (token.getType() == TokenType.VOICE) {
+      Voice voice = new Voice();
+      voice.setName(getHeaderValue(token, false));
+      this.piece.addVoice(voice);
+      return false;
+    }
 
-      if (token.getType() == TokenType.VOICE) {
-        Voice voice = new Voice();
-        voice.setName(getHeaderValue(token, false));
-        this.piece.addVoice(voice);
-        popToken(tokens);
-        continue;
+    char headerType = token.getString().charAt(0);
+
+    switch (headerType) {
+      case 'C':
+      this.piece.setComposer(this.getHeaderValue(token, false));
+      break;
+      case 'K':
+      try {
+        this.piece.setKeySignature(KeySignature.valueOf(this.getHeaderValue(token, true)));
+      } catch (IllegalArgumentException e) {
+        throwParserException("Invalid key signature \'" + this.getHeaderValue(token, true) +"\'");
       }
-
-      char headerType = token.getString().charAt(0);
-
-      switch (headerType) {
-        case 'C':
-        this.piece.setComposer(this.getHeaderValue(token, false));
-        break;
-        case 'K':
-        try {
-          this.piece.setKeySignature(new KeySignature(this.getHeaderValue(token, true)));
-        } catch (IllegalArgumentException e) {
-          throwParserException("Invalid key signature \'" + this.getHeaderValue(token, true) +"\'");
-        }
-        endOfHeadersReached = true;
-        break;
-        case 'L':
-        try {
-          this.piece.setDefaultNoteLength(new Meter(this.getHeaderValue(token, true)));
-        } catch (NumberFormatException e) {
-          throwParserException("Invalid default note length \'" + this.getHeaderValue(token, true) +"\'");
-        }
-        break;
-        case 'M':
-        String timeSignatureString = this.getHeaderValue(token, true);
-        if (timeSignatureString.equals("C")) {
-          this.piece.setTimeSignature(new Meter(4,4));
-        }
-        else if (timeSignatureString.equals("C|")) {
-          this.piece.setTimeSignature(new Meter(2,2));
-        }
-        else {
-          try {
-            this.piece.setTimeSignature(new Meter(timeSignatureString));
-          } catch (NumberFormatException e) {
-            throwParserException("Invalid time signature \'" + timeSignatureString +"\'");
-          }
-        }
-        break;
-        case 'Q':
+      return true;
+      case 'L':
+      try {
+        this.piece.setDefaultNoteLength(new Meter(this.getHeaderValue(token, true)));
+      } catch (NumberFormatException e) {
+        throwParserException("Invalid default note length \'" + this.getHeaderValue(token, true) +"\'");
+      }
+      break;
+      case 'M':
+      String timeSignatureString = this.getHeaderValue(token, true);
+      if (timeSignatureString.equals("C")) {
+        this.piece.setTimeSignature(new Meter(4,4));
+      }
+      else if (timeSignatureString.equals("C|")) {
+        this.piece.setTimeSignature(new Meter(2,2));
+      }
+      else {
         try {
-          this.piece.setDefaultNoteLengthsPerMinute(Integer.parseInt(this.getHeaderValue(token, true)));
+          this.piece.setTimeSignature(new Meter(timeSignatureString));
         } catch (NumberFormatException e) {
-          throwParserException("Invalid tempo \'" + this.getHeaderValue(token, true) +"\'");
+          throwParserException("Invalid time signature \'" + timeSignatureString +"\'");
         }
-        break;
-        default:
-        throwParserException("Unsupported header \'" + token.getString() +"\'");
       }
-
-      popToken(tokens);
-
-    }
-
-    for (Token bodyToken : tokens)
-    if (bodyToken.getType() == TokenType.HEADER_FIELD) {
-      throwParserException("Stray header found in body \'" + bodyToken.getString() +"\'");
+      break;
+      case 'Q':
+      try {
+        this.piece.setDefaultNoteLengthsPerMinute(Integer.parseInt(this.getHeaderValue(token, true)));
+      } catch (NumberFormatException e) {
+        throwParserException("Invalid tempo \'" + this.getHeaderValue(token, true) +"\'");
+      }
+      break;
+      default:
+      throwParserException("Unsupported header \'" + token.getString() +"\'");
     }
 
-    return tokens;
+    return false;
   }
 
   /**
@@ -240,32 +433,144 @@ public class Parser {
 
   }
 
+  /**
+  * Separates the body tokens in a buffer into a buffer for each voice, in a single
+  * pass that also checks the body for stray headers. A stray header anywhere in the
+  * body is reported ahead of any problem with the voices, as the list versions of
+  * parseHeaders and mergeVoices do. The voice buffers share the source of tokens.
+  * @param tokens a buffer of tokens for an entire piece
+  * @param bodyStart the index of the first token of the body
+  * @return a map from the name of each voice in the piece to a buffer of the tokens
+  *          of its full part in the piece
+  */
+  private Map<String, TokenBuffer> mergeVoices(TokenBuffer tokens, int bodyStart) {
+
+    // if the piece did not declare voices in its header, create a single voice
+    // and add the entire body to it
+    boolean voicesDeclared = this.piece.getVoices().size() > 0;
+    if (!voicesDeclared) {
+      Voice voice = new Voice();
+      // give the voice a dummy name so it can be put in the map
+      voice.setName("1");
+      this.piece.addVoice(voice);
+    }
+
+    return splitVoices(tokens, bodyStart, voicesDeclared);
+
+  }
+
+  /**
+  * Separates the body tokens in a buffer into a buffer for each voice of the piece,
+  * like mergeVoices, once the voices of the piece are known.
+  * @param tokens a buffer of tokens for an entire piece
+  * @param bodyStart the index of the first token of the body
+  * @param voicesDeclared whether the header declared voices, rather than the whole
+  *          body going to the single voice "1"
+  * @return a map from the name of each voice in the piece to a buffer of its tokens
+  */
+  private Map<String, TokenBuffer> splitVoices(TokenBuffer tokens, int bodyStart, boolean voicesDeclared) {
+
+    Map<String, TokenBuffer> voiceMap = new HashMap<String, TokenBuffer>();
+
+    // fill the voiceMap with a buffer for each voice
+    for (Voice voice : this.piece.getVoices()) {
+      voiceMap.put(voice.getName(), new TokenBuffer(tokens.getSource()));
+    }
+
+    // once a voice problem is found the tokens are only checked for stray headers
+    TokenBuffer currentVoice = voicesDeclared ? null : voiceMap.get("1");
+    boolean missingVoice = voicesDeclared && bodyStart == tokens.size();
+    String undeclaredVoice = null;
+    for (int i = bodyStart; i < tokens.size(); i++) {
+      TokenType type = tokens.getType(i);
+      if (type == TokenType.HEADER_FIELD) {
+        throwParserException("Stray header found in body \'" + tokens.getString(i) +"\'");
+      }
+      if (missingVoice || undeclaredVoice != null) {
+        continue;
+      }
+      if (voicesDeclared && type == TokenType.VOICE) {
+        String voiceName = getHeaderValue(tokens.getToken(i), false);
+        currentVoice = voiceMap.get(voiceName);
+        if (currentVoice == null) {
+          undeclaredVoice = voiceName;
+        }
+      }
+      else if (currentVoice == null) {
+        // the first token in the body must be a voice
+        missingVoice = true;
+      }
+      else {
+        currentVoice.add(type, tokens.getOffset(i), tokens.getLength(i));
+      }
+    }
+
+    if (missingVoice) {
+      throwParserBodyException("Header declared voices but body does not begin with a voice");
+    }
+    if (undeclaredVoice != null) {
+      throwParserException("Found voice \'" + undeclaredVoice + "\' in body that was not declared in header");
+    }
+
+    return voiceMap;
+
+  }
+
   /**
   * parseNote
   * Produces a Note object from a set of tokens
   * @param tokens            The list of tokens to use
   * @param accidentals       A map of accidentals in the current bar. Modifies this map if the note has an accidental on it
   * @param timeFactor        Applies the time factor to the length of the note
-  * @return                  A note parsed from the input tokens
+  * @return                  A note parsed from the input tokens, shared as by Note.valueOf, so it can't be changed
   */
   public Note parseNote(List<Token> tokens, Map<String, Integer> accidentals, Meter timeFactor) {
+    return parseNote(TokenBuffer.fromTokens(tokens), 0, tokens.size(), accidentals, timeFactor);
+  }
+
+  /**
+  * parseNote
+  * Produces a Note object from a range of tokens in a token buffer, reading the
+  * characters of each token from the buffer's source
+  * @param tokens            The buffer of tokens to use
+  * @param start             The index of the first token of the note
+  * @param end               The index after the last token of the note
+  * @param accidentals       A map of accidentals in the current bar. Modifies this map if the note has an accidental on it
+  * @param timeFactor        Applies the time factor to the length of the note
+  * @return                  A note parsed from the input tokens, shared as by Note.valueOf, so it can't be changed
+  */
+  public Note parseNote(TokenBuffer tokens, int start, int end, Map<String, Integer> accidentals, Meter timeFactor) {
+    PieceBuilder builder = new PieceBuilder();
+    builder.chordStart();
+    parseNote(tokens, start, end, accidentals, timeFactor, NO_CONTEXT, builder);
+    builder.chordEnd();
+    return builder.takeMeasure().getChords().get(0).getNotes().get(0);
+  }
+
+  /**
+  * parseNote
+  * Parses a note from a range of tokens in a token buffer and reports it to listener,
+  * without creating a Note object
+  */
+  private void parseNote(TokenBuffer tokens, int start, int end, Map<String, Integer> accidentals, Meter timeFactor, BodyContext context, ParseListener listener) {
 
-    Note note = new Note();
+    char pitch = 0;
+    int octave = 0;
+    int numerator = 1, denominator = 1;
 
     int accidental = 0;
     boolean noteHasAccidental = false;
 
-    //loop through token list linearly to process note
-    for (Token token : tokens) {
-      switch (token.getType()) {
+    //loop through token range linearly to process note
+    for (int i = start; i < end; i++) {
+      switch (tokens.getType(i)) {
         case NOTE_NAME:
 
-        char pitch = token.getString().charAt(0);
+        pitch = tokens.charAt(i, 0);
         if (Character.isLowerCase(pitch) && pitch != 'z') {
           pitch = Character.toUpperCase(pitch);
-          note.setOctave(note.getOctave() + 1);
+          octave++;
         }
-        note.setPitch(pitch);
 
         break;
 
@@ -273,25 +578,38 @@ public class Parser {
 
         // decrement the octave for each ',' and increment it for each '\''
         // note: this allows c, to be a valid, note, equivalent to C which the spec wasn't clear about
-        if (token.getString().charAt(0) == ',') {
-          note.setOctave(note.getOctave() - 1);
+        if (tokens.charAt(i, 0) == ',') {
+          octave--;
         }
-        else if (token.getString().charAt(0) == '\'') {
-          note.setOctave(note.getOctave() + 1);
+        else if (tokens.charAt(i, 0) == '\'') {
+          octave++;
         }
         else {
-          throwParserBodyException("Bad octave modifier \'" + token.getString() + "\'");
+          throwParserBodyException(context, "Bad octave modifier \'" + tokens.getString(i) + "\'");
         }
 
         break;
 
         case NOTE_ACCIDENTAL:
 
-        int sharps = Util.countOccurrencesOfChar(token.getString(), '^');
-        int flats = Util.countOccurrencesOfChar(token.getString(), '_');
-        int natural = Util.countOccurrencesOfChar(token.getString(), '=');
+        int sharps = 0, flats = 0, natural = 0;
+        for (int j = 0; j < tokens.getLength(i); j++) {
+          switch (tokens.charAt(i, j)) {
+            case '^':
+            sharps++;
+            break;
+            case '_':
+            flats++;
+            break;
+            case '=':
+            natural++;
+            break;
+            default:
+            break;
+          }
+        }
         if ( (sharps > 0 && flats > 0) || (sharps > 2) || (flats > 2) || (natural > 0 && (sharps > 0 || flats > 0)) ) {
-          throwParserBodyException("Illegal accidental \'" + token.getString() + "\'");
+          throwParserBodyException(context, "Illegal accidental \'" + tokens.getString(i) + "\'");
         }
         accidental =  sharps - flats;
         noteHasAccidental = true;
@@ -300,223 +618,334 @@ public class Parser {
 
         case NOTE_LENGTH:
 
-        int numerator = 0, denominator = 0;
-        String numString, demString;
-
-        // parse out the numerator and denominator
-        if (token.getString().contains("/")) {
-          numString = token.getString().replaceAll("[^/]*$","");
-          numString = numString.replaceAll("/", "");
-          demString = token.getString().replaceAll("^[^/]*","");
-          demString = demString.replaceAll("/", "");
-        } else {
-          numString = token.getString();
-          demString = "";
+        int length = tokens.getLength(i);
+        int slash = -1;
+        for (int j = 0; j < length; j++) {
+          if (tokens.charAt(i, j) == '/') {
+            slash = j;
+            break;
+          }
         }
 
         // the default value for the numerator is 1
-        if (numString.equals("")) {
+        int numeratorEnd = (slash < 0) ? length : slash;
+        if (numeratorEnd == 0) {
           numerator = 1;
         }
         else {
-          numerator = Integer.parseInt(numString);
+          numerator = parseDigits(tokens, i, 0, numeratorEnd);
         }
 
         // the default value for the denominator is 2
-        if (!token.getString().contains("/")) {
+        if (slash < 0) {
           denominator = 1;
         }
-        else if (demString.equals("")) {
+        else if (slash == length - 1) {
           denominator = 2;
         }
         else {
-          denominator = Integer.parseInt(demString);
+          denominator = parseDigits(tokens, i, slash + 1, length);
         }
 
-        note.setLength(new Meter(numerator, denominator));
-
         break;
 
         default:
-        throwParserBodyException("Invalid token \'" + token.getString() + "\'");
+        throwParserBodyException(context, "Invalid token \'" + tokens.getString(i) + "\'");
         break;
       }
     }
 
-    // create a note with the same pitch and octave, ignoring length
-    Note accidentalNote = new Note();
-    accidentalNote.setPitch(note.getPitch());
-    accidentalNote.setOctave(note.getOctave());
-
-    // add the accidentalNote to the accidental map if the note has an accidental on it
-    if (noteHasAccidental) {
-      accidentals.put(accidentalNote.toString(), accidental);
-    }
+    // add the note to the accidental map if the note has an accidental on it, keyed
+    // by its pitch and octave. the key is only built if the map is going to be used
+    int noteAccidental;
+    if (noteHasAccidental || !accidentals.isEmpty()) {
+      String accidentalKey = accidentalKey(pitch, octave);
+      if (noteHasAccidental) {
+        accidentals.put(accidentalKey, accidental);
+      }
 
-    // apply accidental if accidentalNote is found in list of accidentals
-    // otherwise, apply the key signature
-    if (accidentals.keySet().contains(accidentalNote.toString())) {
-      note.setAccidental(accidentals.get(accidentalNote.toString()));
+      // apply accidental if the note is found in the map of accidentals
+      // otherwise, apply the key signature
+      if (accidentals.containsKey(accidentalKey)) {
+        noteAccidental = accidentals.get(accidentalKey);
+      }
+      else {
+        noteAccidental = this.piece.getKeySignature().getAccidental(pitch);
+      }
     }
     else {
-      this.piece.getKeySignature().processNote(note);
+      noteAccidental = this.piece.getKeySignature().getAccidental(pitch);
     }
 
     // apply time factor to note duration
-    note.setLength(note.getLength().multiply(timeFactor));
+    listener.note(pitch, octave, noteAccidental, numerator * timeFactor.getNumerator(), denominator * timeFactor.getDenominator());
+  }
+
+  /**
+  * accidentalKey
+  * Produces the key of a note in a map of accidentals, which identifies the
+  * note by its pitch and octave, ignoring its length and accidental
+  * @param pitch     The pitch of the note
+  * @param octave    The octave of the note
+  * @return          The key for the note
+  */
+  private static String accidentalKey(char pitch, int octave) {
+    int column = octave - LOWEST_KEYED_OCTAVE;
+    if (pitch >= 'A' && pitch <= 'G' && column >= 0 && column < ACCIDENTAL_KEYS[0].length) {
+      return ACCIDENTAL_KEYS[pitch - 'A'][column];
+    }
+    return new Note(pitch, octave, 0, new Meter(1,1)).toString();
+  }
+
+  // the keys of the notes of the octaves most often written, built once
+  private static final int LOWEST_KEYED_OCTAVE = -4;
+  private static final String[][] ACCIDENTAL_KEYS = new String[7][9];
 
-    return note;
+  static {
+    for (int pitch = 0; pitch < ACCIDENTAL_KEYS.length; pitch++) {
+      for (int column = 0; column < ACCIDENTAL_KEYS[pitch].length; column++) {
+        ACCIDENTAL_KEYS[pitch][column] = new Note((char)('A' + pitch), column + LOWEST_KEYED_OCTAVE, 0, new Meter(1,1)).toString();
+      }
+    }
+  }
+
+  /**
+  * parseDigits
+  * Parses a decimal number from part of a token without copying it into a string
+  * @param tokens    The buffer holding the token
+  * @param index     The index of the token in the buffer
+  * @param from      The position in the token of the first digit
+  * @param to        The position in the token after the last digit
+  * @return          The number
+  */
+  private static int parseDigits(TokenBuffer tokens, int index, int from, int to) {
+    // numbers too long to be sure they fit in an int go through Integer.parseInt,
+    // which reports the overflow
+    if (to - from > 9) {
+      int offset = tokens.getOffset(index);
+      return Integer.parseInt(tokens.getSource().subSequence(offset + from, offset + to).toString());
+    }
+    int result = 0;
+    for (int j = from; j < to; j++) {
+      result = result * 10 + (tokens.charAt(index, j) - '0');
+    }
+    return result;
   }
 
   /**
   * parseChord
   * Parses a chord from a list of tokens, given that the tokens are formatted correctly
-  * @param tokens
-  * @param accidentals
-  * @param timeFactor
-  * @return
+  * @param tokens            The list of tokens to use
+  * @param accidentals       A map of accidentals in the current bar
+  * @param timeFactor        Applies the time factor to the length of each note
+  * @return                  The chord, whose notes are shared as by Note.valueOf and can't be changed
   */
   public Chord parseChord(List<Token> tokens, Map<String, Integer> accidentals, Meter timeFactor) {
+    return parseChord(TokenBuffer.fromTokens(tokens), 0, tokens.size(), accidentals, timeFactor);
+  }
 
-    int i = 0;
-    List<Note> noteList = new ArrayList<Note>();
+  /**
+  * parseChord
+  * Parses a chord from a range of tokens in a token buffer, given that the tokens are formatted correctly
+  * @param tokens            The buffer of tokens to use
+  * @param start             The index of the first token of the chord
+  * @param end               The index after the last token of the chord
+  * @param accidentals       A map of accidentals in the current bar
+  * @param timeFactor        Applies the time factor to the length of each note
+  * @return                  The chord, whose notes are shared as by Note.valueOf and can't be changed
+  */
+  public Chord parseChord(TokenBuffer tokens, int start, int end, Map<String, Integer> accidentals, Meter timeFactor) {
+    PieceBuilder builder = new PieceBuilder();
+    parseChord(tokens, start, end, accidentals, timeFactor, NO_CONTEXT, builder);
+    return builder.takeMeasure().getChords().get(0);
+  }
 
-    while (i < tokens.size()) {
+  /**
+  * parseChord
+  * Parses a chord from a range of tokens in a token buffer and reports it to listener
+  */
+  private void parseChord(TokenBuffer tokens, int start, int end, Map<String, Integer> accidentals, Meter timeFactor, BodyContext context, ParseListener listener) {
 
-      //adds note to chord
-      List<Token> noteTokens = new ArrayList<Token>();
-      noteTokens.add(tokens.get(i++));
-      if (noteTokens.get(0).getType() == TokenType.NOTE_ACCIDENTAL) {
-        Token noteNameToken = tokens.get(i++);
-        if (noteNameToken.getType() != TokenType.NOTE_NAME) {
-          throwParserBodyException("Accidental was not followed by note name");
-        }
-        noteTokens.add(noteNameToken);
-      } else if (noteTokens.get(0).getType() != TokenType.NOTE_NAME) {
-        throwParserBodyException("Expected note name but got \'" + noteTokens.get(0).getString() + "\'");
-      }
-      while (i < tokens.size() && !Arrays.asList(noteSeparators).contains(tokens.get(i).getType())) {
-        noteTokens.add(tokens.get(i++));
-      }
-      if (noteTokens.size() > 0) {
-        noteList.add(parseNote(noteTokens, accidentals, timeFactor));
-      }
+    int i = start;
+    listener.chordStart();
 
+    while (i < end) {
+      //adds note to chord
+      int noteEnd = endOfNote(tokens, i, end, context);
+      parseNote(tokens, i, noteEnd, accidentals, timeFactor, context, listener);
+      i = noteEnd;
     }
 
-    return new Chord(noteList);
+    listener.chordEnd();
+
+  }
 
+  /**
+  * endOfNote
+  * Finds the end of the note that begins at start: an optional accidental, a note
+  * name, and every token up to the next note separator
+  * @param tokens    The buffer of tokens
+  * @param start     The index of the first token of the note
+  * @param end       The index after the last token that may belong to the note
+  * @param context   Where the note is, for error messages
+  * @return          The index after the last token of the note
+  */
+  private int endOfNote(TokenBuffer tokens, int start, int end, BodyContext context) {
+    int i = start + 1;
+    if (tokens.getType(start) == TokenType.NOTE_ACCIDENTAL) {
+      if (i >= end || tokens.getType(i) != TokenType.NOTE_NAME) {
+        throwParserBodyException(context, "Accidental was not followed by note name");
+      }
+      i++;
+    } else if (tokens.getType(start) != TokenType.NOTE_NAME) {
+      throwParserBodyException(context, "Expected note name but got \'" + tokens.getString(start) + "\'");
+    }
+    while (i < end && !isNoteSeparator(tokens.getType(i))) {
+      i++;
+    }
+    return i;
   }
 
   /**
   * The types of tokens that, when reached, indicate the current note being processed has ended
   */
-  private final TokenType[] noteSeparators = {
-    TokenType.NOTE_NAME, TokenType.NOTE_ACCIDENTAL, TokenType.CHORD_BEGIN, TokenType.TUPLET
-  };
+  private static boolean isNoteSeparator(TokenType type) {
+    switch (type) {
+      case NOTE_NAME:
+      case NOTE_ACCIDENTAL:
+      case CHORD_BEGIN:
+      case TUPLET:
+      return true;
+      default:
+      return false;
+    }
+  }
+
+  private static final Meter NO_TIME_FACTOR = new Meter(1,1);
+  private static final Meter DUPLET_TIME_FACTOR = new Meter(3,2);
+  private static final Meter TRIPLET_TIME_FACTOR = new Meter(2,3);
+  private static final Meter QUADRUPLET_TIME_FACTOR = new Meter(3,4);
+
+  // the number of measures below which a voice's measures are parsed without splitting the work
+  private static final int MEASURES_PER_TASK = 64;
 
   /**
   * parseMeasure, parses a list of tokens representing a measure, given
   * that the tokens are in accordance with the grammar for a measure
   * @param tokens The list of tokens to build the chord list from
-  * @return The list of chords represented by the tokens
+  * @return The list of chords represented by the tokens. Their notes are shared
+  * as by Note.valueOf and can't be changed
   */
   public Measure parseMeasure(List<Token> tokens) {
+    return parseMeasure(TokenBuffer.fromTokens(tokens), 0, tokens.size());
+  }
 
-    int i = 0;
-    Measure measure = new Measure();
-    Map<String, Integer> accidentals = new HashMap<String, Integer>();
-
-    while (i < tokens.size()) {
+  /**
+  * parseMeasure, parses a range of tokens in a token buffer representing a
+  * measure, given that the tokens are in accordance with the grammar for a measure
+  * @param tokens The buffer of tokens to build the chord list from
+  * @param start  The index of the first token of the measure
+  * @param end    The index after the last token of the measure
+  * @return The list of chords represented by the tokens. Their notes are shared
+  * as by Note.valueOf and can't be changed
+  */
+  public Measure parseMeasure(TokenBuffer tokens, int start, int end) {
+    PieceBuilder builder = new PieceBuilder();
+    parseMeasure(tokens, start, end, NO_CONTEXT, builder);
+    return builder.takeMeasure();
+  }
 
-      Token token = tokens.get(i);
-      List<Token> chordTokens;
+  /**
+  * parseMeasure
+  * Parses the chords of a measure from a range of tokens in a token buffer and
+  * reports them to listener. The bar line is left to the caller.
+  */
+  private void parseMeasure(TokenBuffer tokens, int start, int end, BodyContext context, ParseListener listener) {
+
+    int i = start;
+    Map<String, Integer> accidentals = new HashMap<String, Integer>();
 
-      switch (token.getType()) {
+    while (i < end) {
+
+      switch (tokens.getType(i)) {
 
         case CHORD_BEGIN:
 
-        chordTokens = new ArrayList<Token>();
         i++; // pass over the chord_begin token
-        while (i < tokens.size() && tokens.get(i).getType() != TokenType.CHORD_END) {
-          chordTokens.add(tokens.get(i++));
+        int chordStart = i;
+        while (i < end && tokens.getType(i) != TokenType.CHORD_END) {
+          i++;
         }
-        if (i == tokens.size()) {
-          throwParserBodyException("Chord begin \'[\' was not followed by chord end \']\'");
+        if (i == end) {
+          throwParserBodyException(context, "Chord begin \'[\' was not followed by chord end \']\'");
         }
-        if (chordTokens.size() > 0) {
-          measure.addChord(parseChord(chordTokens, accidentals, new Meter(1,1)));
+        if (i > chordStart) {
+          parseChord(tokens, chordStart, i, accidentals, NO_TIME_FACTOR, context, listener);
         }
         i++; // pass over the chord_end token
         break;
 
         case TUPLET:
 
+        int tupletCount = tokens.charAt(i, 1) - '0';
         i++; // pass over the tuplet token
-        int tupletCount = Integer.parseInt(String.valueOf(token.getString().charAt(1)));
         Meter timeFactor = new Meter();
         switch (tupletCount) {
           case 2:
-          timeFactor = new Meter(3,2);
+          timeFactor = DUPLET_TIME_FACTOR;
           break;
           case 3:
-          timeFactor = new Meter(2,3);
+          timeFactor = TRIPLET_TIME_FACTOR;
           break;
           case 4:
-          timeFactor = new Meter(3,4);
+          timeFactor = QUADRUPLET_TIME_FACTOR;
           break;
           default:
-          throwParserBodyException("Invalid tuplet length detected");
+          throwParserBodyException(context, "Invalid tuplet length detected");
         }
         //loop through notes for tuplet and process them one-by-one
         for (int j = 0; j < tupletCount; j++) {
-          chordTokens = new ArrayList<Token>();
-          chordTokens.add(tokens.get(i++));
-          if (chordTokens.get(0).getType() == TokenType.NOTE_ACCIDENTAL) {
-            Token noteNameToken = tokens.get(i++);
-            if (noteNameToken.getType() != TokenType.NOTE_NAME) {
-              throwParserBodyException("Accidental was not followed by note name");
-            }
-            chordTokens.add(noteNameToken);
-          } else if (chordTokens.get(0).getType() != TokenType.NOTE_NAME) {
-            throwParserBodyException("Expected note name but got \'" + chordTokens.get(0).getString() + "\'");
-          }
-          while (i < tokens.size() && !Arrays.asList(noteSeparators).contains(tokens.get(i).getType())) {
-            chordTokens.add(tokens.get(i++));
-          }
-          if (chordTokens.size() > 0) {
-            measure.addChord(parseChord(chordTokens, accidentals, timeFactor));
+          if (i == end) {
+            throwParserBodyException(context, "Tuplet of " + tupletCount + " notes ended after " + j + " notes");
           }
+          int noteEnd = endOfNote(tokens, i, end, context);
+          parseChord(tokens, i, noteEnd, accidentals, timeFactor, context, listener);
+          i = noteEnd;
         }
         break;
 
         default:
 
         //parse note in chord format for measure datatype
-        chordTokens = new ArrayList<Token>();
-        chordTokens.add(tokens.get(i++));
-        if (chordTokens.get(0).getType() == TokenType.NOTE_ACCIDENTAL) {
-          Token noteNameToken = tokens.get(i++);
-          if (noteNameToken.getType() != TokenType.NOTE_NAME) {
-            throwParserBodyException("Accidental was not followed by note name");
-          }
-          chordTokens.add(noteNameToken);
-        } else if (chordTokens.get(0).getType() != TokenType.NOTE_NAME) {
-          throwParserBodyException("Expected note name but got \'" + chordTokens.get(0).getString() + "\'");
-        }
-        while (i < tokens.size() && !Arrays.asList(noteSeparators).contains(tokens.get(i).getType())) {
-          chordTokens.add(tokens.get(i++));
-        }
-        if (chordTokens.size() > 0) {
-          measure.addChord(parseChord(chordTokens, accidentals, new Meter(1,1)));
-        }
+        int noteEnd = endOfNote(tokens, i, end, context);
+        parseChord(tokens, i, noteEnd, accidentals, NO_TIME_FACTOR, context, listener);
+        i = noteEnd;
         break;
 
       }
 
     }
 
-    return measure;
+  }
+
+  /**
+  * parseMemoizedMeasure
+  * Reports the chords of a measure to listener like parseMeasure, replaying them
+  * from the memo if the same tokens have already been parsed, and otherwise adding
+  * them to the memo once the measure has parsed
+  */
+  private void parseMemoizedMeasure(TokenBuffer tokens, int start, int end, BodyContext context, ParseListener listener) {
+    MeasureMemo memo = this.measureMemo;
+    if (memo == null) {
+      parseMeasure(tokens, start, end, context, listener);
+      return;
+    }
+    long hash = MeasureMemo.hash(tokens, start, end);
+    if (!memo.replay(tokens, start, end, hash, listener)) {
+      MeasureMemo.Recorder recorder = memo.record(listener);
+      parseMeasure(tokens, start, end, context, recorder);
+      memo.put(tokens, start, end, hash, recorder);
+    }
   }
 
   /**
@@ -527,100 +956,743 @@ public class Parser {
   * @param tokens    The tokens to build the chords from
   */
   public void parseVoice(Voice voice, List<Token> tokens) {
+    parseVoice(voice, TokenBuffer.fromTokens(tokens));
+  }
+
+  /**
+  * parseVoice
+  * Adds the series of measures represented by a buffer of tokens to the specified
+  * voice given that the measures are formatted correctly. Each measure is parsed
+  * directly from its range of the buffer; the buffer is compacted in place if it
+  * holds ending markers, so it should not be used afterwards.
+  * @param voice     The voice to add the chords to
+  * @param tokens    The tokens to build the chords from
+  */
+  public void parseVoice(Voice voice, TokenBuffer tokens) {
+    warn(segmentVoice(voice, tokens));
+  }
+
+  /**
+  * segmentVoice
+  * Adds the measures represented by a buffer of tokens to a voice like parseVoice,
+  * but returns the warning about measures of nonstandard length instead of printing it
+  * @param voice     The voice to add the chords to
+  * @param tokens    The tokens to build the chords from
+  * @return          The warning, or null if every measure has the standard length
+  */
+  private String segmentVoice(Voice voice, TokenBuffer tokens) {
+    return segmentVoice(voice, tokens, null);
+  }
+
+  /**
+  * segmentVoice
+  * Adds the measures represented by a buffer of tokens to a voice like parseVoice,
+  * counting their notes in a tick resolution
+  * @param voice             The voice to add the chords to
+  * @param tokens            The tokens to build the chords from
+  * @param tickResolution    The tick resolution to count the notes in, or null
+  * @return                  The warning, or null if every measure has the standard length
+  */
+  private String segmentVoice(Voice voice, TokenBuffer tokens, TickResolution tickResolution) {
+
+    VoiceSegmenter segmenter = new VoiceSegmenter(voice);
 
     // first run through the tokens to ensure there are no nested repeats
-    boolean inRepeat = false;
-    for (Token token : tokens) {
-      if (token.getType() == TokenType.BAR_BEGIN_REPEAT) {
-        if (inRepeat) {
+    for (int i = 0; i < tokens.size(); i++) {
+      segmenter.checkNesting(tokens.getType(i));
+    }
+
+    // now run through the tokens to segment and parse the measures,
+    // keeping track of the repeat type for each measure
+    segmenter.addTokens(tokens, 0, tokens.size());
+    if (tickResolution != null) {
+      tickResolution.addAll(segmenter.parsedTickResolution);
+    }
+
+    return segmenter.finish();
+
+  }
+
+  /**
+  * A voice task parses the tokens of one voice on a fork-join pool. Whatever
+  * happens is kept in the task, the warning for the voice or the exception that
+  * stopped it, so that the results of all the voices can be reported in the
+  * order the voices were declared.
+  */
+  private class VoiceTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Voice voice;
+    private final TokenBuffer tokens;
+    private final TickResolution tickResolution = new TickResolution();
+    private String warning;
+    private RuntimeException error;
+
+    public VoiceTask(Voice voice, TokenBuffer tokens) {
+      this.voice = voice;
+      this.tokens = tokens;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        this.warning = segmentVoice(this.voice, this.tokens, this.tickResolution);
+      } catch (RuntimeException e) {
+        this.error = e;
+      }
+    }
+
+    /**
+    * Prints the warning for the voice, or rethrows the exception that stopped it
+    */
+    public void report() {
+      if (this.error != null) {
+        throw this.error;
+      }
+      warn(this.warning);
+    }
+  }
+
+  /**
+  * A voice segmenter splits the body tokens of a single voice into measures at
+  * bar lines. It is either given a whole range of a token buffer, which it first
+  * splits into the ranges of its measures and then parses measure by measure in
+  * parallel, or fed one token at a time, in which case each measure is parsed as
+  * soon as it is closed and only the tokens of the open measure are held.
+  */
+  private class VoiceSegmenter {
+
+    private final Voice voice;
+    private final BodyContext context;
+    // where the measures go when tokens are added one at a time
+    private final LengthCheckingListener listener;
+    private int openMeasureSize = 0;
+
+    // the tokens of the open measure when tokens are added one at a time, and the
+    // text of the tokens added as Token objects, which the buffer points into
+    private TokenBuffer openMeasure;
+    private StringBuilder openMeasureText;
+
+    // the errors held back by addTokenDeferred until the voice is finished
+    private IllegalArgumentException nestingError;
+    private IllegalArgumentException tokenError;
+    private RepeatType repeatType = RepeatType.NONE;
+    private boolean inRepeat = false;
+
+    // the result of patchTokens: the new measures, the index in the voice of the
+    // first of them, and the warning for them
+    private Measure[] patchedMeasures;
+    private int firstPatchedMeasure;
+    private String patchWarning;
+
+    // the notes of the measures parsed by the last call to parseMeasures
+    private TickResolution parsedTickResolution = new TickResolution();
+
+    // the measures found by addTokens: the range of each in the buffer, the offset
+    // in the source of its closing bar line and its repeat type
+    private int[] measureStarts = new int[16];
+    private int[] measureEnds = new int[16];
+    private int[] measureBars = new int[16];
+    private RepeatType[] repeatTypes = new RepeatType[16];
+    private int measureCount = 0;
+
+    public VoiceSegmenter(Voice voice) {
+      this(voice, null, true);
+    }
+
+    /**
+    * Creates a segmenter that reports the measures of tokens added one at a time
+    * to listener, rather than adding them to voice
+    * @param collectingWarnings  true to list the measures of nonstandard length in
+    *                            the warning returned by finish, false to print a
+    *                            warning for each one as it is found
+    */
+    public VoiceSegmenter(Voice voice, ParseListener listener, boolean collectingWarnings) {
+      this.voice = voice;
+      this.context = new BodyContext(voice.getName(), 1);
+      this.listener = (listener == null) ? null : new LengthCheckingListener(listener, voice, collectingWarnings);
+    }
+
+    /**
+    * Throws an exception if type is a begin repeat directly following another
+    * @param type      The type of the next token in the voice
+    */
+    public void checkNesting(TokenType type) {
+      if (type == TokenType.BAR_BEGIN_REPEAT) {
+        if (this.inRepeat) {
           throwParserException("Found nested repeats");
         }
         else {
-          inRepeat = true;
+          this.inRepeat = true;
         }
       }
       else {
-        inRepeat = false;
+        this.inRepeat = false;
       }
     }
 
-    // now run through the tokens to segment and parse the measures,
-    // keeping track of the repeat type for each measure
-    List<Token> measureTokens = new ArrayList<Token>();
-    RepeatType repeatType = RepeatType.NONE;
-    this.currentMeasureNumber = 1;
-    for (Token token : tokens) {
+    /**
+    * Segments and parses a range of tokens in a buffer. The ending markers are
+    * squeezed out of the range as it is walked, so that each measure is a
+    * contiguous run of the buffer that can be parsed where it lies. Since each
+    * measure has its own accidentals, the measures are then parsed in parallel.
+    * Errors are reported as if the measures had been parsed one after another
+    * during segmentation: an error in a measure comes before an error found
+    * while segmenting any later measure.
+    * @param tokens    The buffer holding the tokens of the voice
+    * @param start     The index of the first token to add
+    * @param end       The index after the last token to add
+    */
+    public void addTokens(TokenBuffer tokens, int start, int end) {
+
+      int firstMeasureNumber = this.context.measureNumber;
+      IllegalArgumentException segmentationError = segment(tokens, start, end);
+
+      Measure[] measures = parseMeasures(tokens, firstMeasureNumber, 0, this.measureCount);
+      for (int i = 0; i < this.measureCount; i++) {
+        measures[i].setRepeatType(this.repeatTypes[i]);
+        this.voice.addMeasure(share(measures[i]));
+      }
+      if (segmentationError != null) {
+        throw segmentationError;
+      }
+    }
+
+    /**
+    * Splits a range of tokens in a buffer into measures without parsing them,
+    * squeezing the ending markers out of the range
+    * @param tokens    The buffer holding the tokens of the voice
+    * @param start     The index of the first token to add
+    * @param end       The index after the last token to add
+    * @return          The error that stopped the segmentation, or null if there was none
+    */
+    private IllegalArgumentException segment(TokenBuffer tokens, int start, int end) {
+
+      int measureStart = start;
+      int measureEnd = start;
+      this.measureCount = 0;
+
+      IllegalArgumentException segmentationError = null;
+      try {
+        for (int i = start; i < end; i++) {
+
+          TokenType type = tokens.getType(i);
+          if (isBar(type)) {
+            checkBar(type, measureEnd - measureStart);
+            boolean sectionEnd = tokens.getLength(i) == 2 && tokens.charAt(i, 0) == '|' && tokens.charAt(i, 1) == ']';
+            addMeasureRange(measureStart, measureEnd, tokens.getOffset(i), closeMeasure(type, sectionEnd));
+            measureStart = measureEnd;
+          }
+          else if (!markEnding(type)) {
+            if (measureEnd != i) {
+              tokens.copyToken(i, measureEnd);
+            }
+            measureEnd++;
+          }
+        }
+      } catch (IllegalArgumentException e) {
+        segmentationError = e;
+      }
+      this.openMeasureSize = measureEnd - measureStart;
+      return segmentationError;
+    }
 
-      if (token.getType() == TokenType.BAR || token.getType() == TokenType.BAR_BEGIN_REPEAT || token.getType() == TokenType.BAR_END_REPEAT) {
+    /**
+    * Parses a run of the measures found by segment, in parallel if there are many of
+    * them, and throws the error of the first measure that fails
+    * @param tokens                The buffer the measures were found in
+    * @param firstMeasureNumber    The number of the first measure of the voice, for errors
+    * @param from                  The index of the first measure to parse
+    * @param to                    The index after the last measure to parse
+    * @return                      The measures, at their indices; the other slots are null
+    */
+    private Measure[] parseMeasures(TokenBuffer tokens, int firstMeasureNumber, int from, int to) {
+
+      Measure[] measures = new Measure[this.measureCount];
+      RuntimeException[] errors = new RuntimeException[this.measureCount];
+      TickResolution tickResolution = new TickResolution();
+      MeasureTask task = new MeasureTask(tokens, this.voice.getName(), firstMeasureNumber, from, to, measures, errors, tickResolution);
+      if (to - from <= MEASURES_PER_TASK || ForkJoinTask.getPool() == pool) {
+        task.invoke();
+      }
+      else {
+        pool.invoke(task);
+      }
 
-        if (measureTokens.size() < 1 && token.getType() != TokenType.BAR_BEGIN_REPEAT) {
-          throwParserBodyException("Bar line produces empty measure");
+      for (int i = from; i < to; i++) {
+        if (errors[i] != null) {
+          throw errors[i];
         }
+      }
+      this.parsedTickResolution = tickResolution;
+      return measures;
+    }
+
+    /**
+    * Segments and parses the tokens of the voice around an edit, without touching
+    * the voice. The tokens run from the bar line before the changed ones to the first
+    * bar line after them, or to the end of the voice if there is none. Errors are
+    * those that parseVoice would throw for the whole voice, given that its other
+    * measures parsed without error.
+    * @param tokens            The tokens of the voice around the edit
+    * @param firstMeasure      The index in the voice of the measure the tokens begin
+    * @param afterBeginRepeat  Whether the bar line before the tokens begins a repeat
+    */
+    public void patchTokens(TokenBuffer tokens, int firstMeasure, boolean afterBeginRepeat) {
+
+      this.inRepeat = afterBeginRepeat;
+      for (int i = 0; i < tokens.size(); i++) {
+        checkNesting(tokens.getType(i));
+      }
 
-        Measure newMeasure = parseMeasure(measureTokens);
+      this.repeatType = afterBeginRepeat ? RepeatType.BEGIN : RepeatType.NONE;
+      this.context.measureNumber = firstMeasure + 1;
+      IllegalArgumentException segmentationError = segment(tokens, 0, tokens.size());
+      if (segmentationError != null) {
+        // the measures after the error were never reached
+        parseMeasures(tokens, firstMeasure + 1, 0, this.measureCount);
+        throw segmentationError;
+      }
+      this.patchedMeasures = parseMeasures(tokens, firstMeasure + 1, 0, this.measureCount);
+      checkClosed();
+      this.firstPatchedMeasure = firstMeasure;
+
+      List<Integer> nonstandardLengthMeasures = new ArrayList<Integer>();
+      for (int i = 0; i < this.measureCount; i++) {
+        if (hasNonstandardLength(this.patchedMeasures[i])) {
+          nonstandardLengthMeasures.add(firstMeasure + i);
+        }
+      }
+      this.patchWarning = nonstandardLengthWarning(this.voice, nonstandardLengthMeasures);
+    }
 
-        // END differs from SECTION_END in that END causes a repeat to occur
-        // whereas SECTION_END can be the place that a repeat backtracks to
-        if (token.getType() == TokenType.BAR_END_REPEAT && repeatType != RepeatType.FIRST_ENDING) {
-          repeatType = RepeatType.END;
+    /**
+    * Splices the measures parsed by patchTokens into the voice in place of the
+    * measures they replace
+    * @param removedEnd    The index after the last measure of the voice to replace
+    * @return              The number of measures replaced
+    */
+    public int applyPatch(int removedEnd) {
+
+      List<Measure> measures = this.voice.getMeasures();
+
+      // keep the count of the notes of the piece, unless the piece was changed after it was counted
+      TickResolution tickResolution = piece.getTickResolution();
+      if (tickResolution != null) {
+        for (Measure removed : measures.subList(this.firstPatchedMeasure, removedEnd)) {
+          if (!tickResolution.remove(removed)) {
+            piece.setTickResolution(null);
+            tickResolution = null;
+            break;
+          }
         }
-        if (token.getString().equals("|]")) {
-          repeatType = RepeatType.SECTION_END;
+        if (tickResolution != null) {
+          tickResolution.addAll(this.parsedTickResolution);
         }
+      }
+      measures.subList(this.firstPatchedMeasure, removedEnd).clear();
 
-        newMeasure.setRepeatType(repeatType);
-        voice.addMeasure(newMeasure);
-        this.currentMeasureNumber += 1;
-        measureTokens.clear();
+      for (int i = 0; i < this.measureCount; i++) {
+        this.patchedMeasures[i].setRepeatType(this.repeatTypes[i]);
+        this.patchedMeasures[i] = share(this.patchedMeasures[i]);
+      }
+      measures.addAll(this.firstPatchedMeasure, Arrays.asList(this.patchedMeasures));
+      this.voice.invalidatePlaybackOrder();
+      return removedEnd - this.firstPatchedMeasure;
+    }
 
-        if (token.getType() == TokenType.BAR_BEGIN_REPEAT) {
-          repeatType = RepeatType.BEGIN;
+    /**
+    * Records the range, bar line and repeat type of a measure found by segment
+    */
+    private void addMeasureRange(int start, int end, int bar, RepeatType type) {
+      if (this.measureCount == this.measureStarts.length) {
+        this.measureStarts = Arrays.copyOf(this.measureStarts, this.measureCount * 2);
+        this.measureEnds = Arrays.copyOf(this.measureEnds, this.measureCount * 2);
+        this.measureBars = Arrays.copyOf(this.measureBars, this.measureCount * 2);
+        this.repeatTypes = Arrays.copyOf(this.repeatTypes, this.measureCount * 2);
+      }
+      this.measureStarts[this.measureCount] = start;
+      this.measureEnds[this.measureCount] = end;
+      this.measureBars[this.measureCount] = bar;
+      this.repeatTypes[this.measureCount] = type;
+      this.measureCount++;
+    }
+
+    /**
+    * A measure task parses a run of the measures found by addTokens, splitting the
+    * run in half until it is short enough to parse directly. Each measure is parsed
+    * into its own slot, or leaves the exception that stopped it there.
+    */
+    private class MeasureTask extends RecursiveAction {
+
+      private static final long serialVersionUID = 1L;
+
+      private final TokenBuffer tokens;
+      private final String voiceName;
+      private final int firstMeasureNumber;
+      private final int from;
+      private final int to;
+      private final Measure[] measures;
+      private final RuntimeException[] errors;
+      // shared by the tasks of a voice, each adding the notes it parsed once it is done
+      private final TickResolution tickResolution;
+
+      public MeasureTask(TokenBuffer tokens, String voiceName, int firstMeasureNumber, int from, int to, Measure[] measures,
+      RuntimeException[] errors, TickResolution tickResolution) {
+        this.tokens = tokens;
+        this.voiceName = voiceName;
+        this.firstMeasureNumber = firstMeasureNumber;
+        this.from = from;
+        this.to = to;
+        this.measures = measures;
+        this.errors = errors;
+        this.tickResolution = tickResolution;
+      }
+
+      @Override
+      protected void compute() {
+        if (this.to - this.from > MEASURES_PER_TASK) {
+          int middle = (this.from + this.to) >>> 1;
+          invokeAll(new MeasureTask(this.tokens, this.voiceName, this.firstMeasureNumber, this.from, middle, this.measures, this.errors, this.tickResolution),
+          new MeasureTask(this.tokens, this.voiceName, this.firstMeasureNumber, middle, this.to, this.measures, this.errors, this.tickResolution));
+          return;
         }
-        else {
-          repeatType = RepeatType.NONE;
+        BodyContext measureContext = new BodyContext(this.voiceName, 0);
+        PieceBuilder builder = new PieceBuilder();
+        for (int i = this.from; i < this.to; i++) {
+          measureContext.measureNumber = this.firstMeasureNumber + i;
+          try {
+            parseMemoizedMeasure(this.tokens, measureStarts[i], measureEnds[i], measureContext, builder);
+            this.measures[i] = builder.takeMeasure();
+          } catch (RuntimeException e) {
+            this.errors[i] = e;
+            // throw away the chords of the measure that failed
+            builder.takeMeasure();
+          }
         }
+        synchronized (this.tickResolution) {
+          this.tickResolution.addAll(builder.getTickResolution());
+        }
+      }
+    }
 
-      } else {
+    /**
+    * Adds token to the open measure, or closes and parses the measure if token is a bar line
+    * @param token     The next token in the voice
+    */
+    public void addToken(Token token) {
+      if (this.openMeasureText == null) {
+        this.openMeasureText = new StringBuilder();
+      }
+      // the text of the tokens of a closed measure is no longer needed
+      if (this.openMeasureSize == 0) {
+        this.openMeasureText.setLength(0);
+      }
+      int offset = this.openMeasureText.length();
+      this.openMeasureText.append(token.getString());
+      addToken(this.openMeasureText, token.getType(), offset, token.getString().length());
+    }
 
-        if (token.getType() == TokenType.FIRST_ENDING) {
-          if (repeatType != RepeatType.NONE)
-          throwParserException("Found invalid first ending in measure " + this.currentMeasureNumber);
-          repeatType = RepeatType.FIRST_ENDING;
+    /**
+    * Adds a token to the open measure, or closes the measure if the token is a bar
+    * line, reporting its chords and bar line to the segmenter's listener. The token
+    * is given by its place in source, and every token added this way must come from
+    * the same source.
+    * @param source    The characters the token was read from
+    * @param type      The type of the token
+    * @param offset    The offset of the first character of the token in source
+    * @param length    The number of characters in the token
+    */
+    public void addToken(CharSequence source, TokenType type, int offset, int length) {
+
+      if (this.openMeasure == null) {
+        this.openMeasure = new TokenBuffer(source);
+      }
+
+      if (isBar(type)) {
+        checkBar(type, this.openMeasure.size());
+        parseMemoizedMeasure(this.openMeasure, 0, this.openMeasure.size(), this.context, this.listener);
+        boolean sectionEnd = length == 2 && source.charAt(offset) == '|' && source.charAt(offset + 1) == ']';
+        this.listener.barLine(closeMeasure(type, sectionEnd));
+        this.openMeasure.clear();
+      }
+      else if (!markEnding(type)) {
+        // otherwise, just add the token
+        this.openMeasure.add(type, offset, length);
+      }
+
+      this.openMeasureSize = this.openMeasure.size();
+    }
+
+    /**
+    * Adds a token like addToken, checking it for nested repeats on the way, but holds
+    * back any error until finishDeferred. The errors of a voice read in a single pass
+    * are then reported as they would be if all of its tokens had been checked for
+    * nested repeats before any measure was parsed. Once an error has been found, the
+    * later tokens are only checked for nesting.
+    */
+    public void addTokenDeferred(CharSequence source, TokenType type, int offset, int length) {
+      if (checkNestingDeferred(type)) {
+        try {
+          addToken(source, type, offset, length);
+        } catch (IllegalArgumentException e) {
+          this.tokenError = e;
+          listenerStopped = true;
         }
-        else if (token.getType() == TokenType.SECOND_ENDING) {
-          repeatType = RepeatType.SECOND_ENDING;
-        } else {
-          // otherwise, just add the token
-          measureTokens.add(token);
+      }
+    }
+
+    /**
+    * Adds a token like addTokenDeferred, copying its text as addToken does
+    */
+    public void addTokenDeferred(Token token) {
+      if (checkNestingDeferred(token.getType())) {
+        try {
+          addToken(token);
+        } catch (IllegalArgumentException e) {
+          this.tokenError = e;
+          listenerStopped = true;
+        }
+      }
+    }
+
+    /**
+    * Checks a token for nested repeats, holding back the error
+    * @return true if no error has been found, so the token is to be added
+    */
+    private boolean checkNestingDeferred(TokenType type) {
+      if (this.nestingError == null) {
+        try {
+          checkNesting(type);
+        } catch (IllegalArgumentException e) {
+          this.nestingError = e;
+          listenerStopped = true;
         }
       }
+      return this.nestingError == null && this.tokenError == null;
+    }
 
+    /**
+    * Throws the first error held back by addTokenDeferred, if there was one, and
+    * otherwise finishes the voice
+    * @return A warning listing the measures of nonstandard length, or null if there are none
+    */
+    public String finishDeferred() {
+      if (this.nestingError != null) {
+        throw this.nestingError;
+      }
+      if (this.tokenError != null) {
+        throw this.tokenError;
+      }
+      return finish();
     }
 
-    // if the last measure doesn't have a
-    // closing bar then throw an exception
-    if (measureTokens.size() > 0) {
-      throwParserException("Voice \'" + "\' missing closing bar at the end of the piece");
+    /**
+    * Throws an exception if a bar line of type would close an empty measure
+    */
+    private void checkBar(TokenType type, int measureSize) {
+      if (measureSize < 1 && type != TokenType.BAR_BEGIN_REPEAT) {
+        throwParserBodyException(this.context, "Bar line produces empty measure");
+      }
     }
 
-    // display a warning if there is a measure whose length
-    // doesn't match the time signature
-    List<Integer> nonstandardLengthMeasures = new ArrayList<Integer>();
-    for (int i = 0; i < voice.getMeasures().size(); i++) {
-      Measure measure = voice.getMeasures().get(i);
-      double totalLength = 0;
-      for (Chord chord : measure.getChords()) {
-        totalLength += chord.getLength().compute() * this.piece.getDefaultNoteLength().compute();
+    /**
+    * Closes the open measure at a bar line of type, and resets the repeat type
+    * for the next measure
+    * @return The repeat type of the measure, gathered while it was open
+    */
+    private RepeatType closeMeasure(TokenType type, boolean sectionEnd) {
+
+      // END differs from SECTION_END in that END causes a repeat to occur
+      // whereas SECTION_END can be the place that a repeat backtracks to
+      if (type == TokenType.BAR_END_REPEAT && this.repeatType != RepeatType.FIRST_ENDING) {
+        this.repeatType = RepeatType.END;
       }
-      // allow a threshold for rounding errors
-      if (Math.abs(totalLength - this.piece.getTimeSignature().compute()) > 0.01) {
-        nonstandardLengthMeasures.add(i);
+      if (sectionEnd) {
+        this.repeatType = RepeatType.SECTION_END;
       }
+
+      RepeatType measureRepeatType = this.repeatType;
+      this.context.measureNumber += 1;
+
+      if (type == TokenType.BAR_BEGIN_REPEAT) {
+        this.repeatType = RepeatType.BEGIN;
+      }
+      else {
+        this.repeatType = RepeatType.NONE;
+      }
+      return measureRepeatType;
     }
-    if (nonstandardLengthMeasures.size() > 0) {
-      System.out.println("Warning in voice \'" + voice.getName() +"\': the following measures have nonstandard length: " + nonstandardLengthMeasures);
+
+    /**
+    * Records the repeat type of the open measure if type is an ending marker
+    * @return true if type was an ending marker, which is not part of the measure
+    */
+    private boolean markEnding(TokenType type) {
+      if (type == TokenType.FIRST_ENDING) {
+        if (this.repeatType != RepeatType.NONE)
+        throwParserException("Found invalid first ending in measure " + this.context.measureNumber);
+        this.repeatType = RepeatType.FIRST_ENDING;
+        return true;
+      }
+      else if (type == TokenType.SECOND_ENDING) {
+        this.repeatType = RepeatType.SECOND_ENDING;
+        return true;
+      }
+      return false;
     }
 
+    /**
+    * Checks that the voice ended with a bar line and looks for measures
+    * whose length doesn't match the time signature
+    * @return A warning listing those measures, or null if there are none
+    */
+    public String finish() {
+
+      checkClosed();
+
+      // display a warning if there is a measure whose length
+      // doesn't match the time signature
+      if (this.listener != null) {
+        return nonstandardLengthWarning(this.voice, this.listener.getNonstandardLengthMeasures());
+      }
+      List<Integer> nonstandardLengthMeasures = new ArrayList<Integer>();
+      for (int i = 0; i < this.voice.getMeasures().size(); i++) {
+        if (hasNonstandardLength(this.voice.getMeasures().get(i))) {
+          nonstandardLengthMeasures.add(i);
+        }
+      }
+      return nonstandardLengthWarning(this.voice, nonstandardLengthMeasures);
+
+    }
+
+    /**
+    * Throws an exception if the last measure of the voice doesn't have a closing bar
+    */
+    private void checkClosed() {
+      if (this.openMeasureSize > 0) {
+        throwParserException("Voice \'" + "\' missing closing bar at the end of the piece");
+      }
+    }
+
+  }
+
+  /**
+  * Returns true if the length of measure doesn't match the time signature
+  */
+  private boolean hasNonstandardLength(Measure measure) {
+    return isNonstandardLength(measure.getDuration());
+  }
+
+  /**
+  * Returns true if a measure of the passed length, in default note lengths, doesn't
+  * match the time signature. The lengths are exact, so no threshold is needed.
+  */
+  private boolean isNonstandardLength(Duration length) {
+    Meter defaultNoteLength = this.piece.getDefaultNoteLength();
+    Meter timeSignature = this.piece.getTimeSignature();
+    if (defaultNoteLength.getDenominator() == 0 || timeSignature.getDenominator() == 0) {
+      return true;
+    }
+    return !length.multiply(Duration.of(defaultNoteLength)).equals(Duration.of(timeSignature));
+  }
+
+  /**
+  * Produces the warning for the measures of a voice whose length doesn't match the time signature
+  * @return The warning, or null if there are no such measures
+  */
+  private static String nonstandardLengthWarning(Voice voice, List<Integer> nonstandardLengthMeasures) {
+    if (nonstandardLengthMeasures != null && nonstandardLengthMeasures.size() > 0) {
+      return "Warning in voice \'" + voice.getName() +"\': the following measures have nonstandard length: " + nonstandardLengthMeasures;
+    }
+    return null;
+  }
+
+  /**
+  * A length checking listener passes the events of a voice on to another listener,
+  * adding up the length of each measure on the way, so that the measures whose length
+  * doesn't match the time signature can be found without keeping the measures. The
+  * measures found are either listed for a single warning at the end of the voice, or
+  * each given a warning of its own as soon as it is found. Once the parser has found
+  * an error the events are dropped.
+  */
+  private class LengthCheckingListener implements ParseListener {
+
+    private final ParseListener listener;
+    private final Voice voice;
+    // the measures of nonstandard length, or null if each is printed as it is found
+    private final List<Integer> nonstandardLengthMeasures;
+    private int measureIndex = 0;
+    private Duration measureLength = Duration.ZERO;
+    private Duration chordLength = Duration.ZERO;
+
+    public LengthCheckingListener(ParseListener listener, Voice voice, boolean collectingWarnings) {
+      this.listener = listener;
+      this.voice = voice;
+      this.nonstandardLengthMeasures = collectingWarnings ? new ArrayList<Integer>() : null;
+    }
+
+    /**
+    * Returns the measures of nonstandard length found so far, or null if each was warned about as it was found
+    */
+    public List<Integer> getNonstandardLengthMeasures() {
+      return this.nonstandardLengthMeasures;
+    }
+
+    public void header(Piece header) {
+      if (!listenerStopped) {
+        this.listener.header(header);
+      }
+    }
+
+    public void voiceStart(String name) {
+      if (!listenerStopped) {
+        this.listener.voiceStart(name);
+      }
+    }
+
+    public void chordStart() {
+      if (listenerStopped) {
+        return;
+      }
+      this.chordLength = Duration.ZERO;
+      this.listener.chordStart();
+    }
+
+    public void note(char pitch, int octave, int accidental, int numerator, int denominator) {
+      if (listenerStopped) {
+        return;
+      }
+      // a chord is as long as its longest note
+      this.chordLength = this.chordLength.max(Duration.of(numerator, denominator));
+      this.listener.note(pitch, octave, accidental, numerator, denominator);
+    }
+
+    public void chordEnd() {
+      if (listenerStopped) {
+        return;
+      }
+      this.measureLength = this.measureLength.add(this.chordLength);
+      this.listener.chordEnd();
+    }
+
+    public void barLine(RepeatType repeatType) {
+      if (listenerStopped) {
+        return;
+      }
+      if (isNonstandardLength(this.measureLength)) {
+        if (this.nonstandardLengthMeasures == null) {
+          warn(nonstandardLengthWarning(this.voice, Collections.singletonList(this.measureIndex)));
+        }
+        else {
+          this.nonstandardLengthMeasures.add(this.measureIndex);
+        }
+      }
+      this.measureIndex++;
+      this.measureLength = Duration.ZERO;
+      this.listener.barLine(repeatType);
+    }
   }
 
   /**
@@ -631,25 +1703,581 @@ public class Parser {
   */
   public Piece parse() {
 
-    List<Token> tokens = lexer.generateTokens();
+    TokenBuffer tokens = lexer.generateTokenBuffer();
+    this.measureMemo = this.memoizingMeasures ? new MeasureMemo() : null;
+    this.warnings.clear();
 
     // parse the headers and merge the voices into voiceMap
-    tokens = parseHeaders(tokens);
-    Map<String, List<Token>> voiceMap = mergeVoices(tokens);
-
-    // parse each voice
-    for (String voiceName : voiceMap.keySet()) {
-      for (Voice voice : this.piece.getVoices()) {
-        if (voice.getName().equals(voiceName)) {
-          this.currentVoiceName = voice.getName();
-          List<Token> voiceTokens = voiceMap.get(voice.getName());
-          this.parseVoice(voice, voiceTokens);
-          break;
+    int bodyStart = parseHeaders(tokens);
+    Map<String, TokenBuffer> voiceMap = mergeVoices(tokens, bodyStart);
+    this.tokens = tokens;
+    this.bodyStart = bodyStart;
+
+    // parse the voices at the same time, giving the tokens for each name to the
+    // first voice declared with it
+    List<VoiceTask> tasks = new ArrayList<VoiceTask>();
+    for (Voice voice : this.piece.getVoices()) {
+      TokenBuffer voiceTokens = voiceMap.remove(voice.getName());
+      if (voiceTokens != null) {
+        tasks.add(new VoiceTask(voice, voiceTokens));
+      }
+    }
+    for (int i = 1; i < tasks.size(); i++) {
+      this.pool.execute(tasks.get(i));
+    }
+    tasks.get(0).invoke();
+    for (VoiceTask task : tasks) {
+      task.join();
+    }
+
+    // report in declared order, so the warnings and the first error are the same on every run
+    TickResolution tickResolution = new TickResolution();
+    for (VoiceTask task : tasks) {
+      task.report();
+      tickResolution.addAll(task.tickResolution);
+    }
+    this.piece.setTickResolution(tickResolution);
+
+    return this.piece;
+
+  }
+
+  /**
+  * reparse
+  * Brings the piece produced by parse up to date with an edit to the source, parsing
+  * only the measures the edit may have changed. The source is re-lexed in place with
+  * Lexer.relex, and the measures of the voice holding the changed tokens are split
+  * again from the bar line before them to the first bar line after them, where the
+  * old and new tokens line up again; only those measures are parsed and spliced into
+  * the voice, and only their length is checked. The bar lines are found through an
+  * index of the voice switches and bar lines of the body, which is built by the first
+  * reparse and follows the edits after it. If the edit changed the header or a voice
+  * switch, the whole source is parsed again. If the edited source does not parse,
+  * the exception parse would throw is thrown and the piece and source are left as
+  * they were. Edits are made one after another, each against the source as the
+  * previous edit left it.
+  * @param offset        The offset in the source where the edit begins
+  * @param removedLength The number of characters the edit removed
+  * @param insertedText  The text the edit inserted in their place
+  * @return              The piece and the measures of each voice that changed
+  */
+  public PiecePatch reparse(int offset, int removedLength, String insertedText) {
+
+    if (this.tokens == null) {
+      throw new IllegalStateException("Cannot reparse before the piece has been parsed");
+    }
+    this.warnings.clear();
+
+    // the bar lines after the edit move with the text, like the tokens
+    int[] barsBeforeEdit = null;
+    if (indexBody()) {
+      this.voiceSwitches.prepareEdit(offset);
+      barsBeforeEdit = new int[this.voiceBars.length];
+      for (int i = 0; i < this.voiceBars.length; i++) {
+        barsBeforeEdit[i] = this.voiceBars[i].prepareEdit(offset);
+      }
+    }
+
+    // the tokens are re-lexed in place, so they are put back if the edit does not parse
+    TokenPatch tokenPatch = Lexer.relex(this.tokens, offset, removedLength, insertedText);
+    try {
+      return reparse(tokenPatch, offset, barsBeforeEdit);
+    } catch (RuntimeException e) {
+      Lexer.relex(tokenPatch.getTokens(), offset, insertedText.length(), tokenPatch.getRemovedText());
+      throw e;
+    }
+
+  }
+
+  /**
+  * reparse
+  * Brings the piece up to date with tokens re-lexed after an edit
+  * @param tokenPatch        The tokens of the edited source and the run of them that changed
+  * @param offset            The offset in the source where the edit begins
+  * @param barsBeforeEdit    The number of bar lines of each voice before the edit, or
+  *                          null if the body could not be indexed
+  * @return                  The piece and the measures of each voice that changed
+  */
+  private PiecePatch reparse(TokenPatch tokenPatch, int offset, int[] barsBeforeEdit) {
+
+    TokenBuffer tokens = tokenPatch.getTokens();
+    int first = tokenPatch.getFirstChangedToken();
+    int insertedEnd = first + tokenPatch.getInsertedTokenCount();
+
+    // a change to the header or to where the voices switch can change every measure
+    if (barsBeforeEdit == null || first < this.bodyStart || removesStructure(tokenPatch)
+    || changesStructure(tokens, first, insertedEnd)) {
+      return reparseAll(tokens);
+    }
+
+    int runStart = (first < tokens.size()) ? tokens.getOffset(first) : Integer.MAX_VALUE;
+    int runEnd = (insertedEnd < tokens.size()) ? tokens.getOffset(insertedEnd) : Integer.MAX_VALUE;
+
+    // the changed tokens are in the voice of the last switch before them
+    int voiceIndex = 0;
+    if (this.voicesDeclared) {
+      int switchIndex = this.voiceSwitches.firstTokenStartingAfter(Math.min(runStart, offset) - 1) - 1;
+      if (switchIndex < 0) {
+        // tokens before the first voice, which parse reports
+        return reparseAll(tokens);
+      }
+      voiceIndex = voiceIndex(this.voiceSwitches.getToken(switchIndex));
+    }
+    Voice voice = this.piece.getVoices().get(voiceIndex);
+    TokenBuffer bars = this.voiceBars[voiceIndex];
+
+    // the measures closed before the changed tokens are unchanged, and so are the
+    // measures after the first bar line after them, repeat type included, since that
+    // depends only on the measure and the bar line before it. the bar lines after the
+    // edit have moved with it, and the ones it removed are somewhere before runEnd
+    int firstMeasure = 0;
+    int high = barsBeforeEdit[voiceIndex];
+    while (firstMeasure < high) {
+      int middle = (firstMeasure + high) >>> 1;
+      if (bars.getOffset(middle) < runStart) {
+        firstMeasure = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    int lastBar = bars.firstTokenStartingAfter(runEnd - 1);
+    int removedEnd = Math.min(lastBar + 1, bars.size());
+
+    // start after the bar line of the last unchanged measure, or at the voice's first token
+    int restart;
+    boolean afterBeginRepeat = false;
+    if (firstMeasure > 0) {
+      restart = tokens.firstTokenStartingAfter(bars.getOffset(firstMeasure - 1));
+      afterBeginRepeat = bars.getType(firstMeasure - 1) == TokenType.BAR_BEGIN_REPEAT;
+    }
+    else {
+      restart = this.bodyStart;
+      if (this.voicesDeclared) {
+        int switchIndex = 0;
+        while (voiceIndex(this.voiceSwitches.getToken(switchIndex)) != voiceIndex) {
+          switchIndex++;
+        }
+        restart = tokens.firstTokenStartingAfter(this.voiceSwitches.getOffset(switchIndex));
+      }
+    }
+
+    // gather the tokens of the voice up to the bar line where the tokens line up again
+    TokenBuffer voiceTokens = new TokenBuffer(tokens.getSource());
+    TokenBuffer voiceBarLines = new TokenBuffer(tokens.getSource());
+    boolean inVoice = true;
+    for (int i = restart; i < tokens.size(); i++) {
+      TokenType type = tokens.getType(i);
+      int tokenOffset = tokens.getOffset(i);
+      if (this.voicesDeclared && type == TokenType.VOICE) {
+        inVoice = voiceIndex(tokens.getToken(i)) == voiceIndex;
+      }
+      else if (inVoice) {
+        voiceTokens.add(type, tokenOffset, tokens.getLength(i));
+        if (isBar(type)) {
+          voiceBarLines.add(type, tokenOffset, tokens.getLength(i));
+          if (tokenOffset >= runEnd) {
+            break;
+          }
         }
       }
     }
 
+    VoiceSegmenter segmenter = new VoiceSegmenter(voice);
+    segmenter.patchTokens(voiceTokens, firstMeasure, afterBeginRepeat);
+
+    int voiceCount = this.piece.getVoices().size();
+    int[] firstChangedMeasures = new int[voiceCount];
+    int[] removedMeasureCounts = new int[voiceCount];
+    int[] insertedMeasureCounts = new int[voiceCount];
+    firstChangedMeasures[voiceIndex] = firstMeasure;
+    insertedMeasureCounts[voiceIndex] = voiceBarLines.size();
+    removedMeasureCounts[voiceIndex] = segmenter.applyPatch(removedEnd);
+    bars.replace(firstMeasure, removedEnd, voiceBarLines, 0);
+    warn(segmenter.patchWarning);
+
+    return new PiecePatch(this.piece, false, firstChangedMeasures, removedMeasureCounts, insertedMeasureCounts);
+
+  }
+
+  /**
+  * indexBody
+  * Lists the voice switches of the body of the tokens and the bar lines of each
+  * voice, over their source made editable, unless they have been listed already
+  * @return false if the bar lines don't match the measures of the voices, when the
+  *         piece has been changed since it was parsed
+  */
+  private boolean indexBody() {
+
+    if (this.indexedTokens == this.tokens) {
+      return this.voiceBars != null;
+    }
+    this.indexedTokens = this.tokens;
+    this.voiceBars = null;
+
+    TokenBuffer tokens = this.tokens;
+    tokens.makeEditable();
+    CharSequence source = tokens.getSource();
+    List<Voice> voices = this.piece.getVoices();
+
+    boolean voicesDeclared = false;
+    for (int i = 0; i < this.bodyStart; i++) {
+      if (tokens.getType(i) == TokenType.VOICE) {
+        voicesDeclared = true;
+      }
+    }
+    TokenBuffer switches = new TokenBuffer(source);
+    TokenBuffer[] bars = new TokenBuffer[voices.size()];
+    for (int i = 0; i < bars.length; i++) {
+      bars[i] = new TokenBuffer(source);
+    }
+
+    int current = voicesDeclared ? -1 : 0;
+    for (int i = this.bodyStart; i < tokens.size(); i++) {
+      TokenType type = tokens.getType(i);
+      if (voicesDeclared && type == TokenType.VOICE) {
+        switches.add(type, tokens.getOffset(i), tokens.getLength(i));
+        current = voiceIndex(tokens.getToken(i));
+      }
+      else if (isBar(type) && current >= 0) {
+        bars[current].add(type, tokens.getOffset(i), tokens.getLength(i));
+      }
+    }
+
+    for (int i = 0; i < bars.length; i++) {
+      if (bars[i].size() != voices.get(i).getMeasures().size()) {
+        return false;
+      }
+    }
+    this.voicesDeclared = voicesDeclared;
+    this.voiceSwitches = switches;
+    this.voiceBars = bars;
+    return true;
+
+  }
+
+  /**
+  * Returns the index in the piece of the first voice with the name a voice switch
+  * gives, which is the voice its tokens go to, or -1 if there is none
+  */
+  private int voiceIndex(Token voiceSwitch) {
+    String name = getHeaderValue(voiceSwitch, false);
+    List<Voice> voices = this.piece.getVoices();
+    for (int i = 0; i < voices.size(); i++) {
+      if (voices.get(i).getName().equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+  * Returns true if a token of type closes a measure
+  */
+  private static boolean isBar(TokenType type) {
+    return type == TokenType.BAR || type == TokenType.BAR_BEGIN_REPEAT || type == TokenType.BAR_END_REPEAT;
+  }
+
+  /**
+  * Returns true if the tokens an edit removed held a header or a voice switch
+  */
+  private static boolean removesStructure(TokenPatch tokenPatch) {
+    for (int i = 0; i < tokenPatch.getRemovedTokenCount(); i++) {
+      if (tokenPatch.getRemovedType(i) == TokenType.HEADER_FIELD || tokenPatch.getRemovedType(i) == TokenType.VOICE) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+  * Returns true if a run of tokens holds a header or a voice switch
+  */
+  private static boolean changesStructure(TokenBuffer tokens, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (tokens.getType(i) == TokenType.HEADER_FIELD || tokens.getType(i) == TokenType.VOICE) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+  * reparseAll
+  * Parses an edited source from scratch and moves the result into the piece,
+  * reporting every measure as changed
+  * @param tokens    The tokens of the edited source
+  * @return          The piece and its measures, all of which changed
+  */
+  private PiecePatch reparseAll(TokenBuffer tokens) {
+
+    Parser parser = new Parser(new Lexer(tokens.getSource()), this.pool);
+    parser.setMeasureTable(this.measureTable);
+    parser.setMemoizingMeasures(this.memoizingMeasures);
+    Piece reparsed = parser.parse();
+    this.warnings.addAll(parser.warnings);
+
+    List<Voice> previousVoices = this.piece.getVoices();
+    int voiceCount = reparsed.getVoices().size();
+    int[] firstChangedMeasures = new int[voiceCount];
+    int[] removedMeasureCounts = new int[voiceCount];
+    int[] insertedMeasureCounts = new int[voiceCount];
+    for (int i = 0; i < voiceCount; i++) {
+      removedMeasureCounts[i] = (i < previousVoices.size()) ? previousVoices.get(i).getMeasures().size() : 0;
+      insertedMeasureCounts[i] = reparsed.getVoices().get(i).getMeasures().size();
+    }
+
+    this.piece.setIndex(reparsed.getIndex());
+    this.piece.setTitle(reparsed.getTitle());
+    this.piece.setComposer(reparsed.getComposer());
+    this.piece.setTimeSignature(reparsed.getTimeSignature());
+    this.piece.setDefaultNoteLengthsPerMinute(reparsed.getDefaultNoteLengthsPerMinute());
+    this.piece.setDefaultNoteLength(reparsed.getDefaultNoteLength());
+    this.piece.setKeySignature(reparsed.getKeySignature());
+    this.piece.setTickResolution(reparsed.getTickResolution());
+    previousVoices.clear();
+    previousVoices.addAll(reparsed.getVoices());
+    this.tokens = parser.tokens;
+    this.bodyStart = parser.bodyStart;
+    // the memo was made for the old header
+    this.measureMemo = parser.measureMemo;
+
+    return new PiecePatch(this.piece, true, firstChangedMeasures, removedMeasureCounts, insertedMeasureCounts);
+
+  }
+
+  /**
+  * parseStream
+  * Parses the entire abc file into a Piece object like parse, but pulls tokens
+  * from the Lexer's token stream one at a time instead of generating the whole
+  * token list first. Body tokens are routed to their voice as they arrive and each
+  * measure is parsed as soon as its bar line is reached, so only the tokens of
+  * the open measure of each voice are held in memory.
+  * @return The piece produced by parsing the tokens streamed from the Lexer passed in the constructor
+  */
+  public Piece parseStream() {
+
+    TokenStream tokens = this.lexer.tokenStream();
+    this.measureMemo = this.memoizingMeasures ? new MeasureMemo() : null;
+    this.warnings.clear();
+
+    parseHeaders(tokens);
+
+    // if the piece did not declare voices in its header, create a single voice
+    // for the entire body, as mergeVoices does
+    boolean voicesDeclared = this.piece.getVoices().size() > 0;
+    if (!voicesDeclared) {
+      Voice voice = new Voice();
+      voice.setName("1");
+      this.piece.addVoice(voice);
+    }
+
+    PieceBuilder builder = new PieceBuilder(this.measureTable);
+    builder.header(this.piece);
+    if (!voicesDeclared) {
+      builder.voiceStart("1");
+    }
+
+    Map<String, VoiceSegmenter> segmenters = new LinkedHashMap<String, VoiceSegmenter>();
+    for (Voice voice : this.piece.getVoices()) {
+      if (!segmenters.containsKey(voice.getName())) {
+        segmenters.put(voice.getName(), new VoiceSegmenter(voice, builder, true));
+      }
+    }
+
+    VoiceSegmenter segmenter = voicesDeclared ? null : segmenters.get("1");
+    while (tokens.hasNext()) {
+      Token token = tokens.next();
+      if (token.getType() == TokenType.HEADER_FIELD) {
+        throwParserException("Stray header found in body \'" + token.getString() +"\'");
+      }
+      if (voicesDeclared && token.getType() == TokenType.VOICE) {
+        String voiceName = getHeaderValue(token, false);
+        segmenter = segmenters.get(voiceName);
+        if (segmenter == null) {
+          throwParserException("Found voice \'" + voiceName + "\' in body that was not declared in header");
+        }
+        builder.voiceStart(voiceName);
+        continue;
+      }
+      if (segmenter == null) {
+        // the first token in the body must be a voice
+        throwParserBodyException("Header declared voices but body does not begin with a voice");
+      }
+      segmenter.checkNesting(token.getType());
+      segmenter.addToken(token);
+    }
+
+    for (VoiceSegmenter voiceSegmenter : segmenters.values()) {
+      warn(voiceSegmenter.finish());
+    }
+
+    return this.piece;
+
+  }
+
+  /**
+  * parseSinglePass
+  * Parses the entire abc file into a Piece object like parse, but in a single pass
+  * over the characters. Tokens are scanned without creating Token objects and routed
+  * straight to their voice, where each measure is parsed as soon as its bar line is
+  * reached, directly from the characters of the input. The input of a lexer created
+  * over a reader is read through a window, as parseStream reads it. The piece, the
+  * warnings and the errors are the same as those of parse: errors are held back until
+  * the input has been scanned to the end, so that they take the same precedence as
+  * when the input is lexed and split into voices before any voice is parsed.
+  * @return The piece produced by parsing the input of the Lexer passed in the constructor
+  */
+  public Piece parseSinglePass() {
+    parse(new PieceBuilder(this.measureTable), true);
     return this.piece;
+  }
+
+  /**
+  * parse
+  * Parses the entire abc file in a single pass like parseSinglePass, but reports the
+  * header and each measure to listener as it is read instead of building a Piece.
+  * Only the tokens of the open measure of each voice are kept, and the input of a
+  * lexer created over a reader is read through a window, so the memory used does
+  * not grow with the length of the body. A warning is given for each measure of
+  * nonstandard length as soon as it is read. The errors are those of parseSinglePass.
+  * They are thrown once the whole input has been scanned, so that the error reported
+  * is the one parse would report, but listener is sent no more events once the
+  * first error is found; only the measure being read then may have been sent in part.
+  * @param listener  The listener to report the piece to
+  */
+  public void parse(ParseListener listener) {
+    parse(listener, false);
+  }
+
+  /**
+  * parse
+  * Parses the input in a single pass, reporting it to listener
+  * @param listener            The listener to report the piece to
+  * @param collectingWarnings  true to print one warning for each voice at the end,
+  *                            listing its measures of nonstandard length, as parse does
+  */
+  private void parse(ParseListener listener, boolean collectingWarnings) {
+
+    TokenStream tokens = this.lexer.tokenStream();
+    this.measureMemo = this.memoizingMeasures ? new MeasureMemo() : null;
+    this.warnings.clear();
+    this.listenerStopped = false;
+
+    Collection<VoiceSegmenter> segmenters = null;
+    IllegalArgumentException error = null;
+    try {
+      parseHeaders(tokens);
+      segmenters = parseBodySinglePass(tokens, listener, collectingWarnings);
+    } catch (IllegalArgumentException e) {
+      error = e;
+      this.listenerStopped = true;
+      // illegal characters anywhere in the input are reported ahead of any other error
+      tokens.skipRemaining();
+    }
+    tokens.checkInvalidCharacters();
+    if (error != null) {
+      throw error;
+    }
+
+    // report in declared order, as parse does
+    for (VoiceSegmenter segmenter : segmenters) {
+      warn(segmenter.finishDeferred());
+    }
+
+  }
+
+  /**
+  * parseBodySinglePass
+  * Routes the body tokens left in a stream to a segmenter for each voice, which
+  * reports its measures to listener. Stray headers are thrown at once, problems with
+  * the voices once the whole body has been checked for stray headers, and errors in
+  * a voice when it is finished.
+  * @param tokens              The stream, positioned after the key signature header
+  * @param listener            The listener to report the header and the measures to
+  * @param collectingWarnings  Passed on to the segmenters
+  * @return                    The segmenters of the voices, in declared order
+  */
+  private Collection<VoiceSegmenter> parseBodySinglePass(TokenStream tokens, ParseListener listener, boolean collectingWarnings) {
+
+    // the source is null when the stream reads from a reader
+    CharSequence source = tokens.getSource();
+
+    // if the piece did not declare voices in its header, create a single voice
+    // for the entire body, as mergeVoices does
+    boolean voicesDeclared = this.piece.getVoices().size() > 0;
+    if (!voicesDeclared) {
+      Voice voice = new Voice();
+      voice.setName("1");
+      this.piece.addVoice(voice);
+    }
+
+    // nothing is sent once the input is known to hold an illegal character
+    this.listenerStopped = tokens.hasInvalidCharacters();
+    if (!this.listenerStopped) {
+      listener.header(this.piece);
+      if (!voicesDeclared) {
+        listener.voiceStart("1");
+      }
+    }
+
+    Map<String, VoiceSegmenter> segmenters = new LinkedHashMap<String, VoiceSegmenter>();
+    for (Voice voice : this.piece.getVoices()) {
+      if (!segmenters.containsKey(voice.getName())) {
+        segmenters.put(voice.getName(), new VoiceSegmenter(voice, listener, collectingWarnings));
+      }
+    }
+
+    // once a voice problem is found the tokens are only checked for stray headers
+    VoiceSegmenter segmenter = voicesDeclared ? null : segmenters.get("1");
+    boolean missingVoice = false;
+    String undeclaredVoice = null;
+    TokenType type;
+    while ((type = tokens.nextType()) != null) {
+      int start = tokens.getTokenStart();
+      int end = tokens.getTokenEnd();
+      if (type == TokenType.HEADER_FIELD) {
+        throwParserException("Stray header found in body \'" + tokens.getTokenText() +"\'");
+      }
+      if (tokens.hasInvalidCharacters()) {
+        this.listenerStopped = true;
+      }
+      if (missingVoice || undeclaredVoice != null) {
+        continue;
+      }
+      if (voicesDeclared && type == TokenType.VOICE) {
+        String voiceName = getHeaderValue(new Token(type, tokens.getTokenText()), false);
+        segmenter = segmenters.get(voiceName);
+        if (segmenter == null) {
+          undeclaredVoice = voiceName;
+          this.listenerStopped = true;
+        }
+        else if (!this.listenerStopped) {
+          listener.voiceStart(voiceName);
+        }
+      }
+      else if (segmenter == null) {
+        // the first token in the body must be a voice
+        missingVoice = true;
+        this.listenerStopped = true;
+      }
+      else if (source == null) {
+        // the window of a reader moves on, so the text of the token is copied
+        segmenter.addTokenDeferred(new Token(type, tokens.getTokenText()));
+      }
+      else {
+        segmenter.addTokenDeferred(source, type, start, end - start);
+      }
+    }
+
+    if (missingVoice || (segmenter == null && undeclaredVoice == null)) {
+      throwParserBodyException("Header declared voices but body does not begin with a voice");
+    }
+    if (undeclaredVoice != null) {
+      throwParserException("Found voice \'" + undeclaredVoice + "\' in body that was not declared in header");
+    }
+
+    return segmenters.values();
 
   }
 
@@ -658,15 +2286,23 @@ public class Parser {
   }
 
   public void throwParserBodyException(String errorString, String dataString) {
+    throwParserBodyException(NO_CONTEXT, errorString, dataString);
+  }
+
+  public void throwParserBodyException(String errorString) {
+    throwParserBodyException(NO_CONTEXT, errorString, "");
+  }
+
+  private void throwParserBodyException(BodyContext context, String errorString) {
+    throwParserBodyException(context, errorString, "");
+  }
+
+  private void throwParserBodyException(BodyContext context, String errorString, String dataString) {
     StringBuilder message = new StringBuilder("");
-    message.append("Error parsing file in voice \'" + this.currentVoiceName + "\' at measure " + this.currentMeasureNumber + "\n" + "Description: " + errorString);
+    message.append("Error parsing file in voice \'" + context.voiceName + "\' at measure " + context.measureNumber + "\n" + "Description: " + errorString);
     if (!dataString.equals(""))
     message.append("\n" + dataString);
     throw new IllegalArgumentException(message.toString());
   }
 
-  public void throwParserBodyException(String errorString) {
-    throwParserBodyException(errorString, "");
-  }
-
 }
@@ -1,10 +1,14 @@
 package interpreter;
 
 import interpreter.Token.TokenType;
+import interpreter.Measure.RepeatType;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -2088,4 +2092,428 @@ public class ParserTest {
     "G,1/1 D,1/1 D,1/1 D,1/1 | G,1/1 D,1/1 D,1/1 D,6/7 | G,1/7 G1/7 D1/7 B,3/14 ^F1/7 A,3/14 D,1/7 G1/7 B,5/14 ^F1/7 A,3/14 D,1/7 G1/7 B,5/7 D,1/7 ^F1/7 A,5/7 | G,1/7 A1/7 D1/7 C4/7 D,1/7 G1/4 B1/4 d1/4 g1/4 b1/7 D,1/7 g1/7 d4/7 D,6/7 | G,1/7 c'1/7 g1/7 e3/14 b1/7 d3/14 D,1/7 c'1/7 e5/14 b1/7 d3/14 D,1/7 a1/7 c5/14 g1/7 B3/14 D,1/7 d1/7 B5/14 B1/7 G3/14 | A,1/7 G1/7 _E1/7 C5/7 A,5/7 g2/7 ^f1/7 D,1/7 d1/7 c4/7 D,6/7 | ^F,1/7 e1/7 c1/7 A3/14 E5/14 ^F,1/7 E1/7 C1/7 A,3/14 E3/14 ^F2/7 E1/7 D,1/7 ^C1/7 ^A1/7 G,2/7 G,1/7 D1/7 B,5/7 | ^F,1/7 e1/7 c1/7 A,3/14 E5/14 A,1/7 E1/7 C5/14 E3/14 ^F2/7 E1/7 G,1/7 ^C1/7 B,3/7 G,1/7 D1/7 B,5/7 | C,1/7 g1/7 _e1/7 A,3/14 G5/14 C,1/7 G1/7 _E5/14 G1/7 _E3/14 ^C,1/7 G1/7 E1/7 A,3/14 ^F1/7 E3/14 ^C,1/7 A1/7 E5/14 G1/7 E3/14 | D,1/7 G1/7 C1/7 A,3/14 ^F5/14 D,1/7 E1/7 C1/7 ^F,3/14 D1/7 C3/14 D,1/7 c1/7 ^F1/7 A,5/7 A1/4 ^F1/4 C1/4 A,1/4 | G1/7 G,1/7 D3/14 ^F1/7 A,3/14 D,1/7 G1/7 B,5/14 ^F1/7 A,3/14 D,1/7 G1/7 B,5/7 D,1/7 ^F1/7 A,5/7 | G,1/7 A1/7 D1/7 C4/7 D,1/7 G1/4 B1/4 d1/4 g1/4 b1/7 D,1/7 g1/7 d4/7 D,6/7 | G,1/7 c'1/7 g1/7 e3/14 b1/7 d3/14 D,1/7 c'1/7 e5/14 b1/7 d3/14 D,1/7 a1/7 c5/14 g1/7 B3/14 D,1/7 d1/7 B5/14 B1/7 G3/14 | A,1/7 G1/7 _E1/7 C5/7 A,5/7 g2/7 ^f1/7 D,1/7 d1/7 c4/7 D,6/7 | ^F,1/7 e1/7 c1/7 A3/14 E5/14 ^F,1/7 E1/7 C1/7 A,3/14 E3/14 ^F2/7 E1/7 D,1/7 ^C1/7 ^A1/7 G,2/7 G,1/7 D1/7 B,5/7 | ^A,1/7 g1/7 e1/7 ^c3/14 G5/14 ^A,1/7 G1/7 E1/7 ^C3/14 G3/14 A2/7 G1/7 B,1/7 E1/7 ^C3/7 B,1/7 ^F1/7 D5/7 | ^C,1/7 b1/7 g1/7 e3/14 B5/14 ^C,1/7 B1/7 G1/7 E3/14 B1/7 G3/14 D,1/7 B1/7 ^G1/7 F3/14 A1/7 F3/14 D,1/7 B1/7 ^G1/7 F3/14 A1/7 F3/14 | E,1/7 d1/7 _B1/7 ^F3/14 ^c1/7 A3/14 E,1/7 d1/7 _B1/7 ^F3/14 ^c1/7 G3/14 D,1/7 e1/7 _B1/7 G3/14 d1/7 A3/14 D,1/7 e1/7 _B1/7 G3/14 d1/7 ^F3/14 | C1/7 e1/7 A1/7 ^F3/14 d1/7 A1/7 ^F3/14 e1/7 A1/7 ^F3/14 d1/7 A1/7 ^F3/14 e1/7 A1/7 ^F3/14 d1/7 A3/14 A,1/7 e1/7 c1/7 ^F3/14 d1/7 c3/14 | F,1/7 e1/7 c1/7 A3/14 d1/7 c3/14 ^F,1/7 e1/7 c1/7 A3/14 d1/7 c3/14 B,1/7 e1/7 c1/7 ^F3/14 d1/7 c1/7 ^F3/14 e1/7 c3/14 A,1/7 d1/7 c3/14 | A,1/7 e1/7 c1/7 ^F3/14 d1/7 c1/7 ^F3/14 e1/7 c1/7 ^F3/14 d1/7 c1/7 ^F3/14 e1/7 c1/7 ^F3/14 d1/7 c3/14 ^F,1/7 e1/7 c1/7 A3/14 d1/7 c3/14 | D,1/7 e1/7 c1/7 ^F3/14 d1/7 c3/14 E,1/7 e1/7 c1/7 G3/14 d1/7 G3/14 G,1/7 e1/7 c1/7 A3/14 d1/7 c1/7 A3/14 e1/7 c3/14 ^F,1/7 d1/7 A3/14 | ^F,1/7 e1/7 c1/7 A3/14 d1/7 c1/7 A3/14 E1/7 C1/7 A,3/14 D1/7 C1/7 A,3/14 E1/7 C1/7 A,3/14 D1/7 C3/14 D,1/7 E1/7 C1/7 A,3/14 D1/7 C3/14 | D,1/7 E1/7 C1/7 ^F,3/14 D1/7 C3/14 ^F,1/7 E1/7 C1/7 A,3/14 D1/7 C3/14 D,1/7 E1/7 C1/7 A,3/14 D1/7 C1/7 ^F,3/14 E1/7 C1/7 G3/14 ^F1/7 C3/14 | ^F,1/7 D1/7 C3/14 G,1/7 E1/7 C3/14 ^G,1/7 F1/7 C3/14 A,1/7 F1/7 C3/14 ^F,1/7 D1/7 C3/14 G,1/7 E1/7 C3/14 ^G,1/7 F1/7 C3/14 A,1/7 F1/7 C5/14 | A,1/4 G,1/4 ^F,1/4 E,1/4 D,1/4 C,1/4 B,1/4 A,1/4 A,1/4 G,1/4 ^F,1/4 E,1/4 D,1/4 C,1/4 B,1/4 A,1/4 | G1/7 G,1/7 D3/14 ^F1/7 A,3/14 D,1/7 G1/7 B,5/14 ^F1/7 A,3/14 D,1/7 G1/7 B,5/7 D,1/7 ^F1/7 A,5/7 | G,1/7 A1/7 D1/7 C4/7 D,1/7 G1/4 B1/4 d1/4 g1/4 b1/7 D,1/7 g1/7 d4/7 D,6/7 | G,1/7 c'1/7 g1/7 e3/14 b1/7 d3/14 D,1/7 c'1/7 e5/14 b1/7 d3/14 D,1/7 a1/7 c5/14 g1/7 B3/14 D,1/7 d1/7 B5/14 B1/7 G3/14 | A,1/7 G1/7 _E1/7 C5/7 A,5/7 g2/7 ^f1/7 D,1/7 d1/7 c4/7 D,6/7 | ^F,1/7 e1/7 c1/7 D,3/14 E5/14 ^F,1/7 E1/7 C1/7 A,3/14 E3/14 ^F2/7 E1/7 D,1/7 ^C1/7 ^A1/7 G,2/7 G,1/7 D1/7 B,5/7 | ^F,1/7 e1/7 c1/7 A,3/14 E5/14 A,1/7 E1/7 C5/14 E3/14 ^F2/7 E1/7 G,1/7 ^C1/7 B,3/7 G,1/7 D1/7 B,5/7 | C,1/7 g1/7 _e1/7 A,3/14 G5/14 C,1/7 G1/7 _E5/14 G1/7 _E3/14 ^C,1/7 G1/7 E1/7 A,3/14 ^F1/7 E3/14 ^C,1/7 A1/7 E5/14 G1/7 E3/14 | D,1/7 G1/7 C1/7 A,3/14 ^F5/14 D,1/7 E1/7 C1/7 ^F,3/14 D1/7 C3/14 D,1/7 c1/7 ^F1/7 A,5/7 A1/4 ^F1/4 C1/4 A,1/4 | G1/7 G,1/7 D3/14 ^F1/7 A,3/14 D,1/7 G1/7 B,5/14 ^F1/7 A,3/14 D,1/7 G1/7 B,5/7 D,1/7 ^F1/7 A,5/7 | G,1/7 A1/7 D1/7 C4/7 D,1/7 G1/4 B1/4 d1/4 g1/4 b1/7 D,1/7 g1/7 d4/7 D,6/7 | G,1/7 c'1/7 g1/7 e3/14 b1/7 d3/14 D,1/7 c'1/7 e5/14 b1/7 d3/14 D,1/7 a1/7 c5/14 g1/7 B3/14 D,1/7 d1/7 B5/14 B1/7 G3/14 | A,1/7 G1/7 _E1/7 C5/7 A,5/7 g2/7 ^f1/7 D,1/7 d1/7 c4/7 D,6/7 | ^F,1/7 e1/7 c1/7 A3/14 E5/14 ^F,1/7 E1/7 C1/7 A,3/14 E3/14 ^F2/7 E1/7 D,1/7 ^C1/7 ^A1/7 G,2/7 G,1/7 D1/7 B,5/7 | A,1/7 e1/7 c5/14 E5/14 A,1/7 E1/7 C5/14 E3/14 ^F2/7 E1/7 G,1/7 ^C1/7 B,3/7 G,1/7 D1/7 B,5/7 | C,1/7 G1/7 _E3/14 C,1/7 _E1/4 G1/4 A1/4 G1/4 _e6/7 D,1/7 D1/4 ^F1/4 A1/4 ^F1/4 | d6/7 D,1/7 G1/4 B1/4 d1/4 G1/4 g1/1 G,1/2 G,5/14 | D,1/7 B,1/7 ^F,5/14 B,1/2 B,5/14 ^F,1/7 ^C1/7 ^A,3/14 D,1/7 D1/7 B,1/7 ^F,3/14 D1/7 B,5/14 D1/7 B,3/14 ^F,1/7 E1/7 ^C3/14 | D,1/7 ^F1/7 D1/7 B,3/14 ^F1/7 D5/14 ^F1/7 D3/14 ^F,1/7 G1/7 E3/14 D,1/7 ^F1/7 D1/7 B,3/14 ^F1/7 D5/14 ^F1/7 D3/14 ^F,1/7 E1/7 ^C3/14 | D,1/7 D1/7 B,1/7 ^F,3/14 D1/7 B,5/14 D1/7 B,3/14 ^F,1/7 E1/7 ^C3/14 D,1/7 D1/7 B,1/7 ^F,3/14 D1/7 B,5/14 D,1/7 B,3/14 ^F,1/7 ^C1/7 ^A,3/14 | D,1/7 B,1/7 ^F,5/14 B,1/2 B,5/14 ^F,1/7 ^C1/7 ^A,3/14 D,1/7 B,1/7 ^F,5/14 B,1/2 B,5/14 ^F,1/7 ^C1/7 ^A3/14 | D,1/7 B,1/7 ^F,5/14 B,1/2 B,5/14 ^F,1/7 ^C1/7 ^A,3/14 D,1/7 D1/7 B,1/7 ^F,3/14 D1/7 B,5/14 D1/7 B,3/14 ^F,1/7 E1/7 ^C3/14 | D,1/7 ^F1/7 D1/7 B,3/14 ^F1/7 D5/14 ^F1/7 D3/14 ^F,1/7 G1/7 E3/14 D,1/7 ^F1/7 D1/7 B,3/14 ^F1/7 D5/14 ^F1/7 D3/14 ^F,1/7 E1/7 ^C3/14 | D,1/7 D1/7 B,1/7 ^F,3/14 D1/7 B,5/14 D1/7 B,3/14 ^F,1/7 E1/7 ^C3/14 D,1/7 D1/7 B,1/7 ^F,3/14 D1/7 B,5/14 D,1/7 B,3/14 ^F,1/7 ^C1/7 ^A,3/14 | D,1/7 B,1/7 ^F,5/14 B,1/2 B,5/14 ^F,1/7 ^C1/7 ^A,3/14 D,1/7 B,1/7 ^F,5/14 D1/7 B,5/14 ^F1/7 D3/14 ^F,1/7 ^A1/7 ^C3/14 | D,1/7 B1/7 D1/7 ^F,3/14 B1/7 D5/14 B1/7 D3/14 ^F,1/7 ^c1/7 ^A3/14 D,1/7 d1/7 B1/7 ^F,3/14 d1/7 B5/14 d1/7 B3/14 ^F,1/7 e1/7 ^c3/14 | D,1/7 ^f1/7 d1/7 B,3/14 ^f1/7 d5/14 ^f1/7 d3/14 ^F,1/7 g1/7 e3/14 D,1/7 ^f1/7 d1/7 B,3/14 ^f1/7 d5/14 ^f1/7 d3/14 ^F,1/7 e1/7 ^c3/14 | D,1/7 d1/7 B1/7 ^F,3/14 d1/7 B5/14 d1/7 B3/14 ^F,1/7 e1/7 ^c3/14 D,1/7 d1/7 B1/7 ^F,3/14 d1/7 B5/14 d1/7 B3/14 ^F,1/7 ^c1/7 ^A3/14 | D,1/7 B1/7 B,1/7 ^F,3/14 B1/2 B5/14 ^F,1/7 ^c1/7 ^A3/14 D,1/7 B1/7 B,1/7 ^F,3/14 B1/2 B5/14 ^F,1/7 ^c1/7 ^A3/14 | D,1/7 B1/7 B,1/7 ^F,3/14 B1/2 B5/14 ^F,1/7 ^c1/7 ^A3/14 D,1/7 d1/7 B1/7 B,1/7 ^F,3/14 d1/7 B5/14 d1/7 B3/14 ^F,1/7 e1/7 ^c3/14 | D,1/7 ^f1/7 d1/7 B,3/14 ^f1/7 d5/14 ^f1/7 d3/14 ^F,1/7 g1/7 e3/14 D,1/7 ^f1/7 d1/7 B,3/14 ^f1/7 d5/14 ^f1/7 d3/14 ^F,1/7 e1/7 ^c3/14 | D,1/7 d1/7 B1/7 ^F,3/14 d1/7 B5/14 d1/7 B3/14 ^F,1/7 e1/7 ^c3/14 D,1/7 d1/7 B1/7 ^F,3/14 d1/7 B5/14 d1/7 B3/14 ^F,1/7 ^c1/7 ^A3/14 | D,1/7 B1/7 B,1/7 ^F,3/14 B1/2 B5/14 ^F,1/7 ^c1/7 ^A3/14 D,1/7 B1/7 B,1/7 ^F,3/14 B1/2 B5/14 ^F,1/7 ^c1/7 ^A3/14 | D,1/7 B1/7 B,1/7 ^F,3/14 B1/2 B5/14 ^F,1/7 ^c1/7 ^A3/14 D,1/7 B1/7 B,1/7 ^F,3/14 B1/2 B5/14 ^F,1/7 ^c1/7 ^A3/14 | D,1/7 d1/7 B,1/7 ^F,3/14 d5/14 ^F,1/7 ^A1/7 E5/14 ^c5/14 B,1/7 B1/7 ^F1/7 D3/14 d5/14 ^F,1/7 ^A1/7 E5/14 ^c5/14 | B,1/7 B1/7 ^F1/7 D3/14 d5/14 ^f1/7 ^A1/7 E5/14 ^c5/14 b1/7 B1/7 ^F1/7 D3/14 d1/2 B1/7 ^F1/7 D3/14 A1/7 C3/14 | G,1/7 G1/7 D1/7 B,3/14 ^F1/7 A,3/14 D,1/7 G1/7 B,5/14 ^F1/7 A,3/14 D,1/7 G1/7 B,5/7 D,1/7 ^F1/7 A,5/7 | G,1/7 A1/7 D1/7 C4/7 D,1/7 G1/4 B1/4 d1/4 g1/4 b1/7 D,1/7 g1/7 d4/7 D,6/7 | G,1/7 c'1/7 g1/7 e3/14 b1/7 d3/14 D,1/7 c'1/7 e5/14 b1/7 d3/14 D,1/7 a1/7 c5/14 g1/7 B3/14 D,1/7 d1/7 B5/14 B1/7 G3/14 | A,1/7 G1/7 _E1/7 C5/7 A,5/7 g2/7 ^f1/7 D,1/7 d1/7 c4/7 D,6/7 | ^F,1/7 e1/7 c1/7 A3/14 E5/14 ^F,1/7 E1/7 C1/7 A,3/14 E3/14 ^F2/7 E1/7 D,1/7 ^C1/7 ^A1/7 G,2/7 G,1/7 D1/7 B,5/7 | ^F,1/7 e1/7 c1/7 A,3/14 E5/14 A,1/7 E1/7 C5/14 E3/14 ^F2/7 E1/7 G,1/7 ^C1/7 B,3/7 G,1/7 D1/7 B,5/7 | C,1/7 g1/7 _e1/7 A,3/14 G5/14 C,1/7 G1/7 _E5/14 G1/7 _E3/14 ^C,1/7 G1/7 E1/7 A,3/14 ^F1/7 E3/14 ^C,1/7 A1/7 E5/14 G1/7 E3/14 | D,1/7 G1/7 C1/7 A,3/14 ^F5/14 D,1/7 E1/7 C1/7 ^F,3/14 D1/7 C3/14 D,1/7 c1/7 ^F1/7 A,5/7 A1/4 ^F1/4 C1/4 A,1/4 | G1/7 G,1/7 D3/14 ^F1/7 A,3/14 D,1/7 G1/7 B,5/14 ^F1/7 A,3/14 D,1/7 G1/7 B,5/7 D,1/7 ^F1/7 A,5/7 | G,1/7 A1/7 D1/7 C4/7 D,1/7 G1/4 B1/4 d1/4 g1/4 b1/7 D,1/7 g1/7 d4/7 D,6/7 | G,1/7 c'1/7 g1/7 e3/14 b1/7 d3/14 D,1/7 c'1/7 e5/14 b1/7 d3/14 D,1/7 a1/7 c5/14 g1/7 B3/14 D,1/7 d1/7 B5/14 B1/7 G3/14 | A,1/7 G1/7 _E1/7 C5/7 A,5/7 g2/7 ^f1/7 D,1/7 d1/7 c4/7 D,6/7 | ^F,1/7 e1/7 c1/7 A3/14 E5/14 ^F,1/7 E1/7 C1/7 A,3/14 E3/14 ^F2/7 E1/7 D,1/7 ^C1/7 ^A1/7 G,2/7 G,1/7 D1/7 B,5/7 | A,1/7 e1/7 c5/14 E5/14 A,1/7 E1/7 C5/14 E3/14 ^F2/7 E1/7 ^C1/7 B,4/7 G,1/7 D1/7 B,5/7 | C,1/7 G1/7 _E3/14 C,1/7 _E1/4 G1/4 A1/4 G1/4 _e6/7 D,1/7 D1/4 ^F1/4 A1/4 ^F1/4 | d6/7 D,1/7 G1/4 B1/4 d1/4 G1/4 g1/1 G,1/1 | \n";
     assertEquals(expected, piece.toString());
   }
+
+  // test to confirm that parsing from a token stream produces the same piece as parse
+  @Test
+  public void testParseStreamMultipleVoices()
+  {
+    String input = "X:0\nT:Bubbles\nC:Me\nM:4/4\nL:1/4\nQ:220\nV:upper\nV:lower\nK:G\n" +
+        "V:upper\n|: c d f g :|[1 b4 :|[2 b2 z2 |]\nV:lower\n|: [C4E4G4] :|[1 (3ABc B :|[2 G,4 |]\n";
+    Piece expected = new Parser(new Lexer(input)).parse();
+    Piece piece = new Parser(new Lexer(new StringReader(input))).parseStream();
+    assertEquals(expected.toString(), piece.toString());
+  }
+
+  // test to confirm that parsing from a token stream rejects headers in the body
+  @Test(expected=IllegalArgumentException.class)
+  public void testParseStreamStrayHeader()
+  {
+    Lexer lexer = new Lexer(new StringReader("X:0\nT:Bubbles\nK:C\nc d e f|\nM:3/4\nc d e|\n"));
+    Parser parser = new Parser(lexer);
+    parser.parseStream();
+  }
+
+  // test to confirm parsing a measure from a token buffer matches parsing it from a token list
+  @Test
+  public void testParseMeasureFromTokenBuffer()
+  {
+    String input = "X:0\nT:Buffer\nK:D\n^^A,3/4 [_A,5/4 _B,5/4 _E,5/4] (3_A,_B,_C, f/ =f2 |\n";
+    Lexer lexer = new Lexer(input);
+    Parser parser = new Parser(lexer);
+    List<Token> tokens = parser.parseHeaders(lexer.generateTokens());
+    TokenBuffer buffer = lexer.generateTokenBuffer();
+    // skip the three header tokens and leave off the bar line
+    Measure result = parser.parseMeasure(buffer, 3, buffer.size() - 1);
+    Measure expected = parser.parseMeasure(tokens.subList(0, tokens.size() - 1));
+    assertEquals(expected.toString(), result.toString());
+    assertEquals(expected.getChords(), result.getChords());
+  }
+
+  // test to confirm parsing a voice from a token buffer gives the same measures and repeat
+  // types as parsing it from a token list
+  @Test
+  public void testParseVoiceFromTokenBuffer()
+  {
+    String input = "X:0\nT:Buffer\nK:C\n|: A B c d | [1 e f g a :| [2 a g f e |]\n";
+    Lexer lexer = new Lexer(input);
+    Parser parser = new Parser(lexer);
+    TokenBuffer buffer = lexer.generateTokenBuffer();
+    assertEquals(3, parser.parseHeaders(buffer));
+
+    List<Token> tokens = parser.parseHeaders(lexer.generateTokens());
+    Voice expected = new Voice();
+    parser.parseVoice(expected, tokens);
+
+    // copy the body into a buffer of its own, since parseVoice compacts it
+    TokenBuffer body = new TokenBuffer(buffer.getSource());
+    for (int i = 3; i < buffer.size(); i++) {
+      body.add(buffer.getType(i), buffer.getOffset(i), buffer.getLength(i));
+    }
+    Voice result = new Voice();
+    parser.parseVoice(result, body);
+
+    assertEquals(expected.getMeasures().size(), result.getMeasures().size());
+    for (int i = 0; i < expected.getMeasures().size(); i++) {
+      assertEquals(expected.getMeasures().get(i).toString(), result.getMeasures().get(i).toString());
+      assertEquals(expected.getMeasures().get(i).getRepeatType(), result.getMeasures().get(i).getRepeatType());
+    }
+    assertEquals(RepeatType.FIRST_ENDING, result.getMeasures().get(2).getRepeatType());
+  }
+
+  // test to confirm that when voices parsed at once both have errors, the error in the voice
+  // declared first is reported, however the parses finish
+  @Test
+  public void testParseVoicesReportsFirstDeclaredVoice()
+  {
+    // both voices have an error; the one declared first is reported
+    String input = "X:0\nT:Voices\nV:zeta\nV:alpha\nK:C\nV:alpha\nA B ^^^c d|\nV:zeta\nA B c d | |\n";
+    for (int run = 0; run < 20; run++) {
+      Parser parser = new Parser(new Lexer(input));
+      try {
+        parser.parse();
+        fail("Expected an exception");
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage().startsWith("Error parsing file in voice 'zeta' at measure 2"));
+      }
+    }
+  }
+
+  // test to confirm that a voice parsed in several pieces at once reports its first bad measure
+  @Test
+  public void testParseLongVoiceReportsFirstBadMeasure()
+  {
+    // enough measures for the voice to be parsed in several pieces, with errors in measures 120 and 130
+    StringBuilder input = new StringBuilder("X:0\nT:Long\nK:C\n");
+    for (int i = 1; i <= 200; i++) {
+      input.append(i == 120 || i == 130 ? "A B ^^^c d|\n" : "A B c d|\n");
+    }
+    Parser parser = new Parser(new Lexer(input.toString()));
+    try {
+      parser.parse();
+      fail("Expected an exception");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("Error parsing file in voice '1' at measure 120"));
+    }
+  }
+
+  // test to confirm the single-pass parser builds the same piece as parse, and reports a
+  // stray header ahead of an earlier error in the body
+  @Test
+  public void testParseSinglePass()
+  {
+    String input = "X:0\nT:Single\nV:upper\nV:lower\nK:D\nV:upper\n|: A B c d | [1 e f g a :| [2 (3abc [CEG] z |]\n"
+    + "V:lower\nA,4 | B,4 | ^C4 | D4 |]\n";
+    Piece expected = new Parser(new Lexer(input)).parse();
+    Piece result = new Parser(new Lexer(new StringReader(input))).parseSinglePass();
+    assertEquals(expected.toString(), result.toString());
+    for (int i = 0; i < expected.getVoices().size(); i++) {
+      List<Measure> expectedMeasures = expected.getVoices().get(i).getMeasures();
+      List<Measure> resultMeasures = result.getVoices().get(i).getMeasures();
+      assertEquals(expectedMeasures.size(), resultMeasures.size());
+      for (int j = 0; j < expectedMeasures.size(); j++) {
+        assertEquals(expectedMeasures.get(j).getRepeatType(), resultMeasures.get(j).getRepeatType());
+      }
+    }
+
+    // a stray header later in the body is reported ahead of the error in the first measure
+    try {
+      new Parser(new Lexer("X:0\nT:Single\nK:D\nA B ^^^c d|\nM:3/4\nA B c|\n")).parseSinglePass();
+      fail("Expected an exception");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Error parsing file: Stray header found in body 'M:3/4'", e.getMessage());
+    }
+  }
+
+  // test to confirm a listener is sent the events of a piece in order, from a string or a
+  // reader, with warnings kept and no events sent after the first error
+  @Test
+  public void testParseWithListener()
+  {
+    String input = "X:0\nT:Listen\nV:upper\nV:lower\nK:G\nV:upper\n[C4E4] F4 |]\nV:lower\nz8 |]\n";
+    final StringBuilder events = new StringBuilder();
+    ParseListener listener = new ParseListener() {
+      public void header(Piece header) {
+        events.append("header " + header.getTitle() + ";");
+      }
+      public void voiceStart(String name) {
+        events.append("voice " + name + ";");
+      }
+      public void chordStart() {
+        events.append("[");
+      }
+      public void note(char pitch, int octave, int accidental, int numerator, int denominator) {
+        events.append(pitch + "" + octave + "" + accidental + " " + numerator + "/" + denominator + ",");
+      }
+      public void chordEnd() {
+        events.append("]");
+      }
+      public void barLine(RepeatType repeatType) {
+        events.append("|" + repeatType + ";");
+      }
+    };
+    new Parser(new Lexer(input)).parse(listener);
+    assertEquals("header Listen;voice upper;[C00 4/1,E00 4/1,][F01 4/1,]|SECTION_END;voice lower;[z00 8/1,]|SECTION_END;",
+    events.toString());
+
+    // a reader is streamed rather than read into memory first, with the same events
+    String expected = events.toString();
+    events.setLength(0);
+    new Parser(new Lexer(new StringReader(input))).parse(listener);
+    assertEquals(expected, events.toString());
+
+    // the piece builder builds the same piece as parse
+    PieceBuilder builder = new PieceBuilder();
+    new Parser(new Lexer(input)).parse(builder);
+    assertEquals(new Parser(new Lexer(input)).parse().toString(), builder.getPiece().toString());
+
+    // a measure of nonstandard length is warned about through getWarnings
+    Parser parser = new Parser(new Lexer("X:0\nT:Listen\nK:G\nA4 | A8 |]\n"));
+    parser.setPrintingWarnings(false);
+    parser.parse(listener);
+    assertEquals(Arrays.asList("Warning in voice '1': the following measures have nonstandard length: [0]"),
+    parser.getWarnings());
+
+    // no events are sent after the first error, though the error is only thrown at the end
+    events.setLength(0);
+    try {
+      new Parser(new Lexer("X:0\nT:Listen\nK:G\nA8 | B8 | [A |]\nc8 | d8 |]\n")).parse(listener);
+      fail("Expected an exception");
+    } catch (IllegalArgumentException e) {
+    }
+    assertEquals("header Listen;voice 1;[A00 8/1,]|NONE;[B00 8/1,]|NONE;", events.toString());
+    events.setLength(0);
+    try {
+      new Parser(new Lexer("X:0\nT:Listen\nK:G\nA8 | B8 # | c8 |]\n")).parse(listener);
+      fail("Expected an exception");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("#"));
+    }
+    assertEquals("header Listen;voice 1;[A00 8/1,]|NONE;", events.toString());
+  }
+
+  // test to confirm reparse parses only the measures an edit touches, leaves the piece as it
+  // was after an error, and parses everything again after an edit to the header
+  @Test
+  public void testReparse()
+  {
+    String input = "X:0\nT:Edit\nV:upper\nV:lower\nK:C\nV:upper\nA4 B4 | c8 |]\nV:lower\nA,8 | B,8 | C8 |]\n";
+    Parser parser = new Parser(new Lexer(input));
+    Piece piece = parser.parse();
+    Voice lower = piece.getVoices().get(1);
+    Measure first = lower.getMeasures().get(0);
+    Measure last = lower.getMeasures().get(2);
+
+    // changing a note only reparses its own measure
+    int offset = input.indexOf("B,8");
+    String edited = input.substring(0, offset) + "D,4 E,4" + input.substring(offset + 3);
+    PiecePatch patch = parser.reparse(offset, 3, "D,4 E,4");
+    assertSame(piece, patch.getPiece());
+    assertFalse(patch.isReparsedAll());
+    assertEquals(0, patch.getInsertedMeasureCount(0));
+    assertEquals(Arrays.asList(1), patch.getChangedMeasures(1));
+    assertEquals(1, patch.getRemovedMeasureCount(1));
+    assertSame(first, lower.getMeasures().get(0));
+    assertSame(last, lower.getMeasures().get(2));
+    assertEquals(new Parser(new Lexer(edited)).parse().toString(), piece.toString());
+
+    // a new bar line splits the measure in two
+    offset = edited.indexOf("E,4");
+    edited = edited.substring(0, offset) + "| " + edited.substring(offset);
+    patch = parser.reparse(offset, 0, "| ");
+    assertEquals(Arrays.asList(1, 2), patch.getChangedMeasures(1));
+    assertEquals(4, lower.getMeasures().size());
+    assertSame(last, lower.getMeasures().get(3));
+    assertEquals(new Parser(new Lexer(edited)).parse().toString(), piece.toString());
+
+    // an error leaves the piece as it was
+    String before = piece.toString();
+    try {
+      parser.reparse(edited.indexOf("C8"), 0, "[");
+      fail("Expected an exception");
+    } catch (IllegalArgumentException e) {
+      assertEquals(before, piece.toString());
+    }
+
+    // editing the header parses everything again
+    offset = edited.indexOf("Edit");
+    patch = parser.reparse(offset, 4, "Title");
+    assertTrue(patch.isReparsedAll());
+    assertEquals("Title", piece.getTitle());
+    assertEquals(4, patch.getInsertedMeasureCount(1));
+  }
+
+  // test to confirm reparse splits only the measures around an edit again, following a
+  // measure across the switches to another voice, and keeps up over edits after an error
+  @Test
+  public void testReparseAcrossVoiceSwitches()
+  {
+    String input = "X:0\nT:Edit\nV:upper\nV:lower\nK:C\nV:upper\nA4 B4 | c4\nV:lower\nA,8 |\nV:upper\nd4 | e8 |]\n"
+    + "V:lower\nB,8 | C8 |]\n";
+    Parser parser = new Parser(new Lexer(input));
+    Piece piece = parser.parse();
+    Voice upper = piece.getVoices().get(0);
+    Measure first = upper.getMeasures().get(0);
+
+    // the second measure of the upper voice is split by the lower voice
+    String[][] edits = { {"c4", "c2 c2"}, {"d4", "d4 |: f4"}, {"B,8", "B,4 C4"}, {"e8 |]", "e8 :|"} };
+    String edited = input;
+    for (String[] edit : edits) {
+      int offset = edited.indexOf(edit[0]);
+      edited = edited.substring(0, offset) + edit[1] + edited.substring(offset + edit[0].length());
+      PiecePatch patch = parser.reparse(offset, edit[0].length(), edit[1]);
+      assertFalse(patch.isReparsedAll());
+      assertEquals(new Parser(new Lexer(edited)).parse().toString(), piece.toString());
+    }
+    assertSame(first, upper.getMeasures().get(0));
+    assertEquals(4, upper.getMeasures().size());
+    assertEquals(RepeatType.BEGIN, upper.getMeasures().get(2).getRepeatType());
+
+    // a failed edit leaves the source as it was for the next one
+    String before = piece.toString();
+    try {
+      parser.reparse(edited.indexOf("f4"), 0, "|: ");
+      fail("Expected an exception");
+    } catch (IllegalArgumentException e) {
+      assertEquals(before, piece.toString());
+    }
+    int offset = edited.indexOf("C8");
+    edited = edited.substring(0, offset) + "D8" + edited.substring(offset + 2);
+    PiecePatch patch = parser.reparse(offset, 2, "D8");
+    assertEquals(Arrays.asList(2), patch.getChangedMeasures(1));
+    assertEquals(0, patch.getInsertedMeasureCount(0));
+    assertEquals(new Parser(new Lexer(edited)).parse().toString(), piece.toString());
+  }
+
+  // test to confirm a tune index finds the tunes of a collection by index and title, and
+  // parses each one on its own whatever is wrong with the others
+  @Test
+  public void testTuneIndex()
+  {
+    String first = "X:1\nT:First\nC:Someone\nK:D\nA B c d |]\n\n";
+    String broken = "X:2\nT:Broken\nK:C\nA B c d\n\n";
+    String third = "X: 3 % a comment\nT:Third\nM:3/4\nK: A m\nA B c |]\n";
+    TuneIndex tunes = new TuneIndex("% a collection\n\n" + first + broken + third);
+
+    assertEquals(3, tunes.size());
+    assertEquals(1, tunes.getIndexNumber(0));
+    assertEquals("Someone", tunes.getComposer(0));
+    assertEquals("D", tunes.getKey(0));
+    assertEquals("Unknown", tunes.getComposer(2));
+    assertEquals("Am", tunes.getKey(2));
+    assertEquals(2, tunes.find(3));
+    assertEquals(-1, tunes.find(4));
+    assertEquals(Arrays.asList(2), tunes.findByTitle("th"));
+    assertEquals(third, tunes.getTuneText(2).toString());
+
+    // a tune is parsed on its own, whatever is wrong with the others
+    assertEquals(new Parser(new Lexer(third)).parse().toString(), tunes.parseTune(2).toString());
+    assertEquals(new Parser(new Lexer(first)).parse().toString(), tunes.parseTune(0).toString());
+    try {
+      tunes.parseTune(1);
+      fail("Expected an exception");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  // test to confirm the header scanner reads the headers of every tune, even one whose body
+  // is not valid abc, and that a catalog reads back the headers it wrote
+  @Test
+  public void testHeaderScannerAndCatalog() throws IOException
+  {
+    String collection = "X:1\nT:First\nC:Someone\nM:C|\nL:1/4\nQ:120\nV:upper\nV: lower\nK:D\nV:upper\nA B |]\nV:lower\nA B |]\n\n"
+    + "X:2\nT:Second % a comment\nK: B b\nnot abc at all\n\n"
+    + "X:3\nT:No key\nA B c d |]\n";
+    HeaderScanner scanner = new HeaderScanner(collection);
+    List<TuneHeader> headers = new ArrayList<TuneHeader>();
+    while (scanner.hasNext()) {
+      headers.add(scanner.next());
+    }
+
+    assertEquals(3, headers.size());
+    TuneHeader first = headers.get(0);
+    assertEquals(0, first.getOffset());
+    assertEquals("Someone", first.getComposer());
+    assertEquals("2/2", first.getMeter());
+    assertEquals("1/4", first.getDefaultNoteLength());
+    assertEquals(120, first.getTempo());
+    assertEquals("D", first.getKey());
+    assertEquals(Arrays.asList("upper", "lower"), first.getVoices());
+
+    // the headers of a tune are listed even if its body is not valid abc
+    TuneHeader second = headers.get(1);
+    assertEquals(collection.indexOf("X:2"), second.getOffset());
+    assertEquals("Second ", second.getTitle());
+    assertEquals("Unknown", second.getComposer());
+    assertEquals("4/4", second.getMeter());
+    assertEquals("Bb", second.getKey());
+    assertNull(headers.get(2).getKey());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(3, TuneCatalog.write(new HeaderScanner(collection), out));
+    assertEquals(headers, TuneCatalog.read(new ByteArrayInputStream(out.toByteArray())));
+  }
+
+  // test to confirm the same note anywhere in any piece is a single shared object that
+  // can't be changed, equal to a note created on its own
+  @Test
+  public void testSharedNotes()
+  {
+    Piece first = new Parser(new Lexer("X:1\nT:One\nK:D\nA2 f/2 A2 |]\n")).parse();
+    Piece second = new Parser(new Lexer("X:2\nT:Two\nK:D\nf/2 A2 |]\n")).parse();
+    List<Chord> chords = first.getVoices().get(0).getMeasures().get(0).getChords();
+    Note note = chords.get(0).getNotes().get(0);
+
+    // the same note anywhere in any piece is the same object
+    assertSame(note, chords.get(2).getNotes().get(0));
+    assertSame(note, second.getVoices().get(0).getMeasures().get(0).getChords().get(1).getNotes().get(0));
+    assertSame(chords.get(1).getNotes().get(0), Note.valueOf('F', 1, 1, 1, 2));
+    assertTrue(note.isShared());
+
+    Note copy = new Note('A', 0, 0, new Meter(2, 1));
+    assertEquals(copy, note);
+    assertEquals(copy.hashCode(), note.hashCode());
+    assertFalse(copy.isShared());
+    copy.setOctave(1);
+    try {
+      note.setOctave(1);
+      fail("Expected an exception");
+    } catch (UnsupportedOperationException e) {
+    }
+  }
+
+  // test to confirm the tick resolution counted while parsing matches the one visited, and
+  // follows reparse as it adds and removes tuplets
+  @Test
+  public void testTickResolution()
+  {
+    String tune = "X:1\nT:t\nK:C\nA/2 B | (3cde f | g2 a2 |\n";
+    Parser parser = new Parser(new Lexer(tune));
+    Piece piece = parser.parse();
+    assertEquals(6, piece.getTicksPerDefaultNoteLength());
+    assertEquals(new NoteLengthVisitor(piece).computeTicksPerBeat(), piece.getTicksPerDefaultNoteLength());
+    assertEquals(8, piece.getTickResolution().getNoteCount());
+    assertEquals(6, new Parser(new Lexer(tune)).parseSinglePass().getTicksPerDefaultNoteLength());
+
+    // removing the only triplet removes the thirds
+    int offset = tune.indexOf("(3");
+    parser.reparse(offset, 2, "");
+    assertEquals(2, piece.getTicksPerDefaultNoteLength());
+    assertEquals(8, piece.getTickResolution().getNoteCount());
+    parser.reparse(offset, 0, "(3");
+    assertEquals(6, piece.getTicksPerDefaultNoteLength());
+
+    // a piece built by hand is visited instead
+    piece.setTickResolution(null);
+    assertEquals(6, piece.getTicksPerDefaultNoteLength());
+
+    TickResolution tickResolution = new TickResolution();
+    assertEquals(1, tickResolution.getTicksPerDefaultNoteLength());
+    tickResolution.add(4);
+    tickResolution.add(6);
+    tickResolution.add(4);
+    assertEquals(12, tickResolution.getTicksPerDefaultNoteLength());
+    assertTrue(tickResolution.remove(6));
+    assertEquals(4, tickResolution.getTicksPerDefaultNoteLength());
+    assertFalse(tickResolution.remove(6));
+  }
 }
@@ -0,0 +1,104 @@
+package interpreter;
+
+import interpreter.Measure.RepeatType;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+* A performance iterator returns the measures of a voice in the order they are
+* performed, following the repeats as it goes rather than unrolling them first.
+*
+* A first ending, or an end repeat the first time it is reached, is followed by the
+* start of its repeat: the begin repeat before it, the measure after the last measure
+* before it with another repeat type, or the start of the voice. A first ending is
+* passed over once it has been played, and an end repeat is played through the second
+* time. Malformed repeats are played by the same rules: an end repeat with no begin
+* repeat goes back to the start of the voice or of the section it closes, a first
+* ending with no second ending is played once and then passed over, and a second
+* ending with no first ending is played like any other measure.
+*
+* Since a repeat goes back no further than the last measure with a repeat type, the
+* only such measure met while playing a repeat again is the one that closes it, and
+* no measure before it is played again afterwards. The iterator therefore keeps only
+* three indices, whatever the length of the voice. The voice must not be changed
+* while it is being iterated.
+*/
+public class PerformanceIterator implements Iterator<Measure> {
+
+  private final List<Measure> measures;
+  // the index of the next measure to consider
+  private int next;
+  // the measure the next repeat goes back to
+  private int repeatStart;
+  // the last measure that went back to the start of its repeat, or -1
+  private int repeatedFrom = -1;
+  // the index of the measure last returned, or -1
+  private int index = -1;
+
+  /**
+  * Creates an iterator over the performance of a list of measures
+  * @param measures  The measures of a voice
+  */
+  public PerformanceIterator(List<Measure> measures) {
+    this.measures = measures;
+  }
+
+  public boolean hasNext() {
+    // pass over a first ending once it has been played
+    if (this.next == this.repeatedFrom && repeatType(this.next) == RepeatType.FIRST_ENDING) {
+      this.next++;
+      this.repeatStart = this.next;
+    }
+    return this.next < this.measures.size();
+  }
+
+  /**
+  * next
+  * Returns the next measure performed
+  * Throws an IllegalArgumentException if the measure has no repeat type.
+  * @return  The measure
+  */
+  public Measure next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    int i = this.next;
+    RepeatType repeatType = repeatType(i);
+
+    // on a first ending, or an end repeat not yet played, go back to the start of the repeat
+    if ((repeatType == RepeatType.FIRST_ENDING || repeatType == RepeatType.END) && i != this.repeatedFrom) {
+      this.repeatedFrom = i;
+      this.next = this.repeatStart;
+    }
+    else {
+      if (repeatType == RepeatType.BEGIN) {
+        this.repeatStart = i;
+      }
+      else if (repeatType != RepeatType.NONE) {
+        this.repeatStart = i + 1;
+      }
+      this.next = i + 1;
+    }
+
+    this.index = i;
+    return this.measures.get(i);
+  }
+
+  /**
+  * Returns the index in the voice of the measure last returned by next, or -1 if next has not been called
+  */
+  public int getIndex() {
+    return this.index;
+  }
+
+  private RepeatType repeatType(int i) {
+    RepeatType repeatType = this.measures.get(i).getRepeatType();
+    if (repeatType == null) {
+      throw new IllegalArgumentException("Measure " + i + " has no repeat type");
+    }
+    return repeatType;
+  }
+
+}
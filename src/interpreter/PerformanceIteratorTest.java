@@ -0,0 +1,45 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PerformanceIteratorTest {
+
+  // test to confirm a performance of a voice gives its measures in playback order, and a
+  // timed performance gives the ticks each measure starts and ends on
+  @Test
+  public void performanceIteratorTest() {
+    Piece piece = new Parser(new Lexer("X:1\nT:t\nK:C\nab | cd |: ef | [1 ga :| [2 bc | de |]\n")).parse();
+    Voice voice = piece.getVoices().get(0);
+    PerformanceIterator performance = voice.performance();
+    assertEquals(-1, performance.getIndex());
+    List<Integer> indices = new ArrayList<Integer>();
+    while (performance.hasNext()) {
+      Measure measure = performance.next();
+      assertSame(voice.getMeasures().get(performance.getIndex()), measure);
+      indices.add(performance.getIndex());
+    }
+    assertEquals(voice.getPlaybackOrder().toString(), indices.toString());
+    try {
+      performance.next();
+      fail("Expected an exception");
+    } catch (NoSuchElementException e) {
+    }
+
+    // each measure is two default note lengths, of two ticks each
+    TimedPerformanceIterator timed = voice.performance(2);
+    List<Integer> startTicks = new ArrayList<Integer>();
+    while (timed.hasNext()) {
+      timed.next();
+      startTicks.add(timed.getStartTick());
+      assertEquals(timed.getStartTick() + 4, timed.getEndTick());
+    }
+    assertEquals(Arrays.asList(0, 4, 8, 12, 16, 20, 24), startTicks);
+  }
+
+}
@@ -1,6 +1,7 @@
 package interpreter;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class Piece implements MusicalElement {
@@ -14,20 +15,27 @@ public class Piece implements MusicalElement {
   private int     defaultNoteLengthsPerMinute;
   private Meter   defaultNoteLength;
   private KeySignature keySignature;
+  // the denominators of the notes, counted as the piece was built, or null
+  private TickResolution tickResolution;
+  // true if the piece is shared, as by a ParseCache, and so can't be changed
+  private final boolean shared;
 
   public Piece() {
     this.voices = new ArrayList<Voice>();
+    this.shared = false;
   }
 
   public Piece(String title, int defaultNoteLengthsPerMinute) {
     this.voices = new ArrayList<Voice>();
     this.title = title;
     this.defaultNoteLengthsPerMinute = defaultNoteLengthsPerMinute;
+    this.shared = false;
   }
 
   public Piece(Voice voice) {
     this.voices = new ArrayList<Voice>();
     this.voices.add(voice);
+    this.shared = false;
   }
 
   public Piece(Voice voice, String title, int defaultNoteLengthsPerMinute) {
@@ -35,23 +43,76 @@ public class Piece implements MusicalElement {
     this.voices.add(voice);
     this.title = title;
     this.defaultNoteLengthsPerMinute = defaultNoteLengthsPerMinute;
+    this.shared = false;
   }
 
   public Piece(List<Voice> voices) {
     this.voices = voices;
+    this.shared = false;
   }
 
   public Piece(List<Voice> voices, String title, int defaultNoteLengthsPerMinute) {
     this.voices = voices;
     this.title = title;
     this.defaultNoteLengthsPerMinute = defaultNoteLengthsPerMinute;
+    this.shared = false;
+  }
+
+  /**
+  * Creates a shared piece, whose voices can't be changed
+  */
+  private Piece(Piece piece, List<Voice> sharedVoices) {
+    this.voices = Collections.unmodifiableList(sharedVoices);
+    this.index = piece.index;
+    this.title = piece.title;
+    this.composer = piece.composer;
+    this.timeSignature = piece.timeSignature;
+    this.defaultNoteLengthsPerMinute = piece.defaultNoteLengthsPerMinute;
+    this.defaultNoteLength = piece.defaultNoteLength;
+    this.keySignature = piece.keySignature;
+    this.tickResolution = (piece.tickResolution == null) ? null : piece.tickResolution.share();
+    this.shared = true;
+  }
+
+  /**
+  * share
+  * Creates a piece equal to this one that can't be changed, for a cache that hands
+  * the same piece to every caller. Its voices and their measures, chords and notes
+  * can't be changed either; the measures are shared through table.
+  * @param table     The table to share the measures through
+  * @return          The shared piece
+  */
+  Piece share(MeasureTable table) {
+    if (this.shared) {
+      return this;
+    }
+    List<Voice> sharedVoices = new ArrayList<Voice>(this.voices.size());
+    for (Voice voice : this.voices) {
+      sharedVoices.add(voice.share(table));
+    }
+    return new Piece(this, sharedVoices);
+  }
+
+  /**
+  * Returns true if the piece is shared, and so can't be changed
+  */
+  public boolean isShared() {
+    return this.shared;
+  }
+
+  private void checkNotShared() {
+    if (this.shared) {
+      throw new UnsupportedOperationException("Piece " + this.title + " is shared and can't be changed");
+    }
   }
 
   public void addVoice(Voice voice) {
+    checkNotShared();
     this.voices.add(voice);
   }
 
   public void addVoices(List<Voice> voiceList) {
+    checkNotShared();
     for (Voice voice : voiceList)
       this.voices.add(voice);
   }
@@ -65,6 +126,7 @@ public class Piece implements MusicalElement {
   }
 
   public void setTitle(String newTitle) {
+    checkNotShared();
     this.title = newTitle;
   }
 
@@ -73,6 +135,7 @@ public class Piece implements MusicalElement {
   }
 
   public void setComposer(String newComposer) {
+    checkNotShared();
     this.composer = newComposer;
   }
 
@@ -81,6 +144,7 @@ public class Piece implements MusicalElement {
   }
 
   public void setTimeSignature(Meter newTimeSignature) {
+    checkNotShared();
     this.timeSignature = newTimeSignature;
   }
 
@@ -89,6 +153,7 @@ public class Piece implements MusicalElement {
   }
 
   public void setKeySignature(KeySignature newKeySignature) {
+    checkNotShared();
     this.keySignature = newKeySignature;
   }
 
@@ -97,6 +162,7 @@ public class Piece implements MusicalElement {
   }
 
   public void setDefaultNoteLengthsPerMinute(int newDefaultNoteLengthsPerMinute) {
+    checkNotShared();
     this.defaultNoteLengthsPerMinute = newDefaultNoteLengthsPerMinute;
   }
 
@@ -105,6 +171,7 @@ public class Piece implements MusicalElement {
   }
 
   public void setDefaultNoteLength(Meter newDefaultNoteLength) {
+    checkNotShared();
     this.defaultNoteLength = newDefaultNoteLength;
   }
 
@@ -113,9 +180,43 @@ public class Piece implements MusicalElement {
   }
 
   public void setIndex(int newIndex) {
+    checkNotShared();
     this.index = newIndex;
   }
 
+  /**
+  * Returns the tick resolution counted as the piece was built, or null if it was not counted
+  */
+  public TickResolution getTickResolution() {
+    return this.tickResolution;
+  }
+
+  /**
+  * setTickResolution
+  * Sets the tick resolution of the notes of the piece. The parser and the piece cache
+  * count the notes of the pieces they build, and reparse keeps the count up to date;
+  * a piece whose notes are changed any other way should have it set to null.
+  * @param newTickResolution   The counted notes, or null if they are not counted
+  */
+  public void setTickResolution(TickResolution newTickResolution) {
+    checkNotShared();
+    this.tickResolution = newTickResolution;
+  }
+
+  /**
+  * getTicksPerDefaultNoteLength
+  * Returns the number of ticks per default note length that gives every note a whole
+  * number of ticks, from the tick resolution if the notes were counted, and otherwise
+  * by visiting every note with a NoteLengthVisitor
+  * @return The number of ticks per default note length
+  */
+  public int getTicksPerDefaultNoteLength() {
+    if (this.tickResolution != null) {
+      return this.tickResolution.getTicksPerDefaultNoteLength();
+    }
+    return new NoteLengthVisitor(this).computeTicksPerBeat();
+  }
+
   public <R> R accept(MusicalElementVisitor<R> visitor) {
     return visitor.visit(this);
   }
@@ -0,0 +1,101 @@
+package interpreter;
+
+import interpreter.Measure.RepeatType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+* A piece builder is the parse listener that turns the events of a parse into a
+* Piece. The measures of each voice are added to the Voice objects of the header,
+* so the piece it builds is the header piece passed to it.
+*/
+public class PieceBuilder implements ParseListener {
+
+  private Piece piece;
+  private final Map<String, Voice> voices = new HashMap<String, Voice>();
+  private Voice voice;
+  private Measure measure = new Measure();
+  private Chord chord;
+  private final MeasureTable measureTable;
+  private final TickResolution tickResolution = new TickResolution();
+
+  /**
+  * Creates a piece builder that gives every measure its own objects
+  */
+  public PieceBuilder() {
+    this(null);
+  }
+
+  /**
+  * Creates a piece builder that adds the shared measures of a measure table to the voices
+  * @param measureTable  The table to share the measures through, or null to not share them
+  */
+  public PieceBuilder(MeasureTable measureTable) {
+    this.measureTable = measureTable;
+  }
+
+  /**
+  * Accesses the Piece built so far.
+  * @return the piece, or null if no header has been read
+  */
+  public Piece getPiece() {
+    return this.piece;
+  }
+
+  /**
+  * Returns the denominators of the notes built so far, including those of measures
+  * taken with takeMeasure
+  */
+  TickResolution getTickResolution() {
+    return this.tickResolution;
+  }
+
+  /**
+  * takeMeasure
+  * Returns the measure built from the chords since the last bar line, and starts a new one
+  * @return The measure
+  */
+  Measure takeMeasure() {
+    Measure result = this.measure;
+    this.measure = new Measure();
+    return result;
+  }
+
+  public void header(Piece header) {
+    this.piece = header;
+    header.setTickResolution(this.tickResolution);
+    // the measures of a voice go to the first voice declared with its name
+    for (Voice declared : header.getVoices()) {
+      if (!this.voices.containsKey(declared.getName())) {
+        this.voices.put(declared.getName(), declared);
+      }
+    }
+  }
+
+  public void voiceStart(String name) {
+    this.voice = this.voices.get(name);
+  }
+
+  public void chordStart() {
+    this.chord = new Chord();
+  }
+
+  public void note(char pitch, int octave, int accidental, int numerator, int denominator) {
+    Note note = Note.valueOf(pitch, octave, accidental, numerator, denominator);
+    this.chord.addNote(note);
+    this.tickResolution.add((int)note.getDuration().getDenominator());
+  }
+
+  public void chordEnd() {
+    this.measure.addChord(this.chord);
+    this.chord = null;
+  }
+
+  public void barLine(RepeatType repeatType) {
+    Measure closed = takeMeasure();
+    closed.setRepeatType(repeatType);
+    this.voice.addMeasure((this.measureTable != null) ? this.measureTable.intern(closed) : closed);
+  }
+
+}
@@ -0,0 +1,504 @@
+package interpreter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+* A piece cache keeps the pieces parsed from abc text in a directory, so that text
+* that has been played before is not lexed or parsed again.
+*
+* A piece is stored in a file named after a SHA-256 hash of the characters it was
+* parsed from and the version of the format, so an edited tune, or a piece written by
+* another version, is simply not found. The file holds a magic number and the version,
+* then the headers of the piece, the warnings printed when it was parsed, and its
+* voices, measures, chords and notes, and ends with a CRC-32 of all of that, so that a
+* damaged file is deleted rather than loaded. The warnings are printed again when the
+* piece is loaded, so a tune gives the same output whether or not it was cached. Text
+* that fails to parse is not cached. Strings are written as their length in bytes
+* followed by their UTF-8 bytes, so a string of any length can be stored. The key
+* signature is only stored by name, and loaded through KeySignature.valueOf, so a hit
+* doesn't read keysignature.xml again.
+*
+* When the files in the directory take up more than a set number of bytes, the least
+* recently used are deleted; a file is marked as used by setting its modification
+* time. The directory is listed once to learn how much it holds, and after that the
+* total is kept up to date as pieces are stored, so the directory is only listed
+* again, and the files sorted, when the total grows too large. Pieces stored by other
+* processes sharing the directory are counted when it is next listed.
+*/
+public class PieceCache {
+
+  private static final int MAGIC = 0x41424350;
+  private static final int VERSION = 3;
+  private static final String SUFFIX = ".piece";
+
+  private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+  private final File directory;
+  private final long maxBytes;
+  // the number of bytes the stored pieces take up, as far as this cache knows, or
+  // -1 until the directory is first listed
+  private long totalBytes = -1;
+
+  /**
+  * Creates a cache that keeps pieces in directory, which is created when the first
+  * piece is stored
+  * @param directory The directory to keep the pieces in
+  * @param maxBytes  The number of bytes the stored pieces may take up
+  */
+  public PieceCache(File directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+  * getConfigured
+  * Creates a cache in the directory named by the system property abcplayer.cache.
+  * Nothing is written to disk unless the property is set.
+  * @return The cache, or null if the property is not set
+  */
+  public static PieceCache getConfigured() {
+    String path = System.getProperty("abcplayer.cache");
+    if (path == null) {
+      return null;
+    }
+    return new PieceCache(new File(path), DEFAULT_MAX_BYTES);
+  }
+
+  /**
+  * get
+  * Returns the piece parsed from the passed abc text, loading it from the cache if it
+  * is there, and otherwise parsing it and storing it. Either way, the warnings the
+  * parse printed are printed. The cache is only an aid: if it cannot be read or
+  * written, the text is parsed as if there was no cache.
+  * Throws an IllegalArgumentException if the text is not valid abc.
+  * @param source    The characters of a single tune
+  * @return          The piece produced by parsing the text
+  */
+  public Piece get(CharSequence source) {
+    File file = new File(this.directory, key(source) + SUFFIX);
+    List<String> warnings = new ArrayList<String>();
+    Piece piece = load(file, warnings);
+    if (piece == null) {
+      Parser parser = new Parser(new Lexer(source));
+      piece = parser.parse();
+      store(file, piece, parser.getWarnings());
+    }
+    else {
+      for (String warning : warnings) {
+        System.out.println(warning);
+      }
+    }
+    return piece;
+  }
+
+  /**
+  * key
+  * Hashes the characters of the text and the format version. ASCII characters are
+  * hashed as their own bytes, and other characters as a byte that no ASCII
+  * character has followed by their two bytes. The non-ASCII bytes of an
+  * AsciiCharSequence are decoded first, so text read in place has the same key as
+  * the same text decoded into a String.
+  * @return The hash as hexadecimal digits
+  */
+  static String key(CharSequence source) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    digest.update((byte)VERSION);
+    boolean inPlace = source instanceof AsciiCharSequence;
+    byte[] buffer = new byte[8192];
+    int used = 0;
+    int i = 0;
+    while (i < source.length()) {
+      char c = source.charAt(i);
+      if (inPlace && c == AsciiCharSequence.NON_ASCII) {
+        // the bytes stand for characters that only the charset can tell
+        int end = i + 1;
+        while (end < source.length() && source.charAt(end) == AsciiCharSequence.NON_ASCII) {
+          end++;
+        }
+        String decoded = source.subSequence(i, end).toString();
+        for (int j = 0; j < decoded.length(); j++) {
+          used = update(digest, buffer, used, decoded.charAt(j));
+        }
+        i = end;
+      }
+      else {
+        used = update(digest, buffer, used, c);
+        i++;
+      }
+    }
+    digest.update(buffer, 0, used);
+
+    StringBuilder s = new StringBuilder();
+    for (byte b : digest.digest()) {
+      s.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return s.toString();
+  }
+
+  /**
+  * Adds a character to the bytes waiting to be hashed, hashing them first if there
+  * is no room for it
+  * @return The number of bytes waiting
+  */
+  private static int update(MessageDigest digest, byte[] buffer, int used, char c) {
+    if (used > buffer.length - 3) {
+      digest.update(buffer, 0, used);
+      used = 0;
+    }
+    if (c < 0x80) {
+      buffer[used++] = (byte)c;
+    }
+    else {
+      buffer[used++] = (byte)0xff;
+      buffer[used++] = (byte)(c >> 8);
+      buffer[used++] = (byte)c;
+    }
+    return used;
+  }
+
+  /**
+  * Reads a stored piece, and marks it as used. A file that can't be read is deleted.
+  * @param warnings  The list to add the stored warnings to
+  * @return          The piece, or null if it is not stored or can't be read
+  */
+  private Piece load(File file, List<String> warnings) {
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), new CRC32());
+      DataInputStream in = new DataInputStream(checked);
+      try {
+        Piece piece = read(in, warnings);
+        long checksum = checked.getChecksum().getValue();
+        if (in.readLong() != checksum) {
+          throw new IOException("Stored piece does not match its checksum");
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return piece;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      delete(file);
+    } catch (RuntimeException e) {
+      // a damaged file may hold values no piece could have, such as an unknown key signature
+      delete(file);
+    }
+    warnings.clear();
+    return null;
+  }
+
+  /**
+  * Stores a piece, replacing any stored file only once the new one is complete, then
+  * evicts the least recently used pieces if the cache has grown too large. The piece
+  * is first written to a temporary file of its own, so that processes storing the
+  * same piece at once don't write over each other.
+  */
+  private void store(File file, Piece piece, List<String> warnings) {
+    File temporary = null;
+    try {
+      if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+        return;
+      }
+      temporary = File.createTempFile(file.getName() + ".", ".tmp", this.directory);
+      CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)), new CRC32());
+      DataOutputStream out = new DataOutputStream(checked);
+      try {
+        write(piece, warnings, out);
+        out.writeLong(checked.getChecksum().getValue());
+      } finally {
+        out.close();
+      }
+      long replaced = file.length();
+      if (!temporary.renameTo(file)) {
+        temporary.delete();
+        return;
+      }
+      added(file.length() - replaced);
+    } catch (IOException e) {
+      if (temporary != null) {
+        temporary.delete();
+      }
+    }
+  }
+
+  /**
+  * Counts bytes stored in the directory, evicting pieces if the total grows too large.
+  * The first time, the directory is listed instead, which counts the bytes just stored.
+  */
+  private synchronized void added(long bytes) {
+    if (this.totalBytes < 0 || this.totalBytes + bytes > this.maxBytes) {
+      evict();
+    }
+    else {
+      this.totalBytes += bytes;
+    }
+  }
+
+  /**
+  * Deletes a stored piece that can't be read, and stops counting its bytes
+  */
+  private synchronized void delete(File file) {
+    long length = file.length();
+    if (file.delete() && this.totalBytes >= 0) {
+      this.totalBytes = Math.max(0, this.totalBytes - length);
+    }
+  }
+
+  /**
+  * evict
+  * Lists the directory and deletes the least recently used pieces until the rest fit
+  * in the size of the cache, counting the bytes of the rest
+  */
+  synchronized void evict() {
+    File[] files = this.directory.listFiles();
+    if (files == null) {
+      this.totalBytes = -1;
+      return;
+    }
+    long total = 0;
+    int count = 0;
+    final long[] used = new long[files.length];
+    Integer[] order = new Integer[files.length];
+    for (int i = 0; i < files.length; i++) {
+      if (files[i].getName().endsWith(SUFFIX)) {
+        total += files[i].length();
+        used[i] = files[i].lastModified();
+        order[count++] = i;
+      }
+    }
+    Arrays.sort(order, 0, count, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return Long.compare(used[a], used[b]);
+      }
+    });
+    for (int i = 0; i < count && total > this.maxBytes; i++) {
+      File file = files[order[i]];
+      long length = file.length();
+      if (file.delete()) {
+        total -= length;
+      }
+    }
+    this.totalBytes = total;
+  }
+
+  /**
+  * write
+  * Writes a piece in the format of the cache
+  * @param piece     The piece to write
+  * @param warnings  The warnings printed when the piece was parsed
+  * @param out       The stream to write the piece to
+  * @exception       Throws IOException if there was an error writing to the stream
+  */
+  static void write(Piece piece, List<String> warnings, DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(piece.getIndex());
+    writeString(piece.getTitle(), out);
+    writeString(piece.getComposer(), out);
+    writeMeter(piece.getTimeSignature(), out);
+    writeMeter(piece.getDefaultNoteLength(), out);
+    out.writeInt(piece.getDefaultNoteLengthsPerMinute());
+    writeString(piece.getKeySignature() == null ? null : piece.getKeySignature().toString(), out);
+
+    out.writeInt(warnings.size());
+    for (String warning : warnings) {
+      writeText(warning, out);
+    }
+
+    out.writeInt(piece.getVoices().size());
+    for (Voice voice : piece.getVoices()) {
+      writeString(voice.getName(), out);
+      out.writeInt(voice.getMeasures().size());
+      for (Measure measure : voice.getMeasures()) {
+        writeString(measure.getName(), out);
+        out.writeByte(measure.getRepeatType().ordinal());
+        out.writeInt(measure.getChords().size());
+        for (Chord chord : measure.getChords()) {
+          out.writeInt(chord.getNotes().size());
+          for (Note note : chord.getNotes()) {
+            out.writeChar(note.getPitch());
+            out.writeInt(note.getOctave());
+            out.writeInt(note.getAccidental());
+            writeMeter(note.getLength(), out);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+  * read
+  * Reads a piece written by write. The counts and repeat types are checked as they
+  * are read, so a damaged stream ends in an IOException rather than in a piece
+  * with too few measures.
+  * @param in        The stream to read the piece from
+  * @param warnings  The list to add the warnings stored with the piece to
+  * @exception       Throws IOException if there was an error reading the stream, or
+  *                  if it does not hold a piece of this version
+  * @return          The piece
+  */
+  static Piece read(DataInputStream in, List<String> warnings) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("Stream does not hold a cached piece of this version");
+    }
+    Piece piece = new Piece();
+    piece.setIndex(in.readInt());
+    piece.setTitle(readString(in));
+    piece.setComposer(readString(in));
+    piece.setTimeSignature(readMeter(in));
+    piece.setDefaultNoteLength(readMeter(in));
+    piece.setDefaultNoteLengthsPerMinute(in.readInt());
+    String key = readString(in);
+    if (key != null) {
+      piece.setKeySignature(KeySignature.valueOf(key));
+    }
+
+    int warningCount = readCount(in);
+    for (int w = 0; w < warningCount; w++) {
+      warnings.add(readText(in));
+    }
+
+    Measure.RepeatType[] repeatTypes = Measure.RepeatType.values();
+    // the notes are counted as they are read
+    TickResolution tickResolution = new TickResolution();
+    int voiceCount = readCount(in);
+    for (int v = 0; v < voiceCount; v++) {
+      Voice voice = new Voice();
+      voice.setName(readString(in));
+      int measureCount = readCount(in);
+      for (int m = 0; m < measureCount; m++) {
+        Measure measure = new Measure();
+        measure.setName(readString(in));
+        int repeatType = in.readUnsignedByte();
+        if (repeatType >= repeatTypes.length) {
+          throw new IOException("Stream holds an unknown repeat type " + repeatType);
+        }
+        measure.setRepeatType(repeatTypes[repeatType]);
+        int chordCount = readCount(in);
+        for (int c = 0; c < chordCount; c++) {
+          Chord chord = new Chord();
+          int noteCount = readCount(in);
+          for (int n = 0; n < noteCount; n++) {
+            char pitch = in.readChar();
+            int octave = in.readInt();
+            int accidental = in.readInt();
+            Meter length = readMeter(in);
+            checkNote(pitch, octave, accidental, length);
+            Note note = Note.valueOf(pitch, octave, accidental, length.getNumerator(), length.getDenominator());
+            chord.addNote(note);
+            tickResolution.add((int)note.getDuration().getDenominator());
+          }
+          measure.addChord(chord);
+        }
+        voice.addMeasure(measure);
+      }
+      piece.addVoice(voice);
+    }
+    piece.setTickResolution(tickResolution);
+    return piece;
+  }
+
+  /**
+  * Throws an IOException if the fields read for a note are not those of a note that
+  * can be parsed, which the visitors could not handle
+  */
+  private static void checkNote(char pitch, int octave, int accidental, Meter length) throws IOException {
+    if ((pitch < 'A' || pitch > 'G') && pitch != 'z') {
+      throw new IOException("Stream holds an unknown pitch " + (int)pitch);
+    }
+    if (octave != (byte)octave || accidental < -2 || accidental > 2) {
+      throw new IOException("Stream holds a note out of range");
+    }
+    if (length == null || length.getNumerator() < 0 || length.getDenominator() < 1) {
+      throw new IOException("Stream holds a note of invalid length " + length);
+    }
+  }
+
+  /**
+  * Reads a count written by write, which can't be negative
+  */
+  private static int readCount(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    if (count < 0) {
+      throw new IOException("Stream holds a negative count " + count);
+    }
+    return count;
+  }
+
+  private static void writeString(String string, DataOutputStream out) throws IOException {
+    out.writeBoolean(string != null);
+    if (string != null) {
+      writeText(string, out);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? readText(in) : null;
+  }
+
+  /**
+  * Writes text as its length in bytes and its UTF-8 bytes, since writeUTF can't
+  * write more than 65535 bytes
+  */
+  private static void writeText(String text, DataOutputStream out) throws IOException {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+  * Reads text written by writeText. The bytes are read a block at a time, so that a
+  * damaged length runs into the end of the stream before it can take up the memory
+  * it claims.
+  */
+  private static String readText(DataInputStream in) throws IOException {
+    int length = readCount(in);
+    byte[] block = new byte[Math.min(length, 8192)];
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(block.length);
+    while (length > 0) {
+      int count = Math.min(length, block.length);
+      in.readFully(block, 0, count);
+      bytes.write(block, 0, count);
+      length -= count;
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static void writeMeter(Meter meter, DataOutputStream out) throws IOException {
+    out.writeBoolean(meter != null);
+    if (meter != null) {
+      out.writeInt(meter.getNumerator());
+      out.writeInt(meter.getDenominator());
+    }
+  }
+
+  private static Meter readMeter(DataInputStream in) throws IOException {
+    return in.readBoolean() ? new Meter(in.readInt(), in.readInt()) : null;
+  }
+
+}
@@ -0,0 +1,85 @@
+package interpreter;
+
+import interpreter.Measure.RepeatType;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PieceCacheTest {
+
+  // test to confirm a piece cache loads the same piece it parsed, caches a title too
+  // long for writeUTF, leaves out text that does not parse, and evicts to stay in its size
+  @Test
+  public void pieceCacheTest() throws IOException {
+    String tune = "X:1\nT:Cached\nM:3/4\nL:1/4\nV:upper\nV:lower\nK:F\nV:upper\n|: A B [c2e2] | z3 :|\nV:lower\n[1 F3 | [2 C3 |]\n";
+    File directory = File.createTempFile("pieces", "");
+    directory.delete();
+    PieceCache cache = new PieceCache(directory, 1 << 20);
+
+    Piece parsed = cache.get(tune);
+    assertEquals(new Parser(new Lexer(tune)).parse().toString(), parsed.toString());
+    assertEquals(1, directory.listFiles().length);
+    Piece loaded = cache.get(tune);
+    assertNotSame(parsed, loaded);
+    assertEquals(parsed.toString(), loaded.toString());
+    assertEquals(RepeatType.FIRST_ENDING, loaded.getVoices().get(1).getMeasures().get(0).getRepeatType());
+    assertSame(parsed.getKeySignature(), loaded.getKeySignature());
+
+    // a string too long for writeUTF is still cached
+    StringBuilder title = new StringBuilder();
+    while (title.length() < 70000) {
+      title.append("Long ");
+    }
+    String longTune = tune.replace("Cached", title.toString().trim());
+    cache.get(longTune);
+    assertEquals(2, directory.listFiles().length);
+    assertEquals(title.toString().trim(), cache.get(longTune).getTitle());
+    new File(directory, PieceCache.key(longTune) + ".piece").delete();
+
+    // text that does not parse is not cached
+    try {
+      cache.get("X:1\nT:Broken\nK:C\nA B c d\n");
+      fail("Expected an exception");
+    } catch (IllegalArgumentException e) {
+    }
+    assertEquals(1, directory.listFiles().length);
+
+    // a cache too small for two pieces keeps only the most recent
+    new PieceCache(directory, directory.listFiles()[0].length()).get(tune.replace("Cached", "Other"));
+    assertEquals(1, directory.listFiles().length);
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  // test to confirm tunes read in place that differ only in non-ASCII text are cached apart
+  @Test
+  public void pieceCacheNonAsciiTest() throws IOException {
+    // tunes read in place that differ only in non-ASCII text are cached apart
+    String tune = "X:1\nT:Fr\u00e8re\nK:C\nA B c d |]\n";
+    String other = tune.replace('\u00e8', '\u00ea');
+    CharSequence tuneInPlace = new AsciiCharSequence(ByteBuffer.wrap(tune.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+    CharSequence otherInPlace = new AsciiCharSequence(ByteBuffer.wrap(other.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+    assertFalse(PieceCache.key(tuneInPlace).equals(PieceCache.key(otherInPlace)));
+    assertEquals(PieceCache.key(tune), PieceCache.key(tuneInPlace));
+
+    File directory = File.createTempFile("pieces", "");
+    directory.delete();
+    PieceCache cache = new PieceCache(directory, 1 << 20);
+    assertEquals("Fr\u00e8re", cache.get(tuneInPlace).getTitle());
+    assertEquals("Fr\u00eare", cache.get(otherInPlace).getTitle());
+    assertEquals(2, directory.listFiles().length);
+    assertEquals("Fr\u00e8re", cache.get(tuneInPlace).getTitle());
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+}
@@ -0,0 +1,77 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+* A piece patch is the result of reparsing an edited source. The piece is the piece
+* from before the edit, patched in place: in the voice at each index, the measures
+* from getFirstChangedMeasure up to getFirstChangedMeasure + getInsertedMeasureCount
+* replace the getRemovedMeasureCount measures that were there before. The measures
+* outside that run are the same Measure objects as before, shifted by the change in
+* the number of measures of the voice.
+*
+* If the edit touched the header or a voice switch, the whole piece was parsed again
+* and every measure is new; the removed count of a voice is then the number of
+* measures the voice at its index had before.
+*/
+public class PiecePatch {
+
+  private final Piece piece;
+  private final boolean reparsedAll;
+  private final int[] firstChangedMeasures;
+  private final int[] removedMeasureCounts;
+  private final int[] insertedMeasureCounts;
+
+  public PiecePatch(Piece piece, boolean reparsedAll, int[] firstChangedMeasures, int[] removedMeasureCounts, int[] insertedMeasureCounts) {
+    this.piece = piece;
+    this.reparsedAll = reparsedAll;
+    this.firstChangedMeasures = firstChangedMeasures;
+    this.removedMeasureCounts = removedMeasureCounts;
+    this.insertedMeasureCounts = insertedMeasureCounts;
+  }
+
+  public Piece getPiece() {
+    return this.piece;
+  }
+
+  public boolean isReparsedAll() {
+    return this.reparsedAll;
+  }
+
+  public int getFirstChangedMeasure(int voiceIndex) {
+    return this.firstChangedMeasures[voiceIndex];
+  }
+
+  public int getRemovedMeasureCount(int voiceIndex) {
+    return this.removedMeasureCounts[voiceIndex];
+  }
+
+  public int getInsertedMeasureCount(int voiceIndex) {
+    return this.insertedMeasureCounts[voiceIndex];
+  }
+
+  /**
+  * Lists the indices of the measures of a voice that are new since the edit.
+  * @param voiceIndex    The index of the voice in the piece
+  * @return the indices, in increasing order
+  */
+  public List<Integer> getChangedMeasures(int voiceIndex) {
+    List<Integer> result = new ArrayList<Integer>();
+    for (int i = 0; i < this.insertedMeasureCounts[voiceIndex]; i++) {
+      result.add(this.firstChangedMeasures[voiceIndex] + i);
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    for (int i = 0; i < this.firstChangedMeasures.length; i++) {
+      s.append("Voice " + this.piece.getVoices().get(i).getName() + ": replaced " + this.removedMeasureCounts[i]
+      + " measures with " + this.insertedMeasureCounts[i] + " measures at measure " + this.firstChangedMeasures[i] + "\n");
+    }
+    return s.toString();
+  }
+
+}
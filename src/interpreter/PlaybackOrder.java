@@ -0,0 +1,171 @@
+package interpreter;
+
+import interpreter.Measure.RepeatType;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+* A playback order is the order a voice's measures are performed in, repeats
+* unrolled, as the indices of the measures. It is compiled once from the repeat types
+* of the measures, following the repeats as a PerformanceIterator does, and kept with
+* the number of measures it was compiled from. Each measure is followed by at most
+* one repeat, so the order is never more than about twice as long as the voice.
+*
+* While compiling, the measures whose repeats are malformed are noted, so they can be
+* reported even though they are still played: an end repeat or first ending that goes
+* back to neither a begin repeat, a section end nor the start of the voice, a first
+* ending not followed by a second ending, a second ending without a first ending just
+* before it, and a begin repeat that is never closed. A measure keeps only one repeat
+* type, so a second ending closed by a section end is taken to be one, and an end
+* repeat right after another repeat is taken to close a repeat of its own measure.
+*/
+public final class PlaybackOrder {
+
+  private final int measureCount;
+  private final int[] order;
+  private final int[] malformedRepeats;
+
+  private PlaybackOrder(int measureCount, int[] order, int[] malformedRepeats) {
+    this.measureCount = measureCount;
+    this.order = order;
+    this.malformedRepeats = malformedRepeats;
+  }
+
+  /**
+  * compile
+  * Compiles the playback order of a list of measures
+  * Throws an IllegalArgumentException if a measure has no repeat type.
+  * @param measures  The measures of a voice
+  * @return          The playback order
+  */
+  public static PlaybackOrder compile(List<Measure> measures) {
+    int measureCount = measures.size();
+    RepeatType[] repeatTypes = new RepeatType[measureCount];
+    int i = 0;
+    for (Measure measure : measures) {
+      if (measure.getRepeatType() == null) {
+        throw new IllegalArgumentException("Measure " + i + " has no repeat type");
+      }
+      repeatTypes[i++] = measure.getRepeatType();
+    }
+
+    int[] order = new int[measureCount];
+    int size = 0;
+    PerformanceIterator performance = new PerformanceIterator(measures);
+    while (performance.hasNext()) {
+      performance.next();
+      if (size == order.length) {
+        order = Arrays.copyOf(order, size * 2);
+      }
+      order[size++] = performance.getIndex();
+    }
+    return new PlaybackOrder(measureCount, Arrays.copyOf(order, size), findMalformedRepeats(repeatTypes));
+  }
+
+  /**
+  * findMalformedRepeats
+  * Finds the measures whose repeats are malformed, in one pass over the repeat types
+  * @param repeatTypes   The repeat types of the measures of a voice
+  * @return              The indices of the measures, in ascending order
+  */
+  private static int[] findMalformedRepeats(RepeatType[] repeatTypes) {
+    int[] malformed = new int[0];
+    int count = 0;
+    // the last measure before i with a repeat type other than NONE, or -1
+    int previous = -1;
+    for (int i = 0; i <= repeatTypes.length; i++) {
+      RepeatType repeatType = (i < repeatTypes.length) ? repeatTypes[i] : null;
+      if (repeatType == RepeatType.NONE) {
+        continue;
+      }
+
+      // a begin repeat must be closed by the next repeat
+      if (previous >= 0 && repeatTypes[previous] == RepeatType.BEGIN
+      && repeatType != RepeatType.END && repeatType != RepeatType.FIRST_ENDING) {
+        malformed = add(malformed, count++, previous);
+      }
+      if (repeatType == null) {
+        break;
+      }
+
+      boolean goesBackToStart = previous < 0 || repeatTypes[previous] == RepeatType.BEGIN
+      || repeatTypes[previous] == RepeatType.SECTION_END;
+      boolean wellFormed;
+      if (repeatType == RepeatType.END) {
+        wellFormed = goesBackToStart || previous == i - 1;
+      }
+      else if (repeatType == RepeatType.FIRST_ENDING) {
+        wellFormed = goesBackToStart && i + 1 < repeatTypes.length
+        && (repeatTypes[i + 1] == RepeatType.SECOND_ENDING || repeatTypes[i + 1] == RepeatType.SECTION_END);
+      }
+      else if (repeatType == RepeatType.SECOND_ENDING) {
+        wellFormed = i > 0 && repeatTypes[i - 1] == RepeatType.FIRST_ENDING;
+      }
+      else {
+        wellFormed = true;
+      }
+      if (!wellFormed) {
+        malformed = add(malformed, count++, i);
+      }
+      previous = i;
+    }
+    return Arrays.copyOf(malformed, count);
+  }
+
+  private static int[] add(int[] array, int size, int value) {
+    if (size == array.length) {
+      array = Arrays.copyOf(array, Math.max(4, size * 2));
+    }
+    array[size] = value;
+    return array;
+  }
+
+  /**
+  * Returns the number of measures the order was compiled from
+  */
+  public int getMeasureCount() {
+    return this.measureCount;
+  }
+
+  /**
+  * Returns true if none of the repeats the order was compiled from are malformed
+  */
+  public boolean isWellFormed() {
+    return this.malformedRepeats.length == 0;
+  }
+
+  /**
+  * Returns the indices of the measures whose repeats are malformed, in ascending order
+  */
+  public int[] getMalformedRepeats() {
+    return this.malformedRepeats.clone();
+  }
+
+  /**
+  * Returns the number of measures performed
+  */
+  public int size() {
+    return this.order.length;
+  }
+
+  /**
+  * Returns the index of the measure performed at position in the order
+  */
+  public int get(int position) {
+    return this.order[position];
+  }
+
+  /**
+  * Returns the indices of the measures in the order they are performed
+  */
+  public int[] toArray() {
+    return this.order.clone();
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(this.order);
+  }
+
+}
@@ -0,0 +1,76 @@
+package interpreter;
+
+import interpreter.Measure.RepeatType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PlaybackOrderTest {
+
+  // test to confirm a voice compiles its repeats into a playback order once, compiles it
+  // again after a change, and plays unmatched repeats rather than rejecting them
+  @Test
+  public void playbackOrderTest() {
+    String tune = "X:1\nT:t\nK:C\nab | cd |: ef | [1 ga :| [2 bc | de |]\n";
+    Parser parser = new Parser(new Lexer(tune));
+    Piece piece = parser.parse();
+    Voice voice = piece.getVoices().get(0);
+    assertEquals("[0, 1, 2, 3, 2, 4, 5]", voice.getPlaybackOrder().toString());
+    assertSame(voice.getPlaybackOrder(), voice.getPlaybackOrder());
+    assertEquals(7, voice.getPlaybackOrder().size());
+    assertEquals(3, voice.getPlaybackOrder().get(3));
+
+    // the order is compiled again once reparse changes the repeats
+    int offset = tune.indexOf("|: ef");
+    parser.reparse(offset, 2, "|");
+    assertEquals("[0, 1, 2, 3, 0, 1, 2, 4, 5]", voice.getPlaybackOrder().toString());
+    assertSame(voice.getPlaybackOrder(), new PackedVoice(voice).getPlaybackOrder());
+
+    // unmatched repeats are played rather than rejected
+    List<Measure> measures = new ArrayList<Measure>();
+    RepeatType[] repeatTypes = { RepeatType.NONE, RepeatType.END, RepeatType.SECOND_ENDING,
+      RepeatType.NONE, RepeatType.FIRST_ENDING, RepeatType.NONE };
+    for (RepeatType repeatType : repeatTypes) {
+      Measure measure = new Measure();
+      measure.setRepeatType(repeatType);
+      measures.add(measure);
+    }
+    voice = new Voice(measures);
+    assertEquals("[0, 1, 0, 1, 2, 3, 4, 3, 5]", voice.getPlaybackOrder().toString());
+    assertFalse(voice.getPlaybackOrder().isWellFormed());
+    assertEquals("[2, 4]", Arrays.toString(voice.getPlaybackOrder().getMalformedRepeats()));
+
+    // changes made through getMeasures are seen once the order is invalidated
+    measures.get(1).setRepeatType(RepeatType.NONE);
+    assertEquals("[0, 1, 0, 1, 2, 3, 4, 3, 5]", voice.getPlaybackOrder().toString());
+    voice.invalidatePlaybackOrder();
+    assertEquals("[0, 1, 2, 3, 4, 3, 5]", voice.getPlaybackOrder().toString());
+    voice.addMeasure(new Measure());
+    assertEquals("[0, 1, 2, 3, 4, 3, 5, 6]", voice.getPlaybackOrder().toString());
+
+    // an end repeat that goes back past another repeat, and a begin repeat never closed
+    voice = new Voice();
+    repeatTypes = new RepeatType[] { RepeatType.NONE, RepeatType.END, RepeatType.NONE, RepeatType.END,
+      RepeatType.END, RepeatType.BEGIN, RepeatType.NONE, RepeatType.SECTION_END };
+    for (RepeatType repeatType : repeatTypes) {
+      Measure measure = new Measure();
+      measure.setRepeatType(repeatType);
+      voice.addMeasure(measure);
+    }
+    assertEquals("[3, 5]", Arrays.toString(voice.getPlaybackOrder().getMalformedRepeats()));
+    assertTrue(new Parser(new Lexer(tune)).parse().getVoices().get(0).getPlaybackOrder().isWellFormed());
+
+    voice.getMeasures().get(1).setRepeatType(null);
+    voice.invalidatePlaybackOrder();
+    try {
+      voice.getPlaybackOrder();
+      fail("Expected an exception");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+}
@@ -2,10 +2,8 @@ package interpreter;
 
 import sound.SequencePlayer;
 
-import java.util.List;
-import java.util.ArrayList;
+import java.util.Iterator;
 
-import interpreter.Measure.RepeatType;
 import interpreter.MusicalElement.MusicalElementVisitor;
 
 public class SequenceBuilderVisitor implements MusicalElementVisitor<Integer> {
@@ -29,60 +27,9 @@ public class SequenceBuilderVisitor implements MusicalElementVisitor<Integer> {
   }
 
   public Integer visit(Voice voice) {
-    int i = 0;
-    List<Integer> visitedEndings = new ArrayList<Integer>();
-    while (i < voice.getMeasures().size()) {
-
-      Measure measure = voice.getMeasures().get(i);
-
-      // pass over a first ending if it has been visited
-      if (measure.getRepeatType() == RepeatType.FIRST_ENDING) {
-        if (visitedEndings.contains(i)) {
-          i ++;
-          continue;
-        }
-      }
-
-      measure.accept(this);
-
-      // if we hit a first ending for the first time, backtrack to the start of the repeat
-      if (measure.getRepeatType() == RepeatType.FIRST_ENDING) {
-        // backtrack until we get to the beginning of the piece
-        // or a bar which marks where the repeat should return to
-        visitedEndings.add(i);
-        while (i > 0) {
-          i--;
-          if (voice.getMeasures().get(i).getRepeatType() == RepeatType.BEGIN) {
-            break;
-          }
-          if (voice.getMeasures().get(i).getRepeatType() != RepeatType.NONE) {
-            i++;
-            break;
-          }
-        }
-      }
-      // similarly if we hit an end repeat, backtrack
-      // if we have not yet visited it
-      else if (measure.getRepeatType() == RepeatType.END)
-        if (visitedEndings.contains(i)) {
-          i++;
-        } else {
-          visitedEndings.add(i);
-          while (i > 0) {
-            i--;
-            if (voice.getMeasures().get(i).getRepeatType() == RepeatType.BEGIN) {
-              break;
-            }
-            if (voice.getMeasures().get(i).getRepeatType() != RepeatType.NONE) {
-              i++;
-              break;
-            }
-          }
-        }
-      else {
-        // otherwise the measure is normal so just keep chugging along
-        i++;
-      }
+    Iterator<Measure> measures = voice.performance();
+    while (measures.hasNext()) {
+      measures.next().accept(this);
     }
     return 0;
   }
@@ -103,7 +50,7 @@ public class SequenceBuilderVisitor implements MusicalElementVisitor<Integer> {
   }
 
   public Integer visit(Note note) {
-    int noteDuration = (int)Math.round(this.ticksPerDefaultNoteLength * note.getLength().compute());
+    int noteDuration = note.getDuration().toTicks(this.ticksPerDefaultNoteLength);
     if (note.getPitch() != 'z') {
       player.addNote(note.midiValue(), pos, noteDuration);
     }
@@ -0,0 +1,175 @@
+package interpreter;
+
+import java.util.Arrays;
+
+/**
+* A tick resolution counts the notes of a piece by the denominator of their length in
+* lowest terms, and gives the least common multiple of the denominators, which is the
+* number of ticks per default note length that NoteLengthVisitor computes. A piece
+* seldom has more than a few different denominators, so the count of each is kept in
+* a short array, and the least common multiple is kept up to date as notes are added.
+* Once the last note with some denominator is removed, the least common multiple is
+* found again from the denominators that are left. A tick resolution is not safe for
+* several threads to change at once, but once it is no longer changed, as in a piece
+* that has been built, any number of threads may read it. A shared piece holds a
+* copy that can't be changed.
+*/
+public class TickResolution {
+
+  private int[] denominators = new int[4];
+  private int[] counts = new int[4];
+  private int size;
+  // the least common multiple of the denominators, or 0 if it must be found again;
+  // volatile, and only ever set to a finished value, so readers never see part of one
+  private volatile int ticks = 1;
+  // true if the tick resolution belongs to a shared Piece, and so can't be changed
+  private boolean shared;
+
+  /**
+  * share
+  * Creates a copy of the tick resolution that can't be changed, for a shared Piece
+  * @return The shared copy
+  */
+  TickResolution share() {
+    TickResolution copy = new TickResolution();
+    copy.denominators = Arrays.copyOf(this.denominators, this.denominators.length);
+    copy.counts = Arrays.copyOf(this.counts, this.counts.length);
+    copy.size = this.size;
+    copy.ticks = this.ticks;
+    copy.shared = true;
+    return copy;
+  }
+
+  private void checkNotShared() {
+    if (this.shared) {
+      throw new UnsupportedOperationException("Tick resolution " + this + " is shared and can't be changed");
+    }
+  }
+
+  /**
+  * Counts a note with the passed denominator, in lowest terms
+  */
+  public void add(int denominator) {
+    add(denominator, 1);
+  }
+
+  /**
+  * Counts the notes of a measure
+  */
+  public void add(Measure measure) {
+    for (Chord chord : measure.getChords()) {
+      for (Note note : chord.getNotes()) {
+        add((int)note.getDuration().getDenominator(), 1);
+      }
+    }
+  }
+
+  /**
+  * Counts the notes counted by another tick resolution
+  */
+  public void addAll(TickResolution other) {
+    for (int i = 0; i < other.size; i++) {
+      add(other.denominators[i], other.counts[i]);
+    }
+  }
+
+  private void add(int denominator, int count) {
+    checkNotShared();
+    for (int i = 0; i < this.size; i++) {
+      if (this.denominators[i] == denominator) {
+        this.counts[i] += count;
+        return;
+      }
+    }
+    if (this.size == this.denominators.length) {
+      this.denominators = Arrays.copyOf(this.denominators, this.size * 2);
+      this.counts = Arrays.copyOf(this.counts, this.size * 2);
+    }
+    this.denominators[this.size] = denominator;
+    this.counts[this.size++] = count;
+    if (this.ticks != 0) {
+      try {
+        this.ticks = NoteLengthVisitor.lcm(this.ticks, denominator);
+      } catch (IllegalArgumentException e) {
+        // the notes can still be counted; the error is thrown when the ticks are asked for
+        this.ticks = 0;
+      }
+    }
+  }
+
+  /**
+  * remove
+  * Stops counting a note with the passed denominator, in lowest terms
+  * @param denominator   The denominator of the note's length
+  * @return              False if no note with the denominator was counted
+  */
+  public boolean remove(int denominator) {
+    checkNotShared();
+    for (int i = 0; i < this.size; i++) {
+      if (this.denominators[i] == denominator) {
+        if (--this.counts[i] == 0) {
+          this.size--;
+          this.denominators[i] = this.denominators[this.size];
+          this.counts[i] = this.counts[this.size];
+          this.ticks = 0;
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+  * Stops counting the notes of a measure
+  * @return False if a note of the measure was not counted
+  */
+  public boolean remove(Measure measure) {
+    for (Chord chord : measure.getChords()) {
+      for (Note note : chord.getNotes()) {
+        if (!remove((int)note.getDuration().getDenominator())) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+  * getTicksPerDefaultNoteLength
+  * Returns the least common multiple of the denominators of the notes counted
+  * Throws an IllegalArgumentException if it is too large for an int.
+  * @return The number of ticks per default note length, or 1 if no notes are counted
+  */
+  public int getTicksPerDefaultNoteLength() {
+    int ticks = this.ticks;
+    if (ticks == 0) {
+      ticks = 1;
+      for (int i = 0; i < this.size; i++) {
+        ticks = NoteLengthVisitor.lcm(ticks, this.denominators[i]);
+      }
+      this.ticks = ticks;
+    }
+    return ticks;
+  }
+
+  /**
+  * Returns the number of notes counted
+  */
+  public long getNoteCount() {
+    long noteCount = 0;
+    for (int i = 0; i < this.size; i++) {
+      noteCount += this.counts[i];
+    }
+    return noteCount;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder("TickResolution(ticks=" + getTicksPerDefaultNoteLength());
+    for (int i = 0; i < this.size; i++) {
+      s.append(", 1/" + this.denominators[i] + " x" + this.counts[i]);
+    }
+    return s.append(")").toString();
+  }
+
+}
@@ -0,0 +1,55 @@
+package interpreter;
+
+import java.util.List;
+
+/**
+* A timed performance iterator returns the measures of a voice in the order they are
+* performed, like a PerformanceIterator, and keeps the tick each one starts and ends
+* at. The ticks are counted as SequenceBuilderVisitor counts them: a chord lasts as
+* long as its longest note, and each note is rounded to a whole number of ticks.
+*/
+public class TimedPerformanceIterator extends PerformanceIterator {
+
+  private final int ticksPerDefaultNoteLength;
+  private int startTick;
+  private int endTick;
+
+  /**
+  * Creates an iterator over the performance of a list of measures
+  * @param measures                    The measures of a voice
+  * @param ticksPerDefaultNoteLength   The number of ticks in a default note length
+  */
+  public TimedPerformanceIterator(List<Measure> measures, int ticksPerDefaultNoteLength) {
+    super(measures);
+    this.ticksPerDefaultNoteLength = ticksPerDefaultNoteLength;
+  }
+
+  @Override
+  public Measure next() {
+    Measure measure = super.next();
+    this.startTick = this.endTick;
+    for (Chord chord : measure.getChords()) {
+      int duration = 0;
+      for (Note note : chord.getNotes()) {
+        duration = Math.max(duration, note.getDuration().toTicks(this.ticksPerDefaultNoteLength));
+      }
+      this.endTick += duration;
+    }
+    return measure;
+  }
+
+  /**
+  * Returns the tick the measure last returned by next starts at
+  */
+  public int getStartTick() {
+    return this.startTick;
+  }
+
+  /**
+  * Returns the tick the measure last returned by next ends at, which the next measure starts at
+  */
+  public int getEndTick() {
+    return this.endTick;
+  }
+
+}
@@ -0,0 +1,376 @@
+package interpreter;
+
+import interpreter.Token.TokenType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+* A token buffer is a compact list of tokens that does not allocate an object per token.
+* Each token is stored as its type, the offset of its first character in the source and
+* its length, in parallel primitive arrays. The text of a token is read directly from
+* the source, so a String is only created when one is asked for.
+*
+* A buffer can be brought up to date with an edit to its source in place, by
+* Lexer.relex. The arrays have a gap at the place of the last edit, and the tokens after
+* the gap keep their offset from the end of the source rather than from its start, so
+* they move with the text after an edit without being touched. An edit only moves the
+* tokens between it and the previous edit, and the tokens it replaces.
+*/
+public class TokenBuffer {
+
+  private static final int INITIAL_CAPACITY = 64;
+  private static final TokenType[] tokenTypes = TokenType.values();
+
+  private CharSequence source;
+  private short[] types;
+  private int[] offsets;
+  private int[] lengths;
+  private int size;
+  // the tokens before gapStart are stored from the start of the arrays, and the
+  // rest from gapEnd on, with offsets counted back from the end of the source
+  private int gapStart;
+  private int gapEnd;
+
+  /**
+  * Creates an empty token buffer over source.
+  * @param source    The characters that the tokens added to this buffer point into
+  */
+  public TokenBuffer(CharSequence source) {
+    this(source, INITIAL_CAPACITY);
+  }
+
+  private TokenBuffer(CharSequence source, int capacity) {
+    this.source = source;
+    this.types = new short[Math.max(capacity, 1)];
+    this.offsets = new int[Math.max(capacity, 1)];
+    this.lengths = new int[Math.max(capacity, 1)];
+    this.gapEnd = this.types.length;
+  }
+
+  /**
+  * fromTokens
+  * Creates a token buffer holding the same tokens as a list, over a source made
+  * by concatenating the strings of the tokens
+  * @param tokens    The tokens to copy
+  * @return          A token buffer equivalent to tokens
+  */
+  public static TokenBuffer fromTokens(List<Token> tokens) {
+    StringBuilder source = new StringBuilder();
+    for (Token token : tokens) {
+      source.append(token.getString());
+    }
+    TokenBuffer buffer = new TokenBuffer(source);
+    int offset = 0;
+    for (Token token : tokens) {
+      int length = token.getString().length();
+      buffer.add(token.getType(), offset, length);
+      offset += length;
+    }
+    return buffer;
+  }
+
+  /**
+  * add
+  * Appends a token to the end of the buffer
+  * @param type      The type of the token
+  * @param offset    The offset of the first character of the token in the source
+  * @param length    The number of characters in the token
+  */
+  public void add(TokenType type, int offset, int length) {
+    if (this.gapStart != this.size) {
+      moveGap(this.size);
+    }
+    insert(type, offset, length);
+  }
+
+  /**
+  * Puts a token at the start of the gap, enlarging the arrays if the gap is full
+  */
+  private void insert(TokenType type, int offset, int length) {
+    if (this.gapStart == this.gapEnd) {
+      grow(1);
+    }
+    this.types[this.gapStart] = (short)type.ordinal();
+    this.offsets[this.gapStart] = offset;
+    this.lengths[this.gapStart] = length;
+    this.gapStart++;
+    this.size++;
+  }
+
+  /**
+  * Enlarges the arrays so the gap holds at least needed tokens
+  */
+  private void grow(int needed) {
+    int capacity = Math.max(this.types.length * 2, this.size + needed);
+    int tail = this.size - this.gapStart;
+    short[] newTypes = new short[capacity];
+    int[] newOffsets = new int[capacity];
+    int[] newLengths = new int[capacity];
+    System.arraycopy(this.types, 0, newTypes, 0, this.gapStart);
+    System.arraycopy(this.offsets, 0, newOffsets, 0, this.gapStart);
+    System.arraycopy(this.lengths, 0, newLengths, 0, this.gapStart);
+    System.arraycopy(this.types, this.gapEnd, newTypes, capacity - tail, tail);
+    System.arraycopy(this.offsets, this.gapEnd, newOffsets, capacity - tail, tail);
+    System.arraycopy(this.lengths, this.gapEnd, newLengths, capacity - tail, tail);
+    this.types = newTypes;
+    this.offsets = newOffsets;
+    this.lengths = newLengths;
+    this.gapEnd = capacity - tail;
+  }
+
+  /**
+  * Moves the gap so that index tokens are before it, changing the offsets of the
+  * tokens that cross it between counting from the start and from the end of the source
+  */
+  private void moveGap(int index) {
+    int end = this.source.length();
+    while (this.gapStart > index) {
+      this.gapStart--;
+      this.gapEnd--;
+      this.types[this.gapEnd] = this.types[this.gapStart];
+      this.offsets[this.gapEnd] = this.offsets[this.gapStart] - end;
+      this.lengths[this.gapEnd] = this.lengths[this.gapStart];
+    }
+    while (this.gapStart < index) {
+      this.types[this.gapStart] = this.types[this.gapEnd];
+      this.offsets[this.gapStart] = this.offsets[this.gapEnd] + end;
+      this.lengths[this.gapStart] = this.lengths[this.gapEnd];
+      this.gapStart++;
+      this.gapEnd++;
+    }
+  }
+
+  /**
+  * Returns the position in the arrays of a token
+  */
+  private int slot(int index) {
+    return (index < this.gapStart) ? index : index + this.gapEnd - this.gapStart;
+  }
+
+  /**
+  * Returns the offset in the source of a token, from wherever it is stored
+  */
+  private int offset(int index) {
+    return (index < this.gapStart) ? this.offsets[index] : this.offsets[slot(index)] + this.source.length();
+  }
+
+  /**
+  * clear
+  * Removes all of the tokens from the buffer, keeping its capacity
+  */
+  public void clear() {
+    this.size = 0;
+    this.gapStart = 0;
+    this.gapEnd = this.types.length;
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public CharSequence getSource() {
+    return this.source;
+  }
+
+  public TokenType getType(int index) {
+    checkIndex(index);
+    return tokenTypes[this.types[slot(index)]];
+  }
+
+  public int getOffset(int index) {
+    checkIndex(index);
+    return offset(index);
+  }
+
+  public int getLength(int index) {
+    checkIndex(index);
+    return this.lengths[slot(index)];
+  }
+
+  /**
+  * charAt
+  * Reads a single character of a token from the source
+  * @param index     The index of the token in the buffer
+  * @param position  The position of the character within the token
+  * @return          The character
+  */
+  public char charAt(int index, int position) {
+    checkIndex(index);
+    int length = this.lengths[slot(index)];
+    if (position < 0 || position >= length) {
+      throw new IndexOutOfBoundsException("Position " + position + " out of bounds for token of length " + length);
+    }
+    return this.source.charAt(offset(index) + position);
+  }
+
+  /**
+  * getString
+  * Copies the text of a token out of the source
+  * @param index     The index of the token in the buffer
+  * @return          The text of the token
+  */
+  public String getString(int index) {
+    checkIndex(index);
+    int offset = offset(index);
+    return this.source.subSequence(offset, offset + this.lengths[slot(index)]).toString();
+  }
+
+  /**
+  * getToken
+  * Creates a Token object for one of the tokens in the buffer
+  * @param index     The index of the token in the buffer
+  * @return          The token
+  */
+  public Token getToken(int index) {
+    return new Token(getType(index), getString(index));
+  }
+
+  /**
+  * toTokens
+  * Creates a list of Token objects for all the tokens in the buffer
+  * @return          The list of tokens
+  */
+  public List<Token> toTokens() {
+    List<Token> tokens = new ArrayList<Token>(this.size);
+    for (int i = 0; i < this.size; i++) {
+      tokens.add(getToken(i));
+    }
+    return tokens;
+  }
+
+  /**
+  * firstTokenEndingAfter
+  * Finds the first token that ends after offset, by binary search on the token ends
+  * @param offset    An offset in the source
+  * @return          The index of the first token whose last character is at or after offset,
+  *                  or size() if there is none
+  */
+  int firstTokenEndingAfter(int offset) {
+    int low = 0;
+    int high = this.size;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (offset(middle) + this.lengths[slot(middle)] <= offset) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+  * firstTokenStartingAfter
+  * Finds the first token that starts after offset, by binary search on the token starts
+  * @param offset    An offset in the source
+  * @return          The index of the first token whose first character is after offset,
+  *                  or size() if there is none
+  */
+  int firstTokenStartingAfter(int offset) {
+    int low = 0;
+    int high = this.size;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (offset(middle) <= offset) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+  * makeEditable
+  * Copies the source of the buffer into a GapBuffer, unless it is one already, so
+  * that it can be edited in place. Other buffers over the same characters must be
+  * made over the new source to follow its edits.
+  */
+  void makeEditable() {
+    if (!(this.source instanceof GapBuffer)) {
+      this.source = new GapBuffer(this.source);
+    }
+  }
+
+  /**
+  * prepareEdit
+  * Makes the tokens starting at or after offset move with the text after an edit
+  * made there to the source, so the buffer follows the edit without being touched.
+  * Until the tokens the edit changes are replaced, their offsets are not to be
+  * relied on; the tokens before offset keep theirs.
+  * @param offset    The offset in the source where the edit begins
+  * @return          The number of tokens that start before offset
+  */
+  int prepareEdit(int offset) {
+    int firstMoved = firstTokenStartingAfter(offset - 1);
+    moveGap(firstMoved);
+    return firstMoved;
+  }
+
+  /**
+  * editSource
+  * Edits the source of the buffer in place, copying it into a GapBuffer the first time.
+  * The tokens from firstMoved on move with the text after the edit; the tokens before
+  * it keep their offsets. Until the tokens the edit changed are replaced, the buffer
+  * holds the tokens of the source before the edit.
+  * @param firstMoved    The index of the first token that starts at or after offset
+  * @param offset        The offset in the source where the edit begins
+  * @param removedLength The number of characters the edit removes
+  * @param inserted      The characters the edit inserts in their place
+  */
+  void editSource(int firstMoved, int offset, int removedLength, CharSequence inserted) {
+    makeEditable();
+    moveGap(firstMoved);
+    ((GapBuffer)this.source).replace(offset, removedLength, inserted);
+  }
+
+  /**
+  * replace
+  * Replaces a run of the tokens in place with tokens taken from another buffer over
+  * the same source
+  * @param from              The index of the first token to replace
+  * @param to                The index after the last token to replace
+  * @param replacement       A buffer holding the tokens to put in their place
+  * @param replacementFrom   The index of the first token of replacement to use
+  */
+  void replace(int from, int to, TokenBuffer replacement, int replacementFrom) {
+    moveGap(from);
+    this.gapEnd += to - from;
+    this.size -= to - from;
+    int inserted = replacement.size - replacementFrom;
+    if (this.gapEnd - this.gapStart < inserted) {
+      grow(inserted);
+    }
+    for (int i = replacementFrom; i < replacement.size; i++) {
+      insert(replacement.getType(i), replacement.getOffset(i), replacement.getLength(i));
+    }
+  }
+
+  /**
+  * copyToken
+  * Overwrites one token in the buffer with another, so that a run of tokens can be
+  * compacted in place
+  * @param from      The index of the token to copy
+  * @param to        The index of the token to overwrite
+  */
+  void copyToken(int from, int to) {
+    checkIndex(from);
+    checkIndex(to);
+    int fromSlot = slot(from);
+    int toSlot = slot(to);
+    int offset = offset(from);
+    this.types[toSlot] = this.types[fromSlot];
+    this.offsets[toSlot] = (to < this.gapStart) ? offset : offset - this.source.length();
+    this.lengths[toSlot] = this.lengths[fromSlot];
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + this.size);
+    }
+  }
+
+}
@@ -0,0 +1,67 @@
+package interpreter;
+
+import interpreter.Token.TokenType;
+
+/**
+* A token patch is the result of re-lexing an edited source. It holds the tokens of the
+* whole edited source, and the run of tokens that differ from the tokens of the source
+* before the edit: the tokens from firstChangedToken up to firstChangedToken +
+* insertedTokenCount replace the removedTokenCount tokens that were there before. The
+* tokens outside that run are the same as before, shifted by the length of the edit.
+* Since the tokens are edited in place, the patch keeps the types of the tokens that
+* were removed and the text the edit removed, so that the edit can be looked at or
+* undone afterwards.
+*/
+public class TokenPatch {
+
+  private final TokenBuffer tokens;
+  private final int firstChangedToken;
+  private final TokenType[] removedTypes;
+  private final int insertedTokenCount;
+  private final String removedText;
+
+  public TokenPatch(TokenBuffer tokens, int firstChangedToken, TokenType[] removedTypes, int insertedTokenCount, String removedText) {
+    this.tokens = tokens;
+    this.firstChangedToken = firstChangedToken;
+    this.removedTypes = removedTypes;
+    this.insertedTokenCount = insertedTokenCount;
+    this.removedText = removedText;
+  }
+
+  public TokenBuffer getTokens() {
+    return this.tokens;
+  }
+
+  public int getFirstChangedToken() {
+    return this.firstChangedToken;
+  }
+
+  public int getRemovedTokenCount() {
+    return this.removedTypes.length;
+  }
+
+  /**
+  * Returns the type of one of the tokens the edit removed
+  * @param index     The position of the token in the removed run
+  */
+  public TokenType getRemovedType(int index) {
+    return this.removedTypes[index];
+  }
+
+  public int getInsertedTokenCount() {
+    return this.insertedTokenCount;
+  }
+
+  /**
+  * Returns the text the edit removed from the source
+  */
+  public String getRemovedText() {
+    return this.removedText;
+  }
+
+  @Override
+  public String toString() {
+    return "Replaced " + getRemovedTokenCount() + " tokens with " + this.insertedTokenCount + " tokens at token " + this.firstChangedToken;
+  }
+
+}
@@ -0,0 +1,488 @@
+package interpreter;
+
+import interpreter.Token.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+* A token stream scans abc source on demand, producing one token per call to next.
+* The source is either a CharSequence (a String or a CharBuffer) or a Reader. When
+* reading from a Reader only a small window of characters around the current token
+* is kept in memory, so arbitrarily large inputs can be lexed with bounded memory.
+*
+* Characters that cannot begin any token are collected as the stream is consumed and
+* reported in an IllegalArgumentException once the end of the input is reached.
+*/
+public class TokenStream implements Iterator<Token> {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  // exactly one of sequence and reader is non-null
+  private final CharSequence sequence;
+  private final Reader reader;
+  // the offset in sequence at which the stream ends
+  private final int limit;
+
+  // the window of characters read from the reader; buffer[0] is at absolute offset bufferOffset
+  private char[] buffer;
+  private int bufferOffset;
+  private int bufferLength;
+  private boolean readerExhausted;
+
+  // absolute offset of the next character to scan
+  private int position;
+  // absolute offset of the first character of the token being scanned
+  private int tokenStart;
+
+  private Token nextToken;
+  private boolean finished;
+  private final StringBuilder invalidCharacters = new StringBuilder();
+
+  /**
+  * Creates a token stream over a sequence of characters held in memory.
+  * @param sequence  The characters to tokenize
+  */
+  public TokenStream(CharSequence sequence) {
+    this(sequence, 0, sequence.length());
+  }
+
+  /**
+  * Creates a token stream over part of a sequence of characters held in memory.
+  * start must not be inside a token or a comment, and the stream ends at end as
+  * if it were the end of the input. The offsets of the tokens are still offsets
+  * in the whole sequence.
+  * @param sequence  The characters to tokenize
+  * @param start     The offset to begin scanning from
+  * @param end       The offset to stop scanning at
+  */
+  TokenStream(CharSequence sequence, int start, int end) {
+    this.sequence = sequence;
+    this.reader = null;
+    this.limit = end;
+    this.position = start;
+  }
+
+  /**
+  * Creates a token stream that reads characters from reader as tokens are requested.
+  * The reader is not closed by the stream.
+  * @param reader    The source of the characters to tokenize
+  */
+  public TokenStream(Reader reader) {
+    this.sequence = null;
+    this.reader = reader;
+    this.limit = -1;
+    this.buffer = new char[BUFFER_SIZE];
+  }
+
+  /**
+  * Returns true if there is another token in the input.
+  * Throws an IllegalArgumentException when the end of the input is reached
+  * if the input had illegal characters in it.
+  */
+  public boolean hasNext() {
+    if (this.nextToken == null && !this.finished) {
+      this.nextToken = scan();
+      if (this.nextToken == null) {
+        this.finished = true;
+        checkInvalidCharacters();
+      }
+    }
+    return this.nextToken != null;
+  }
+
+  /**
+  * Returns the next token in the input.
+  */
+  public Token next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Token token = this.nextToken;
+    this.nextToken = null;
+    return token;
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+  * drainInto
+  * Scans all of the remaining input, appending each token to buffer without creating
+  * Token objects. Only valid for a stream over a CharSequence that is the source of
+  * buffer, and only before any token has been taken from the stream with next.
+  * Throws an IllegalArgumentException if the input has illegal characters in it.
+  * @param buffer    The buffer to add the tokens to
+  */
+  void drainInto(TokenBuffer buffer) {
+    if (this.sequence == null || buffer.getSource() != this.sequence) {
+      throw new IllegalArgumentException("Token buffer source does not match the token stream");
+    }
+    TokenType type;
+    while ((type = scanType()) != null) {
+      buffer.add(type, this.tokenStart, this.position - this.tokenStart);
+    }
+    this.finished = true;
+    checkInvalidCharacters();
+  }
+
+  /**
+  * nextType
+  * Scans the next token without creating a Token object. Its extent is then
+  * given by getTokenStart and getTokenEnd.
+  * @return The type of the next token, or null if the end of the input was reached
+  */
+  TokenType nextType() {
+    TokenType type = scanType();
+    if (type == null) {
+      this.finished = true;
+    }
+    return type;
+  }
+
+  /**
+  * Returns the offset of the first character of the token last scanned by nextType
+  */
+  int getTokenStart() {
+    return this.tokenStart;
+  }
+
+  /**
+  * Returns the offset after the last character of the token last scanned by nextType
+  */
+  int getTokenEnd() {
+    return this.position;
+  }
+
+  /**
+  * Returns the text of the token last scanned by nextType
+  */
+  String getTokenText() {
+    return text(this.tokenStart, this.position);
+  }
+
+  /**
+  * Returns the characters the stream scans, or null if it reads from a reader
+  */
+  CharSequence getSource() {
+    return this.sequence;
+  }
+
+  /**
+  * skipRemaining
+  * Scans the rest of the input without producing tokens, so that any characters
+  * in it that cannot begin a token are found
+  */
+  void skipRemaining() {
+    while (scanType() != null) {
+      continue;
+    }
+    this.finished = true;
+  }
+
+  /**
+  * Returns true if any characters scanned so far could not begin a token
+  */
+  boolean hasInvalidCharacters() {
+    return this.invalidCharacters.length() > 0;
+  }
+
+  /**
+  * checkInvalidCharacters
+  * Throws an IllegalArgumentException if any characters scanned so far could not begin a token
+  */
+  void checkInvalidCharacters() {
+    if (this.invalidCharacters.length() > 0) {
+      throw new IllegalArgumentException("Invalid Characters Detected In Input: " + this.invalidCharacters);
+    }
+  }
+
+  /**
+  * scan
+  * Scans forward from the current position to the end of the next token
+  * @return The next token, or null if the end of the input was reached
+  */
+  private Token scan() {
+    TokenType type = scanType();
+    if (type == null) {
+      return null;
+    }
+    return new Token(type, text(this.tokenStart, this.position));
+  }
+
+  /**
+  * scanType
+  * Scans forward from the current position to the end of the next token, leaving
+  * the token between tokenStart and position
+  * @return The type of the next token, or null if the end of the input was reached
+  */
+  private TokenType scanType() {
+
+    while (true) {
+
+      int c = peek(this.position);
+      if (c < 0) {
+        return null;
+      }
+      int next = peek(this.position + 1);
+      this.tokenStart = this.position;
+      TokenType type = null;
+
+      switch (c) {
+
+        // whitespace separates tokens but is otherwise ignored
+        case ' ':
+        case '\t':
+        case '\n':
+        this.position++;
+        continue;
+
+        case '\r':
+        if (next == '\n') {
+          this.position += 2;
+          continue;
+        }
+        break;
+
+        // in abc, comments begin with the '%' symbol and run to the end of the line
+        case '%':
+        this.position = endOfLine(this.position + 1);
+        continue;
+
+        case 'C':
+        case 'K':
+        case 'L':
+        case 'M':
+        case 'Q':
+        case 'T':
+        case 'X':
+        if (next == ':') {
+          type = TokenType.HEADER_FIELD;
+          this.position = endOfLine(this.position);
+        }
+        else if (c == 'C') {
+          type = TokenType.NOTE_NAME;
+          this.position++;
+        }
+        break;
+
+        case 'V':
+        if (next == ':') {
+          type = TokenType.VOICE;
+          this.position = endOfLine(this.position);
+        }
+        break;
+
+        case 'A': case 'B': case 'D': case 'E': case 'F': case 'G':
+        case 'a': case 'b': case 'c': case 'd': case 'e': case 'f': case 'g':
+        case 'z':
+        type = TokenType.NOTE_NAME;
+        this.position++;
+        break;
+
+        case '(':
+        if (next == '2' || next == '3' || next == '4') {
+          type = TokenType.TUPLET;
+          this.position += 2;
+        }
+        break;
+
+        case '^':
+        case '_':
+        type = TokenType.NOTE_ACCIDENTAL;
+        while (peek(this.position) == c) {
+          this.position++;
+        }
+        break;
+
+        case '=':
+        type = TokenType.NOTE_ACCIDENTAL;
+        this.position++;
+        break;
+
+        case '\'':
+        case ',':
+        type = TokenType.NOTE_OCTAVE_MODIFIER;
+        this.position++;
+        break;
+
+        case '1': case '2': case '3': case '4': case '5':
+        case '6': case '7': case '8': case '9':
+        case '/':
+        // a length is an optional numerator, optionally followed by a
+        // slash and an optional denominator
+        type = TokenType.NOTE_LENGTH;
+        this.position = skipDigits(this.position);
+        if (peek(this.position) == '/') {
+          this.position = skipDigits(this.position + 1);
+        }
+        break;
+
+        case '|':
+        if (next == ':') {
+          type = TokenType.BAR_BEGIN_REPEAT;
+          this.position += 2;
+        }
+        else if (next == ']' || next == '|') {
+          type = TokenType.BAR;
+          this.position += 2;
+        }
+        else {
+          type = TokenType.BAR;
+          this.position++;
+        }
+        break;
+
+        case ':':
+        if (next == '|') {
+          type = TokenType.BAR_END_REPEAT;
+          this.position += 2;
+        }
+        break;
+
+        case '[':
+        if (next == '|') {
+          type = TokenType.BAR;
+          this.position += 2;
+        }
+        else if (next == '1') {
+          type = TokenType.FIRST_ENDING;
+          this.position += 2;
+        }
+        else if (next == '2') {
+          type = TokenType.SECOND_ENDING;
+          this.position += 2;
+        }
+        else {
+          type = TokenType.CHORD_BEGIN;
+          this.position++;
+        }
+        break;
+
+        case ']':
+        type = TokenType.CHORD_END;
+        this.position++;
+        break;
+
+        default:
+        break;
+      }
+
+      if (type == null) {
+        this.position = this.tokenStart + 1;
+        if (this.sequence instanceof AsciiCharSequence && c == AsciiCharSequence.NON_ASCII) {
+          // report the characters the bytes stand for, not the replacement character
+          while (peek(this.position) == AsciiCharSequence.NON_ASCII) {
+            this.position++;
+          }
+          this.invalidCharacters.append(this.sequence.subSequence(this.tokenStart, this.position).toString());
+        }
+        else {
+          this.invalidCharacters.append((char)c);
+        }
+        continue;
+      }
+
+      return type;
+    }
+  }
+
+  /**
+  * endOfLine
+  * Finds the end of the current line, stopping early at the start of a comment
+  * @param start     The absolute offset to begin looking from
+  * @return          The offset of the first line terminator or '%' at or after start
+  */
+  private int endOfLine(int start) {
+    int i = start;
+    while (true) {
+      int c = peek(i);
+      if (c < 0 || c == '\n' || c == '\r' || c == '%' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+        return i;
+      }
+      i++;
+    }
+  }
+
+  /**
+  * skipDigits
+  * Advances past a run of the digits 1-9, which are the only digits allowed in note lengths
+  * @param start     The absolute offset to begin skipping from
+  * @return          The offset of the first character at or after start that is not such a digit
+  */
+  private int skipDigits(int start) {
+    int i = start;
+    while (peek(i) >= '1' && peek(i) <= '9') {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+  * peek
+  * Looks at a character without consuming it, reading more of the input if necessary
+  * @param index     The absolute offset of the character, at or after the start of the current token
+  * @return          The character at index, or -1 if index is past the end of the input
+  */
+  private int peek(int index) {
+    if (this.sequence != null) {
+      return index < this.limit ? this.sequence.charAt(index) : -1;
+    }
+    while (index - this.bufferOffset >= this.bufferLength) {
+      if (!fill()) {
+        return -1;
+      }
+    }
+    return this.buffer[index - this.bufferOffset];
+  }
+
+  /**
+  * fill
+  * Reads more characters from the reader into the window, discarding the characters
+  * before the current token and growing the window if the token fills it
+  * @return  false if the reader has no more characters
+  */
+  private boolean fill() {
+    if (this.readerExhausted) {
+      return false;
+    }
+    int keep = this.tokenStart - this.bufferOffset;
+    if (keep > 0) {
+      System.arraycopy(this.buffer, keep, this.buffer, 0, this.bufferLength - keep);
+      this.bufferLength -= keep;
+      this.bufferOffset = this.tokenStart;
+    }
+    if (this.bufferLength == this.buffer.length) {
+      char[] larger = new char[this.buffer.length * 2];
+      System.arraycopy(this.buffer, 0, larger, 0, this.bufferLength);
+      this.buffer = larger;
+    }
+    try {
+      int count = this.reader.read(this.buffer, this.bufferLength, this.buffer.length - this.bufferLength);
+      if (count < 0) {
+        this.readerExhausted = true;
+        return false;
+      }
+      this.bufferLength += count;
+      return true;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+  * text
+  * Copies the characters between two offsets of the current token into a string
+  */
+  private String text(int start, int end) {
+    if (this.sequence != null) {
+      return this.sequence.subSequence(start, end).toString();
+    }
+    return new String(this.buffer, start - this.bufferOffset, end - start);
+  }
+
+}
@@ -0,0 +1,104 @@
+package interpreter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+* A tune catalog stores the headers of the tunes of a collection in a compact
+* binary file, so a library can be listed without reading the abc files again.
+*
+* The file holds a magic number and a format version, followed by one record per
+* tune and a terminating zero byte. A record is a one byte, then the offset of the
+* tune, its index and tempo as ints, its strings in modified UTF-8 and the names of
+* its voices after their count. The records are written as they are produced, so a
+* catalog can be written straight from a HeaderScanner in constant memory.
+*/
+public class TuneCatalog {
+
+  private static final int MAGIC = 0x41424343;
+  private static final int VERSION = 1;
+
+  /**
+  * write
+  * Writes a catalog of tune headers to a stream. The stream is flushed but not closed.
+  * @param headers   The headers of the tunes, such as a HeaderScanner
+  * @param out       The stream to write the catalog to
+  * @exception       Throws IOException if there was an error writing to the stream
+  * @return          The number of tunes written
+  */
+  public static int write(Iterator<TuneHeader> headers, OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    int count = 0;
+    while (headers.hasNext()) {
+      TuneHeader header = headers.next();
+      data.writeByte(1);
+      data.writeInt(header.getOffset());
+      data.writeInt(header.getIndex());
+      data.writeUTF(header.getTitle());
+      data.writeUTF(header.getComposer());
+      data.writeUTF(header.getMeter());
+      data.writeUTF(header.getDefaultNoteLength());
+      data.writeInt(header.getTempo());
+      data.writeBoolean(header.getKey() != null);
+      if (header.getKey() != null) {
+        data.writeUTF(header.getKey());
+      }
+      data.writeInt(header.getVoices().size());
+      for (String voice : header.getVoices()) {
+        data.writeUTF(voice);
+      }
+      count++;
+    }
+    data.writeByte(0);
+    data.flush();
+    return count;
+  }
+
+  /**
+  * read
+  * Reads a catalog written by write. The stream is not closed.
+  * @param in        The stream to read the catalog from
+  * @exception       Throws IOException if there was an error reading the stream, or
+  *                  if it does not hold a catalog of this version
+  * @return          The headers of the tunes, in the order they were written
+  */
+  public static List<TuneHeader> read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+    if (data.readInt() != MAGIC) {
+      throw new IOException("Stream does not hold a tune catalog");
+    }
+    int version = data.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported tune catalog version " + version);
+    }
+    List<TuneHeader> result = new ArrayList<TuneHeader>();
+    while (data.readByte() != 0) {
+      int offset = data.readInt();
+      int index = data.readInt();
+      String title = data.readUTF();
+      String composer = data.readUTF();
+      String meter = data.readUTF();
+      String defaultNoteLength = data.readUTF();
+      int tempo = data.readInt();
+      String key = data.readBoolean() ? data.readUTF() : null;
+      int voiceCount = data.readInt();
+      List<String> voices = new ArrayList<String>(voiceCount);
+      for (int i = 0; i < voiceCount; i++) {
+        voices.add(data.readUTF());
+      }
+      result.add(new TuneHeader(offset, index, title, composer, meter, defaultNoteLength, tempo, key, voices));
+    }
+    return result;
+  }
+
+}
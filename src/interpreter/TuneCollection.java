@@ -0,0 +1,75 @@
+package interpreter;
+
+import java.util.List;
+
+/**
+* A tune collection gives the tunes of an abc collection by their position in it, and
+* finds them by their index or title, parsing a tune only when it is asked for. It is
+* implemented by TuneIndex, which scans the collection each time it is created, and by
+* TuneIndexFile, which keeps what it found in a file next to the collection.
+*/
+public interface TuneCollection {
+
+  /**
+  * Returns the number of tunes in the collection
+  */
+  public int size();
+
+  /**
+  * Returns the offset of the first character of a tune in the collection
+  * @param tune      The position of the tune in the collection
+  */
+  public int getOffset(int tune);
+
+  /**
+  * Returns the headers of a tune
+  * @param tune      The position of the tune in the collection
+  */
+  public TuneHeader getHeader(int tune);
+
+  /**
+  * Returns the value of the index header ('X') of a tune, or -1 if it has none that can be read
+  * @param tune      The position of the tune in the collection
+  */
+  public int getIndexNumber(int tune);
+
+  /**
+  * Returns the title header ('T') of a tune
+  * @param tune      The position of the tune in the collection
+  */
+  public String getTitle(int tune);
+
+  /**
+  * find
+  * Finds the tune with the passed index header ('X') value
+  * @param indexNumber   The value of the index header of the tune
+  * @return              The position of the first tune with that index, or -1 if there is none
+  */
+  public int find(int indexNumber);
+
+  /**
+  * findByTitle
+  * Finds the tunes whose title starts with the passed prefix, ignoring case
+  * @param prefix    The start of the title
+  * @return          The positions of the tunes, in the order they appear
+  */
+  public List<Integer> findByTitle(String prefix);
+
+  /**
+  * getTuneText
+  * Returns the characters of one tune, from its index header up to the next tune
+  * @param tune      The position of the tune in the collection
+  * @return          The characters of the tune, sharing the storage of the collection
+  */
+  public CharSequence getTuneText(int tune);
+
+  /**
+  * parseTune
+  * Lexes and parses a single tune of the collection into a Piece, reading none of
+  * the other tunes. Throws an IllegalArgumentException if the tune is not valid abc.
+  * @param tune      The position of the tune in the collection
+  * @return          The piece produced by parsing the tune
+  */
+  public Piece parseTune(int tune);
+
+}
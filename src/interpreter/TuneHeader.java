@@ -0,0 +1,111 @@
+package interpreter;
+
+import java.util.List;
+
+/**
+* A tune header holds the header fields of one tune of a collection, as read by a
+* HeaderScanner without parsing the tune. Fields the tune does not set have the
+* defaults the parser gives them; the meter and default note length are the text
+* of their headers, with whitespace removed and the common time symbols spelt out.
+*/
+public class TuneHeader {
+
+  private final int offset;
+  private final int index;
+  private final String title;
+  private final String composer;
+  private final String meter;
+  private final String defaultNoteLength;
+  private final int tempo;
+  private final String key;
+  private final List<String> voices;
+
+  public TuneHeader(int offset, int index, String title, String composer, String meter,
+  String defaultNoteLength, int tempo, String key, List<String> voices) {
+    this.offset = offset;
+    this.index = index;
+    this.title = title;
+    this.composer = composer;
+    this.meter = meter;
+    this.defaultNoteLength = defaultNoteLength;
+    this.tempo = tempo;
+    this.key = key;
+    this.voices = voices;
+  }
+
+  /**
+  * Returns the offset of the start of the tune in the collection
+  */
+  public int getOffset() {
+    return this.offset;
+  }
+
+  /**
+  * Returns the value of the index header ('X'), or -1 if the tune has none that can be read
+  */
+  public int getIndex() {
+    return this.index;
+  }
+
+  public String getTitle() {
+    return this.title;
+  }
+
+  public String getComposer() {
+    return this.composer;
+  }
+
+  public String getMeter() {
+    return this.meter;
+  }
+
+  public String getDefaultNoteLength() {
+    return this.defaultNoteLength;
+  }
+
+  /**
+  * Returns the value of the tempo header ('Q'), or -1 if the tune has one that can't be read
+  */
+  public int getTempo() {
+    return this.tempo;
+  }
+
+  /**
+  * Returns the value of the key signature header ('K'), or null if the tune has none
+  */
+  public String getKey() {
+    return this.key;
+  }
+
+  /**
+  * Returns the names of the voices declared in the header, in the order they are declared
+  */
+  public List<String> getVoices() {
+    return this.voices;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof TuneHeader)) {
+      return false;
+    }
+    TuneHeader that = (TuneHeader)other;
+    return this.offset == that.offset && this.index == that.index && this.tempo == that.tempo
+    && this.title.equals(that.title) && this.composer.equals(that.composer)
+    && this.meter.equals(that.meter) && this.defaultNoteLength.equals(that.defaultNoteLength)
+    && (this.key == null ? that.key == null : this.key.equals(that.key))
+    && this.voices.equals(that.voices);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * this.offset + this.title.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return this.index + "\t" + this.title + "\t" + this.composer + "\t" + this.meter + "\t"
+    + this.defaultNoteLength + "\t" + this.tempo + "\t" + this.key + "\t" + this.voices;
+  }
+
+}
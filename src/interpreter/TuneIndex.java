@@ -0,0 +1,159 @@
+package interpreter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+* A tune index finds the tunes of an abc collection and reads the headers of each,
+* without lexing or parsing any tune body.
+*
+* The tunes and their headers are found by a HeaderScanner, in a single pass over the
+* characters that only reads the header lines and the start of every other line. A
+* tune is then parsed on demand by handing the parser just its
+* own range of the source. Over a file read with Util.readCharSequenceFromFile the
+* offsets are byte offsets into the mapped file, and only the pages holding the
+* tune's text are read, so fetching one tune costs the same however many tunes the
+* file holds.
+*/
+public class TuneIndex implements TuneCollection {
+
+  private final CharSequence source;
+  private final TuneHeader[] headers;
+
+  /**
+  * Creates the index of the tunes in the passed collection, scanning it once.
+  *
+  * @param source
+  *            The characters of the collection.
+  */
+  public TuneIndex(CharSequence source) {
+    this.source = source;
+    List<TuneHeader> headers = new ArrayList<TuneHeader>();
+    HeaderScanner scanner = new HeaderScanner(source);
+    while (scanner.hasNext()) {
+      headers.add(scanner.next());
+    }
+    this.headers = headers.toArray(new TuneHeader[headers.size()]);
+  }
+
+  /**
+  * fromFile
+  * Creates the index of the tunes in a collection file, which is memory-mapped
+  * rather than read into memory
+  * @param path      The path of the file
+  * @exception       Throws IOException if there was an error reading the file
+  * @return          The index of the tunes in the file at path
+  */
+  public static TuneIndex fromFile(String path) throws IOException {
+    return new TuneIndex(Util.readCharSequenceFromFile(path));
+  }
+
+  /**
+  * Returns the number of tunes in the collection
+  */
+  public int size() {
+    return this.headers.length;
+  }
+
+  /**
+  * Returns the offset of the first character of a tune in the collection
+  * @param tune      The position of the tune in the collection
+  */
+  public int getOffset(int tune) {
+    return this.headers[tune].getOffset();
+  }
+
+  /**
+  * Returns the offset after the last character of a tune, which is the start of the next tune
+  * @param tune      The position of the tune in the collection
+  */
+  public int getEnd(int tune) {
+    return (tune + 1 < this.headers.length) ? this.headers[tune + 1].getOffset() : this.source.length();
+  }
+
+  /**
+  * Returns the headers of a tune
+  * @param tune      The position of the tune in the collection
+  */
+  public TuneHeader getHeader(int tune) {
+    return this.headers[tune];
+  }
+
+  /**
+  * Returns the value of the index header ('X') of a tune, or -1 if it has none that can be read
+  * @param tune      The position of the tune in the collection
+  */
+  public int getIndexNumber(int tune) {
+    return this.headers[tune].getIndex();
+  }
+
+  public String getTitle(int tune) {
+    return this.headers[tune].getTitle();
+  }
+
+  public String getComposer(int tune) {
+    return this.headers[tune].getComposer();
+  }
+
+  /**
+  * Returns the key signature header ('K') of a tune, or null if it has none
+  * @param tune      The position of the tune in the collection
+  */
+  public String getKey(int tune) {
+    return this.headers[tune].getKey();
+  }
+
+  /**
+  * find
+  * Finds the tune with the passed index header ('X') value
+  * @param indexNumber   The value of the index header of the tune
+  * @return              The position of the first tune with that index, or -1 if there is none
+  */
+  public int find(int indexNumber) {
+    for (int tune = 0; tune < this.headers.length; tune++) {
+      if (this.headers[tune].getIndex() == indexNumber) {
+        return tune;
+      }
+    }
+    return -1;
+  }
+
+  /**
+  * findByTitle
+  * Finds the tunes whose title starts with the passed prefix, ignoring case
+  * @param prefix    The start of the title
+  * @return          The positions of the tunes, in the order they appear
+  */
+  public List<Integer> findByTitle(String prefix) {
+    List<Integer> result = new ArrayList<Integer>();
+    for (int tune = 0; tune < this.headers.length; tune++) {
+      if (this.headers[tune].getTitle().regionMatches(true, 0, prefix, 0, prefix.length())) {
+        result.add(tune);
+      }
+    }
+    return result;
+  }
+
+  /**
+  * getTuneText
+  * Returns the characters of one tune, from its index header up to the next tune
+  * @param tune      The position of the tune in the collection
+  * @return          The characters of the tune, sharing the storage of the collection
+  */
+  public CharSequence getTuneText(int tune) {
+    return this.source.subSequence(getOffset(tune), getEnd(tune));
+  }
+
+  /**
+  * parseTune
+  * Lexes and parses a single tune of the collection into a Piece, reading none of
+  * the other tunes. Throws an IllegalArgumentException if the tune is not valid abc.
+  * @param tune      The position of the tune in the collection
+  * @return          The piece produced by parsing the tune
+  */
+  public Piece parseTune(int tune) {
+    return new Parser(new Lexer(getTuneText(tune))).parse();
+  }
+
+}
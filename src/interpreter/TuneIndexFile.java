@@ -0,0 +1,531 @@
+package interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+* A tune index file is a TuneCollection kept on disk next to its collection, so that a
+* collection opened again does not have to be scanned again.
+*
+* The sidecar file, named after the collection with ".idx" added, holds a fixed-width
+* record for each tune and a pool of the header strings, each stored once however many
+* tunes share it. A record holds the offset, length, index and tempo of its tune and the
+* positions of its strings in the pool. Two tables of record numbers, one ordered by
+* index and one by title, let find and findByTitle use a binary search. The file is
+* memory-mapped, so opening it reads only its header, and a lookup reads only the
+* records and strings it visits.
+*
+* The sidecar also records the size, modification time and a hash of the contents of
+* the collection it was built from, and how the collection was read: its offsets are
+* byte offsets when Util.readCharSequenceFromFile reads the file in place, and
+* character offsets when it decodes it, depending on the platform charset. The
+* sidecar is used only if it was built from a collection read the same way, the size
+* matches and either the modification time or the hash does; otherwise it is rebuilt,
+* by a HeaderScanner. A CRC-32 of everything after the header is checked when the
+* sidecar is opened, so a damaged sidecar is rebuilt rather than read.
+*/
+public class TuneIndexFile implements TuneCollection {
+
+  private static final int MAGIC = 0x41424349;
+  private static final int VERSION = 2;
+
+  // the layout of the header: magic, version, then these fields
+  private static final int SIZE_POSITION = 8;
+  private static final int MODIFIED_POSITION = 16;
+  private static final int HASH_POSITION = 24;
+  private static final int COUNT_POSITION = 32;
+  private static final int POOL_POSITION = 36;
+  private static final int ENCODING_POSITION = 40;
+  private static final int CHECKSUM_POSITION = 44;
+  private static final int HEADER_SIZE = 48;
+
+  // the layout of a record
+  private static final int OFFSET_FIELD = 0;
+  private static final int LENGTH_FIELD = 4;
+  private static final int INDEX_FIELD = 8;
+  private static final int TEMPO_FIELD = 12;
+  private static final int TITLE_FIELD = 16;
+  private static final int COMPOSER_FIELD = 20;
+  private static final int METER_FIELD = 24;
+  private static final int NOTE_LENGTH_FIELD = 28;
+  private static final int KEY_FIELD = 32;
+  private static final int VOICES_FIELD = 36;
+  private static final int RECORD_SIZE = 40;
+
+  private final CharSequence source;
+  private final ByteBuffer index;
+  private final int count;
+  private final int indexOrderStart;
+  private final int titleOrderStart;
+  private final int poolStart;
+
+  private TuneIndexFile(CharSequence source, ByteBuffer index) {
+    this.source = source;
+    this.index = index;
+    this.count = index.getInt(COUNT_POSITION);
+    this.indexOrderStart = HEADER_SIZE + this.count * RECORD_SIZE;
+    this.titleOrderStart = this.indexOrderStart + this.count * 4;
+    this.poolStart = index.getInt(POOL_POSITION);
+  }
+
+  /**
+  * open
+  * Opens the index of a collection file, building the sidecar index first if it is
+  * missing or out of date. If the sidecar cannot be written, the index is kept in
+  * memory instead.
+  * @param path      The path of the collection file
+  * @exception       Throws IOException if there was an error reading the collection
+  * @return          The index of the tunes in the file at path
+  */
+  public static TuneIndexFile open(String path) throws IOException {
+    return open(path, Util.readCharSequenceFromFile(path));
+  }
+
+  /**
+  * open
+  * Opens the index of a collection file like open(String), given the characters of
+  * the file as they were read
+  * @param path      The path of the collection file
+  * @param source    The characters of the file
+  * @exception       Throws IOException if there was an error reading the collection
+  * @return          The index of the tunes in source
+  */
+  static TuneIndexFile open(String path, CharSequence source) throws IOException {
+
+    File file = new File(path);
+    File sidecar = new File(path + ".idx");
+    long size = file.length();
+    long modified = file.lastModified();
+    String encoding = encoding(source);
+
+    ByteBuffer index = null;
+    if (sidecar.isFile() && sidecar.length() >= HEADER_SIZE) {
+      index = map(sidecar);
+      if (!isCurrent(index, file, size, modified, encoding, sidecar)) {
+        index = null;
+      }
+    }
+
+    if (index == null) {
+      byte[] built = build(source, size, modified, hash(file), encoding);
+      try {
+        write(built, sidecar);
+        index = map(sidecar);
+      } catch (IOException e) {
+        index = ByteBuffer.wrap(built);
+      }
+    }
+
+    return new TuneIndexFile(source, index);
+  }
+
+  /**
+  * Describes how the characters of a collection were read, which decides what its
+  * offsets count: the bytes of the file read in place, or the characters decoded
+  * from it, in the platform charset either way
+  */
+  private static String encoding(CharSequence source) {
+    return (source instanceof AsciiCharSequence ? "bytes " : "chars ") + Charset.defaultCharset().name();
+  }
+
+  /**
+  * isCurrent
+  * Checks that a sidecar index is intact and was built from the collection as it is
+  * now, read the same way. When only the modification time differs, the contents are
+  * hashed, and if they are unchanged the new time is stored in the sidecar so they
+  * need not be hashed again.
+  * @return true if the sidecar can be used
+  */
+  private static boolean isCurrent(ByteBuffer index, File file, long size, long modified, String encoding, File sidecar)
+  throws IOException {
+    if (index.getInt(0) != MAGIC || index.getInt(4) != VERSION || index.getInt(CHECKSUM_POSITION) != checksum(index)) {
+      return false;
+    }
+    int count = index.getInt(COUNT_POSITION);
+    int poolStart = index.getInt(POOL_POSITION);
+    if (count < 0 || count > (index.limit() - HEADER_SIZE) / (RECORD_SIZE + 8)
+    || poolStart != HEADER_SIZE + count * (RECORD_SIZE + 8)) {
+      return false;
+    }
+    if (index.getLong(SIZE_POSITION) != size || !encoding.equals(string(index, poolStart, index.getInt(ENCODING_POSITION)))) {
+      return false;
+    }
+    if (index.getLong(MODIFIED_POSITION) == modified) {
+      return true;
+    }
+    if (index.getLong(HASH_POSITION) != hash(file)) {
+      return false;
+    }
+    try {
+      RandomAccessFile output = new RandomAccessFile(sidecar, "rw");
+      try {
+        output.seek(MODIFIED_POSITION);
+        output.writeLong(modified);
+      } finally {
+        output.close();
+      }
+    } catch (IOException e) {
+      // the sidecar is still valid, it will just be hashed again next time
+    }
+    return true;
+  }
+
+  /**
+  * Computes the CRC-32 of the part of a sidecar after its header
+  */
+  private static int checksum(ByteBuffer index) {
+    CRC32 crc = new CRC32();
+    ByteBuffer body = index.duplicate();
+    body.position(HEADER_SIZE);
+    crc.update(body);
+    return (int)crc.getValue();
+  }
+
+  /**
+  * hash
+  * Computes the 64-bit FNV-1a hash of the contents of a file
+  */
+  private static long hash(File file) throws IOException {
+    ByteBuffer bytes = map(file);
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < bytes.limit(); i++) {
+      hash ^= bytes.get(i) & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+  * Maps a file into memory for reading
+  */
+  private static MappedByteBuffer map(File file) throws IOException {
+    FileInputStream stream = new FileInputStream(file);
+    try {
+      FileChannel fc = stream.getChannel();
+      return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  /**
+  * Writes a sidecar index next to its collection, replacing any old one only once
+  * the new one is complete
+  */
+  private static void write(byte[] built, File sidecar) throws IOException {
+    // a temporary file of its own, so that processes indexing the same collection
+    // at once don't write over each other
+    File directory = sidecar.getAbsoluteFile().getParentFile();
+    File temporary = File.createTempFile(sidecar.getName() + ".", ".tmp", directory);
+    FileOutputStream output = new FileOutputStream(temporary);
+    try {
+      output.write(built);
+    } catch (IOException e) {
+      output.close();
+      temporary.delete();
+      throw e;
+    } finally {
+      output.close();
+    }
+    if (!temporary.renameTo(sidecar)) {
+      sidecar.delete();
+      if (!temporary.renameTo(sidecar)) {
+        temporary.delete();
+        throw new IOException("Unable to write index file " + sidecar);
+      }
+    }
+  }
+
+  /**
+  * build
+  * Scans a collection and lays out its sidecar index
+  * @return The contents of the sidecar
+  */
+  private static byte[] build(CharSequence source, long size, long modified, long hash, String encoding) throws IOException {
+
+    List<TuneHeader> headers = new ArrayList<TuneHeader>();
+    HeaderScanner scanner = new HeaderScanner(source);
+    while (scanner.hasNext()) {
+      headers.add(scanner.next());
+    }
+    int count = headers.size();
+
+    // the strings, each stored once
+    ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    DataOutputStream pool = new DataOutputStream(poolBytes);
+    Map<String, Integer> interned = new HashMap<String, Integer>();
+
+    ByteBuffer records = ByteBuffer.allocate(count * RECORD_SIZE);
+    for (int tune = 0; tune < count; tune++) {
+      TuneHeader header = headers.get(tune);
+      int end = (tune + 1 < count) ? headers.get(tune + 1).getOffset() : source.length();
+      int record = tune * RECORD_SIZE;
+      records.putInt(record + OFFSET_FIELD, header.getOffset());
+      records.putInt(record + LENGTH_FIELD, end - header.getOffset());
+      records.putInt(record + INDEX_FIELD, header.getIndex());
+      records.putInt(record + TEMPO_FIELD, header.getTempo());
+      records.putInt(record + TITLE_FIELD, intern(header.getTitle(), interned, pool));
+      records.putInt(record + COMPOSER_FIELD, intern(header.getComposer(), interned, pool));
+      records.putInt(record + METER_FIELD, intern(header.getMeter(), interned, pool));
+      records.putInt(record + NOTE_LENGTH_FIELD, intern(header.getDefaultNoteLength(), interned, pool));
+      records.putInt(record + KEY_FIELD, intern(header.getKey(), interned, pool));
+      // a voice name is a header value, so it cannot hold a line break
+      StringBuilder voices = new StringBuilder();
+      for (String voice : header.getVoices()) {
+        voices.append(voice).append('\n');
+      }
+      records.putInt(record + VOICES_FIELD, intern(voices.toString(), interned, pool));
+    }
+    int encodingPosition = intern(encoding, interned, pool);
+
+    List<Integer> indexOrder = order(headers, new Comparator<TuneHeader>() {
+      public int compare(TuneHeader a, TuneHeader b) {
+        return Integer.compare(a.getIndex(), b.getIndex());
+      }
+    });
+    List<Integer> titleOrder = order(headers, new Comparator<TuneHeader>() {
+      public int compare(TuneHeader a, TuneHeader b) {
+        return String.CASE_INSENSITIVE_ORDER.compare(a.getTitle(), b.getTitle());
+      }
+    });
+
+    int poolStart = HEADER_SIZE + count * (RECORD_SIZE + 8);
+    ByteBuffer result = ByteBuffer.allocate(poolStart + poolBytes.size());
+    result.putInt(MAGIC);
+    result.putInt(VERSION);
+    result.putLong(SIZE_POSITION, size);
+    result.putLong(MODIFIED_POSITION, modified);
+    result.putLong(HASH_POSITION, hash);
+    result.putInt(COUNT_POSITION, count);
+    result.putInt(POOL_POSITION, poolStart);
+    result.putInt(ENCODING_POSITION, encodingPosition);
+    result.position(HEADER_SIZE);
+    result.put(records.array());
+    for (int tune : indexOrder) {
+      result.putInt(tune);
+    }
+    for (int tune : titleOrder) {
+      result.putInt(tune);
+    }
+    result.put(poolBytes.toByteArray());
+    result.putInt(CHECKSUM_POSITION, checksum(result));
+    return result.array();
+  }
+
+  /**
+  * Returns the positions of the tunes sorted by comparator, keeping tunes that compare
+  * equal in the order they appear
+  */
+  private static List<Integer> order(final List<TuneHeader> headers, final Comparator<TuneHeader> comparator) {
+    List<Integer> result = new ArrayList<Integer>();
+    for (int tune = 0; tune < headers.size(); tune++) {
+      result.add(tune);
+    }
+    Collections.sort(result, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return comparator.compare(headers.get(a), headers.get(b));
+      }
+    });
+    return result;
+  }
+
+  /**
+  * Returns the position of a string in the pool, adding it if it is not there yet
+  * @return the position, or -1 for null
+  */
+  private static int intern(String string, Map<String, Integer> interned, DataOutputStream pool) throws IOException {
+    if (string == null) {
+      return -1;
+    }
+    Integer position = interned.get(string);
+    if (position == null) {
+      position = pool.size();
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      pool.writeInt(bytes.length);
+      pool.write(bytes);
+      interned.put(string, position);
+    }
+    return position;
+  }
+
+  /**
+  * Reads a string from the pool
+  * @param position  The position of the string, or -1 for null
+  */
+  private String string(int position) {
+    return string(this.index, this.poolStart, position);
+  }
+
+  /**
+  * Reads a string from the pool of a sidecar
+  * @param index     The contents of the sidecar
+  * @param poolStart The position of the pool in the sidecar
+  * @param position  The position of the string in the pool, or -1 for null
+  */
+  private static String string(ByteBuffer index, int poolStart, int position) {
+    if (position < 0) {
+      return null;
+    }
+    int start = poolStart + position;
+    byte[] bytes = new byte[index.getInt(start)];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = index.get(start + 4 + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private int field(int tune, int field) {
+    if (tune < 0 || tune >= this.count) {
+      throw new IndexOutOfBoundsException("Tune " + tune + " out of bounds for " + this.count + " tunes");
+    }
+    return this.index.getInt(HEADER_SIZE + tune * RECORD_SIZE + field);
+  }
+
+  /**
+  * Returns the number of tunes in the collection
+  */
+  public int size() {
+    return this.count;
+  }
+
+  /**
+  * Returns the offset of the first character of a tune in the collection
+  * @param tune      The position of the tune in the collection
+  */
+  public int getOffset(int tune) {
+    return field(tune, OFFSET_FIELD);
+  }
+
+  /**
+  * Returns the number of characters in a tune, up to the start of the next tune
+  * @param tune      The position of the tune in the collection
+  */
+  public int getLength(int tune) {
+    return field(tune, LENGTH_FIELD);
+  }
+
+  /**
+  * Returns the value of the index header ('X') of a tune, or -1 if it has none that can be read
+  * @param tune      The position of the tune in the collection
+  */
+  public int getIndexNumber(int tune) {
+    return field(tune, INDEX_FIELD);
+  }
+
+  public String getTitle(int tune) {
+    return string(field(tune, TITLE_FIELD));
+  }
+
+  /**
+  * Returns the headers of a tune, read back from its record
+  * @param tune      The position of the tune in the collection
+  */
+  public TuneHeader getHeader(int tune) {
+    String voices = string(field(tune, VOICES_FIELD));
+    List<String> voiceNames = voices.isEmpty() ? new ArrayList<String>()
+    : new ArrayList<String>(Arrays.asList(voices.split("\n")));
+    return new TuneHeader(getOffset(tune), getIndexNumber(tune), getTitle(tune), string(field(tune, COMPOSER_FIELD)),
+    string(field(tune, METER_FIELD)), string(field(tune, NOTE_LENGTH_FIELD)), field(tune, TEMPO_FIELD),
+    string(field(tune, KEY_FIELD)), voiceNames);
+  }
+
+  /**
+  * find
+  * Finds the tune with the passed index header ('X') value, with a binary search
+  * @param indexNumber   The value of the index header of the tune
+  * @return              The position of the first tune with that index, or -1 if there is none
+  */
+  public int find(int indexNumber) {
+    int low = 0;
+    int high = this.count;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (getIndexNumber(this.index.getInt(this.indexOrderStart + middle * 4)) < indexNumber) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    if (low < this.count) {
+      int tune = this.index.getInt(this.indexOrderStart + low * 4);
+      if (getIndexNumber(tune) == indexNumber) {
+        return tune;
+      }
+    }
+    return -1;
+  }
+
+  /**
+  * findByTitle
+  * Finds the tunes whose title starts with the passed prefix, ignoring case, with a
+  * binary search for the first of them
+  * @param prefix    The start of the title
+  * @return          The positions of the tunes, in the order they appear
+  */
+  public List<Integer> findByTitle(String prefix) {
+    int low = 0;
+    int high = this.count;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      String title = getTitle(this.index.getInt(this.titleOrderStart + middle * 4));
+      if (String.CASE_INSENSITIVE_ORDER.compare(title, prefix) < 0) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    List<Integer> result = new ArrayList<Integer>();
+    for (int i = low; i < this.count; i++) {
+      int tune = this.index.getInt(this.titleOrderStart + i * 4);
+      if (!getTitle(tune).regionMatches(true, 0, prefix, 0, prefix.length())) {
+        break;
+      }
+      result.add(tune);
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+  * getTuneText
+  * Returns the characters of one tune, from its index header up to the next tune
+  * @param tune      The position of the tune in the collection
+  * @return          The characters of the tune, sharing the storage of the collection
+  */
+  public CharSequence getTuneText(int tune) {
+    return this.source.subSequence(getOffset(tune), getOffset(tune) + getLength(tune));
+  }
+
+  /**
+  * parseTune
+  * Lexes and parses a single tune of the collection into a Piece, reading none of
+  * the other tunes. Throws an IllegalArgumentException if the tune is not valid abc.
+  * @param tune      The position of the tune in the collection
+  * @return          The piece produced by parsing the tune
+  */
+  public Piece parseTune(int tune) {
+    return new Parser(new Lexer(getTuneText(tune))).parse();
+  }
+
+}
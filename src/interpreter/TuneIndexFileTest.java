@@ -0,0 +1,87 @@
+package interpreter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TuneIndexFileTest {
+
+  // test to confirm an index file finds the same tunes as a tune index scanning the
+  // collection, and is rebuilt once the collection has changed
+  @Test
+  public void tuneIndexFileTest() throws IOException {
+    String collection = "X:2\nT:Second\nC:Someone\nV:upper\nK:D\nV:upper\nA B c d |]\n\n"
+    + "X:1\nT:first\nC:Someone\nK:C\nA B c d |]\n\n"
+    + "X:3\nT:Firstly\nK:C\nA B c d\n";
+    File file = File.createTempFile("collection", ".abc");
+    File sidecar = new File(file.getPath() + ".idx");
+    file.deleteOnExit();
+    sidecar.deleteOnExit();
+    FileWriter writer = new FileWriter(file);
+    writer.write(collection);
+    writer.close();
+
+    TuneIndexFile tunes = TuneIndexFile.open(file.getPath());
+    TuneIndex scanned = new TuneIndex(collection);
+    assertTrue(sidecar.isFile());
+    assertEquals(3, tunes.size());
+    for (int tune = 0; tune < tunes.size(); tune++) {
+      assertEquals(scanned.getHeader(tune), tunes.getHeader(tune));
+      assertEquals(scanned.getTuneText(tune).toString(), tunes.getTuneText(tune).toString());
+    }
+    assertEquals(1, tunes.find(1));
+    assertEquals(-1, tunes.find(4));
+    assertEquals(Arrays.asList(1, 2), tunes.findByTitle("FIRST"));
+    assertEquals(new Parser(new Lexer(collection.substring(0, collection.indexOf("X:1")))).parse().toString(),
+    tunes.parseTune(0).toString());
+
+    // an index of a collection that has changed is rebuilt
+    writer = new FileWriter(file, true);
+    writer.write("\nX:4\nT:Added\nK:C\nA B c d |]\n");
+    writer.close();
+    tunes = TuneIndexFile.open(file.getPath());
+    assertEquals(4, tunes.size());
+    assertEquals(3, tunes.find(4));
+  }
+
+  // test to confirm an index built over the decoded characters of a collection is rebuilt,
+  // not trusted, when the same collection is read again as bytes, and that a damaged
+  // index is rebuilt too
+  @Test
+  public void tuneIndexFileEncodingTest() throws IOException {
+    String collection = "X:1\nT:Caf\u00e9 \u00e0 la cr\u00e8me\nK:C\nA B c d |]\n\n"
+    + "X:2\nT:Second\nK:C\nA B c d |]\n";
+    byte[] bytes = collection.getBytes(StandardCharsets.UTF_8);
+    File file = File.createTempFile("collection", ".abc");
+    File sidecar = new File(file.getPath() + ".idx");
+    file.deleteOnExit();
+    sidecar.deleteOnExit();
+    FileOutputStream output = new FileOutputStream(file);
+    output.write(bytes);
+    output.close();
+
+    TuneIndexFile tunes = TuneIndexFile.open(file.getPath(), collection);
+    assertTrue(tunes.getTuneText(1).toString().startsWith("X:2"));
+    tunes = TuneIndexFile.open(file.getPath(), new AsciiCharSequence(ByteBuffer.wrap(bytes), StandardCharsets.UTF_8));
+    assertTrue(tunes.getTuneText(1).toString().startsWith("X:2"));
+    assertEquals(collection.substring(0, collection.indexOf("X:2")).getBytes(StandardCharsets.UTF_8).length, tunes.getOffset(1));
+
+    // a damaged index is rebuilt
+    RandomAccessFile damaged = new RandomAccessFile(sidecar, "rw");
+    damaged.seek(sidecar.length() - 1);
+    damaged.write(0);
+    damaged.close();
+    tunes = TuneIndexFile.open(file.getPath(), collection);
+    assertEquals("Second", tunes.getTitle(1));
+    assertTrue(tunes.getTuneText(1).toString().startsWith("X:2"));
+  }
+
+}
@@ -28,6 +28,33 @@ public class Util {
     }
   }
 
+  /**
+   * readCharSequenceFromFile
+   * Reads the contents of a file as characters for lexing. The file is memory-mapped
+   * and, when the platform charset is UTF-8 or a single-byte charset that agrees with
+   * ASCII, its bytes are read in place as characters instead of being decoded into a
+   * String up front. Only the text of tokens containing non-ASCII characters, such as
+   * a title or composer, is ever decoded.
+   * @param path      The path of the file
+   * @exception       Throws IOException if there was an error reading the file
+   * @return          The contents of the file at path
+   */
+  public static CharSequence readCharSequenceFromFile(String path) throws IOException {
+    Charset charset = Charset.defaultCharset();
+    if (!AsciiCharSequence.isAsciiCompatible(charset)) {
+      return readStringFromFile(path);
+    }
+    FileInputStream stream = new FileInputStream(new File(path));
+    try {
+      FileChannel fc = stream.getChannel();
+      MappedByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+      return new AsciiCharSequence(bb, charset);
+    }
+    finally {
+      stream.close();
+    }
+  }
+
   /**
    * countOccurrencesOfSubstring
    * Count the number of occurrences of a string within a string.
@@ -2,43 +2,143 @@ package interpreter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class Voice implements MusicalElement {
 
     private String name;
     private final List<Measure> measures;
+    // the playback order last compiled, or null once the measures have changed;
+    // volatile so that a voice read by several threads is safe to compile
+    private volatile PlaybackOrder playbackOrder;
+    // true if the voice belongs to a shared Piece, and so can't be changed
+    private final boolean shared;
 
     public Voice() {
       this.measures = new ArrayList<Measure>();
+      this.shared = false;
     }
 
     public Voice(Measure measure) {
       this.measures = new ArrayList<Measure>(Arrays.asList(measure));
+      this.shared = false;
     }
 
     public Voice(List<Measure> measures) {
       this.measures = measures;
+      this.shared = false;
+    }
+
+    /**
+    * Creates a shared voice, whose measures can't be changed
+    */
+    private Voice(String name, List<Measure> sharedMeasures) {
+      this.name = name;
+      this.measures = Collections.unmodifiableList(sharedMeasures);
+      this.shared = true;
+    }
+
+    /**
+    * share
+    * Creates a voice equal to this one that can't be changed, holding the shared
+    * measure of each of its measures, for a shared Piece
+    * @param table     The table to share the measures through
+    * @return          The shared voice
+    */
+    Voice share(MeasureTable table) {
+      List<Measure> sharedMeasures = new ArrayList<Measure>(this.measures.size());
+      for (Measure measure : this.measures) {
+        sharedMeasures.add(table.intern(measure));
+      }
+      return new Voice(this.name, sharedMeasures);
+    }
+
+    /**
+    * Returns true if the voice belongs to a shared Piece, and so can't be changed
+    */
+    public boolean isShared() {
+      return this.shared;
+    }
+
+    private void checkNotShared() {
+      if (this.shared) {
+        throw new UnsupportedOperationException("Voice " + this.name + " is shared and can't be changed");
+      }
     }
 
     public void addMeasure(Measure measure) {
+      checkNotShared();
       measures.add(measure);
+      this.playbackOrder = null;
     }
 
     public void addMeasures(List<Measure> measureList) {
+      checkNotShared();
       for (Measure measure : measureList)
         measures.add(measure);
+      this.playbackOrder = null;
     }
 
     public List<Measure> getMeasures() {
       return measures;
     }
 
+    /**
+    * getPlaybackOrder
+    * Returns the order the measures of the voice are performed in, repeats unrolled.
+    * The order is compiled the first time it is asked for, and kept until measures
+    * are added or invalidatePlaybackOrder is called. A change in the number of
+    * measures is also noticed, but measures changed through getMeasures must
+    * otherwise be followed by a call to invalidatePlaybackOrder.
+    * @return The playback order of the measures
+    */
+    public PlaybackOrder getPlaybackOrder() {
+      PlaybackOrder order = this.playbackOrder;
+      if (order == null || order.getMeasureCount() != this.measures.size()) {
+        order = PlaybackOrder.compile(this.measures);
+        this.playbackOrder = order;
+      }
+      return order;
+    }
+
+    /**
+    * invalidatePlaybackOrder
+    * Discards the compiled playback order, so it is compiled again the next time it
+    * is asked for. Called after the measures or their repeat types are changed
+    * other than by addMeasure or addMeasures.
+    */
+    public void invalidatePlaybackOrder() {
+      this.playbackOrder = null;
+    }
+
+    /**
+    * performance
+    * Returns an iterator over the measures of the voice in the order they are
+    * performed, which follows the repeats as it goes instead of unrolling them
+    * @return The iterator
+    */
+    public PerformanceIterator performance() {
+      return new PerformanceIterator(this.measures);
+    }
+
+    /**
+    * performance
+    * Returns an iterator over the measures of the voice in the order they are
+    * performed, which also keeps the tick each measure starts and ends at
+    * @param ticksPerDefaultNoteLength   The number of ticks in a default note length
+    * @return                            The iterator
+    */
+    public TimedPerformanceIterator performance(int ticksPerDefaultNoteLength) {
+      return new TimedPerformanceIterator(this.measures, ticksPerDefaultNoteLength);
+    }
+
     public String getName() {
       return this.name;
     }
 
     public void setName(String newName) {
+      checkNotShared();
       this.name = newName;
     }
 
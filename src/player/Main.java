@@ -1,6 +1,7 @@
 package player;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiUnavailableException;
@@ -11,10 +12,14 @@ import interpreter.Util;
 
 import interpreter.Lexer;
 import interpreter.Parser;
-import interpreter.NoteLengthVisitor;
 import interpreter.SequenceBuilderVisitor;
 
 import interpreter.Piece;
+import interpreter.PieceCache;
+import interpreter.PlaybackOrder;
+import interpreter.TuneCollection;
+import interpreter.TuneIndex;
+import interpreter.Voice;
 
 /**
 * Main entry point of your application.
@@ -32,28 +37,74 @@ public class Main {
   */
   public static void play(String file) {
 
-    String input;
+    CharSequence input;
 
     try {
-      input = Util.readStringFromFile(file);
+      input = Util.readCharSequenceFromFile(file);
     } catch (IOException e) {
       System.out.println("Unable to read contents of file " + file);
       return;
     }
 
+    play(input);
+  }
+
+  /**
+  * Plays one tune of a collection file holding several tunes, found by its
+  * index header ('X'), and displays its header information to the standard
+  * output stream. Only the chosen tune is parsed.
+  *
+  * @param file the name of input abc file
+  * @param indexNumber the value of the index header of the tune to play
+  */
+  public static void play(String file, int indexNumber) {
+
+    TuneCollection tunes;
+
     try {
+      tunes = TuneIndex.fromFile(file);
+    } catch (IOException e) {
+      System.out.println("Unable to read contents of file " + file);
+      return;
+    }
 
-      // create the lexer and use it as input to the parser
-      Lexer lexer = new Lexer(input);
-      Parser parser = new Parser(lexer);
+    int tune = tunes.find(indexNumber);
+    if (tune < 0) {
+      System.out.println("No tune with index " + indexNumber + " found in file " + file);
+      return;
+    }
+    play(tunes.getTuneText(tune));
+  }
 
-      // run the parser to produce a piece object, the root of the AST
-      Piece piece = parser.parse();
+  /**
+  * Plays the passed abc text and displays its header information. If the system
+  * property abcplayer.cache names a directory, text that has been played before is
+  * loaded from the piece cache there instead of being parsed.
+  *
+  * @param input the characters of a single tune
+  */
+  private static void play(CharSequence input) {
 
-      // Walk through the AST to get the smallest number of
-      // ticks per default note length
-      NoteLengthVisitor noteLengthVisitor = new NoteLengthVisitor(piece);
-      int ticksPerDefaultNoteLength = noteLengthVisitor.computeTicksPerBeat();
+    try {
+
+      // lex and parse the input to produce a piece object, the root of the AST,
+      // unless the same input has been parsed before
+      PieceCache cache = PieceCache.getConfigured();
+      Piece piece = (cache != null) ? cache.get(input) : new Parser(new Lexer(input)).parse();
+
+      // malformed repeats are still played, by the rules PerformanceIterator gives,
+      // but are reported like the parser's warnings
+      for (Voice voice : piece.getVoices()) {
+        PlaybackOrder order = voice.getPlaybackOrder();
+        if (!order.isWellFormed()) {
+          System.out.println("Warning in voice '" + voice.getName() + "': the following measures have malformed repeats: "
+          + Arrays.toString(order.getMalformedRepeats()));
+        }
+      }
+
+      // the smallest number of ticks per default note length, counted as the
+      // piece was built, so the AST is only walked to build the sequence
+      int ticksPerDefaultNoteLength = piece.getTicksPerDefaultNoteLength();
 
       SequencePlayer player = new SequencePlayer(piece.getDefaultNoteLengthsPerMinute(), ticksPerDefaultNoteLength);
       SequenceBuilderVisitor sequenceBuilderVisitor = new SequenceBuilderVisitor(player, ticksPerDefaultNoteLength);
@@ -73,14 +124,24 @@ public class Main {
   }
 
   /**
-  * Main function that takes a single command line argument, a path to an abc file,
-  * and plays it back
+  * Main function that takes a path to an abc file as its command line argument,
+  * and plays it back. For a collection of tunes, the index of the tune to play
+  * can be passed as a second argument.
   * @param args
   */
   public static void main(String[] args) {
 
-    if (args.length != 1) {
-      System.out.println("Invalid number of arguments. Please input a path to a file in ABC format.");
+    if (args.length != 1 && args.length != 2) {
+      System.out.println("Invalid number of arguments. Please input a path to a file in ABC format, optionally followed by the index of a tune.");
+      return;
+    }
+
+    if (args.length == 2) {
+      try {
+        play(args[0], Integer.parseInt(args[1]));
+      } catch (NumberFormatException e) {
+        System.out.println("Invalid tune index " + args[1]);
+      }
       return;
     }
 